@@ -36,6 +36,7 @@ import org.jbpm.db.ContextSession;
 import org.jbpm.db.GraphSession;
 import org.jbpm.db.JobSession;
 import org.jbpm.db.LoggingSession;
+import org.jbpm.db.TaskListQuery;
 import org.jbpm.db.TaskMgmtSession;
 import org.jbpm.graph.def.ProcessDefinition;
 import org.jbpm.graph.exe.ProcessInstance;
@@ -202,6 +203,16 @@ public class JbpmContext implements Serializable
     return getTaskMgmtSession().findPooledTaskInstances(actorIds);
   }
 
+  /**
+   * fetches a page of the personal and pooled task instances of the actors in the given query, in a single query.
+   * 
+   * @see TaskListQuery
+   */
+  public List getTaskList(TaskListQuery taskListQuery)
+  {
+    return getTaskMgmtSession().findTaskInstances(taskListQuery);
+  }
+
   /**
    * loads a task instance from the db.
    * 
@@ -386,6 +397,59 @@ public class JbpmContext implements Serializable
     return processInstance;
   }
 
+  /**
+   * loads a process instance from the db together with the part of its object graph that the given fetch plan
+   * describes, for example {@link org.jbpm.db.FetchPlan#EXECUTION}.
+   *
+   * @throws JbpmException in case no such process instance exists.
+   * @see org.jbpm.db.FetchPlan
+   */
+  public ProcessInstance loadProcessInstance(long processInstanceId, String fetchPlan)
+  {
+    return getGraphSession().loadProcessInstance(processInstanceId, fetchPlan);
+  }
+
+  /**
+   * gets a process instance from the db together with the part of its object graph that the given fetch plan
+   * describes.
+   *
+   * @return the process instance or null in case no such process instance exists.
+   * @see org.jbpm.db.FetchPlan
+   */
+  public ProcessInstance getProcessInstance(long processInstanceId, String fetchPlan)
+  {
+    return getGraphSession().getProcessInstance(processInstanceId, fetchPlan);
+  }
+
+  /**
+   * loads a process instance with the given fetch plan and registers it for auto-save.
+   *
+   * @throws JbpmException in case no such process instance exists.
+   * @see #loadProcessInstanceForUpdate(long)
+   */
+  public ProcessInstance loadProcessInstanceForUpdate(long processInstanceId, String fetchPlan)
+  {
+    ProcessInstance processInstance = getGraphSession().loadProcessInstance(processInstanceId, fetchPlan);
+    addAutoSaveProcessInstance(processInstance);
+    return processInstance;
+  }
+
+  /**
+   * gets a process instance with the given fetch plan and registers it for auto-save.
+   *
+   * @return the process instance or null in case no such process instance exists.
+   * @see #getProcessInstanceForUpdate(long)
+   */
+  public ProcessInstance getProcessInstanceForUpdate(long processInstanceId, String fetchPlan)
+  {
+    ProcessInstance processInstance = getGraphSession().getProcessInstance(processInstanceId, fetchPlan);
+    if (processInstance != null)
+    {
+      addAutoSaveProcessInstance(processInstance);
+    }
+    return processInstance;
+  }
+
   /**
    * returns the process instance with the given key or null if no such instance exists.
    */
@@ -601,6 +665,34 @@ public class JbpmContext implements Serializable
     }
   }
 
+  /**
+   * tells whether the default configured persistence service works in read-only mode.
+   * @see #setReadOnly(boolean)
+   */
+  public boolean isReadOnly()
+  {
+    PersistenceService persistenceService = getPersistenceService();
+    return persistenceService instanceof DbPersistenceService
+      ? ((DbPersistenceService) persistenceService).isReadOnly()
+      : false;
+  }
+
+  /**
+   * puts the default configured persistence service in read-only mode, for contexts that only query.
+   * the hibernate session is never flushed, so loaded objects are not dirty checked and changes to them 
+   * are not saved. connections come from the read-only datasource, if one is configured.
+   * call this before the session is used.
+   * if a nonstandard persistence service is configured, then this call has no effect.
+   */
+  public void setReadOnly(boolean isReadOnly)
+  {
+    PersistenceService persistenceService = getPersistenceService();
+    if (persistenceService instanceof DbPersistenceService) {
+      DbPersistenceService dbPersistenceService = (DbPersistenceService) persistenceService;
+      dbPersistenceService.setReadOnly(isReadOnly);
+    }
+  }
+
   // jbpm database access sessions
 
   /**
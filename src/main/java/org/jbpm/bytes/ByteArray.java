@@ -21,13 +21,21 @@
  */
 package org.jbpm.bytes;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.sql.Blob;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Hibernate;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmException;
+import org.jbpm.util.IoUtil;
 import org.jbpm.util.StringUtil;
 
 /**
@@ -39,6 +47,15 @@ import org.jbpm.util.StringUtil;
  * 
  * ByteArray is used in process variableInstances and in the file module (that stores the 
  * non-parsed process archive files). 
+ * 
+ * On databases that handle blobs well, set <code>jbpm.byte.array.storage</code> to 
+ * <code>blob</code>.  New byte arrays are then stored in a single blob column, written and 
+ * read as a stream instead of a row per 1K block.  Byte arrays that were stored in blocks 
+ * stay readable, so the setting can be changed on an existing database.  Blob contents can 
+ * only be read while the session that loaded them is open.
+ * 
+ * A serialized byte array always carries its bytes in blocks, also when it is stored as 
+ * a blob, the blob contents are written as blocks.
  */
 public class ByteArray implements Serializable {
   
@@ -47,6 +64,10 @@ public class ByteArray implements Serializable {
   long id = 0;
   protected String name = null;
   protected List byteBlocks = null;
+  protected transient Blob content = null;
+
+  public static final String STORAGE_BLOCKS = "blocks";
+  public static final String STORAGE_BLOB = "blob";
   
   private static final Log log = LogFactory.getLog(ByteArray.class);
   
@@ -54,7 +75,31 @@ public class ByteArray implements Serializable {
   }
 
   public ByteArray(byte[] bytes) {
-    this.byteBlocks = ByteBlockChopper.chopItUp(bytes);
+    if ( (bytes!=null)
+         && (isBlobStorage())
+       ) {
+      this.content = Hibernate.createBlob(bytes);
+    } else {
+      this.byteBlocks = ByteBlockChopper.chopItUp(bytes);
+    }
+  }
+
+  /**
+   * creates a byte array with the given number of bytes from the stream.
+   * With blob storage, the stream is read when the byte array is 
+   * inserted, so it must stay open till the session is flushed.  A stream 
+   * backed blob can't be reset, so the bytes of this byte array must not be 
+   * read before that flush: {@link #getBytes()}, {@link #getInputStream()} 
+   * and the copy constructor would consume the stream and leave nothing to 
+   * insert.
+   */
+  public ByteArray(String name, InputStream stream, int length) throws IOException {
+    this.name = name;
+    if (isBlobStorage()) {
+      this.content = Hibernate.createBlob(stream, length);
+    } else {
+      this.byteBlocks = ByteBlockChopper.chopItUp(IoUtil.readBytes(stream));
+    }
   }
 
   public ByteArray(String name, byte[] bytes) {
@@ -83,9 +128,18 @@ public class ByteArray implements Serializable {
     if (otherByteBlocks!=null) {
       this.byteBlocks = new ArrayList(otherByteBlocks);
     }
+    if (other.content!=null) {
+      // a blob can't be shared between rows
+      this.content = Hibernate.createBlob(other.getBytes());
+    }
     this.name = other.name;
   }
 
+  static boolean isBlobStorage() {
+    return JbpmConfiguration.Configs.hasObject("jbpm.byte.array.storage")
+           && STORAGE_BLOB.equals(JbpmConfiguration.Configs.getString("jbpm.byte.array.storage"));
+  }
+
   public byte[] getBytes() {
     /*
     if (log.isDebugEnabled()) {
@@ -94,21 +148,73 @@ public class ByteArray implements Serializable {
       }
     }
     */
+    if (content!=null) {
+      try {
+        return IoUtil.readBytes(getInputStream());
+      } catch (IOException e) {
+        throw new JbpmException("couldn't read blob contents of byte array "+id, e);
+      }
+    }
     return ByteBlockChopper.glueChopsBackTogether(byteBlocks);
   }
 
+  /**
+   * streams the bytes, without copying them into one array first.
+   * @return a stream of the bytes, or null if there are none.
+   */
+  public InputStream getInputStream() {
+    if (content!=null) {
+      try {
+        return content.getBinaryStream();
+      } catch (Exception e) {
+        throw new JbpmException("couldn't stream blob contents of byte array "+id, e);
+      }
+    }
+    if (byteBlocks==null) {
+      return null;
+    }
+    return ByteBlockChopper.streamChops(byteBlocks);
+  }
+
+  /**
+   * the number of bytes.
+   */
+  public long getLength() {
+    if (content!=null) {
+      try {
+        return content.length();
+      } catch (Exception e) {
+        throw new JbpmException("couldn't get blob length of byte array "+id, e);
+      }
+    }
+    return ByteBlockChopper.countChoppedBytes(byteBlocks);
+  }
+
+  public boolean isStoredAsBlob() {
+    return (content!=null);
+  }
+
   public long getId() {
     return id;
   }
 
   public boolean equals(Object o) {
+    if (o==this) return true;
     if (o==null) return false;
     if (! (o instanceof ByteArray)) return false;
     ByteArray other = (ByteArray) o;
-    return Arrays.equals(ByteBlockChopper.glueChopsBackTogether(byteBlocks), ByteBlockChopper.glueChopsBackTogether(other.byteBlocks));
+    // comparing blob contents would read both blobs completely 
+    // and would consume the stream of a blob that isn't inserted yet
+    if ( (content!=null)
+         || (other.content!=null)
+       ) {
+      return false;
+    }
+    return Arrays.equals(getBytes(), other.getBytes());
   }
 
   public int hashCode() {
+    if (content!=null) return System.identityHashCode(this);
     if (byteBlocks==null) return 0;
     return byteBlocks.hashCode();
   }
@@ -116,4 +222,19 @@ public class ByteArray implements Serializable {
   public List getByteBlocks() {
     return byteBlocks;
   }
+
+  /**
+   * the blob is transient, so its contents are written as byte blocks.  
+   * The blocks of this byte array are left untouched, hibernate would 
+   * otherwise insert them next to the blob.  The deserialized copy reads 
+   * its bytes from the blocks.  Like {@link #getBytes()}, this reads the 
+   * blob, so the session that loaded it must be open.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("id", id);
+    fields.put("name", name);
+    fields.put("byteBlocks", (content!=null ? ByteBlockChopper.chopItUp(getBytes()) : byteBlocks));
+    out.writeFields();
+  }
 }
@@ -21,6 +21,7 @@
  */
 package org.jbpm.bytes;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -111,4 +112,85 @@ public class ByteBlockChopper {
     }
     return byteArray;
   }
+
+  /**
+   * counts the bytes in the given blocks, the same number as the length of
+   * the array that {@link #glueChopsBackTogether(List)} would return.
+   */
+  public static long countChoppedBytes(List byteBlocks) {
+    if ( (byteBlocks==null)
+         || (byteBlocks.isEmpty())
+       ) {
+      return 0;
+    }
+    int blockCount = byteBlocks.size();
+    byte[] lastBlock = (byte[]) byteBlocks.get(blockCount - 1);
+    if (blockCount==1) {
+      return lastBlock.length;
+    }
+    int blockSize = JbpmConfiguration.Configs.getInt("jbpm.byte.block.size");
+    return (long) blockSize * (blockCount - 1) + lastBlock.length;
+  }
+
+  /**
+   * streams the bytes of the given blocks one block after the other, 
+   * without gluing them into one array.  Blocks that were truncated by the 
+   * database are zero filled like in {@link #glueChopsBackTogether(List)}.
+   */
+  public static InputStream streamChops(List byteBlocks) {
+    int blockSize = (byteBlocks.size()>1 ? JbpmConfiguration.Configs.getInt("jbpm.byte.block.size") : 0);
+    return new ByteBlockInputStream(byteBlocks, blockSize);
+  }
+
+  static class ByteBlockInputStream extends InputStream {
+
+    List byteBlocks;
+    int blockSize;
+    int blockIndex = 0;
+    int offset = 0;
+
+    ByteBlockInputStream(List byteBlocks, int blockSize) {
+      this.byteBlocks = byteBlocks;
+      this.blockSize = blockSize;
+    }
+
+    public int read() {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1)==-1 ? -1 : (b[0] & 0xff));
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (len==0) {
+        return 0;
+      }
+      while (blockIndex<byteBlocks.size()) {
+        byte[] block = (byte[]) byteBlocks.get(blockIndex);
+        boolean isLastBlock = (blockIndex==byteBlocks.size()-1);
+        // JBPM-702 sybase truncates trailing zeros
+        int length = (isLastBlock ? block.length : Math.max(block.length, blockSize));
+        if (offset<length) {
+          int count = Math.min(len, length-offset);
+          if (offset<block.length) {
+            count = Math.min(count, block.length-offset);
+            System.arraycopy(block, offset, b, off, count);
+          } else {
+            Arrays.fill(b, off, off+count, (byte) 0);
+          }
+          offset += count;
+          return count;
+        }
+        blockIndex++;
+        offset = 0;
+      }
+      return -1;
+    }
+
+    public int available() {
+      if (blockIndex>=byteBlocks.size()) {
+        return 0;
+      }
+      byte[] block = (byte[]) byteBlocks.get(blockIndex);
+      return Math.max(0, block.length-offset);
+    }
+  }
 }
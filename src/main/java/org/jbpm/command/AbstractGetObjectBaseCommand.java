@@ -1,10 +1,17 @@
 package org.jbpm.command;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jbpm.JbpmContext;
+import org.jbpm.db.FetchPlan;
+import org.jbpm.db.ScrollableResultIterator;
 import org.jbpm.graph.def.Node;
 import org.jbpm.graph.def.ProcessDefinition;
 import org.jbpm.graph.def.Transition;
@@ -37,6 +44,29 @@ public abstract class AbstractGetObjectBaseCommand extends AbstractBaseCommand
    */
   private String[] variablesToInclude = new String[0];
 
+  /**
+   * if true, objects that are not found in the runtime tables are searched in the history tables of archived process
+   * instances. Historic objects are read only and their process variables are not prefetched.
+   */
+  private boolean includeHistory = false;
+
+  /**
+   * name of the {@link FetchPlan} that loads the object graphs of the resulting process instances before their details
+   * are retrieved, so that retrieving them doesn't fire a select per token, variable or task
+   */
+  private String fetchPlan = null;
+
+  /**
+   * if given, listing commands stream their results through this handler instead of returning them in a list, and
+   * return the number of results
+   */
+  private ResultHandler resultHandler = null;
+
+  /**
+   * number of results that are streamed between two session clears
+   */
+  private int batchSize = ScrollableResultIterator.DEFAULT_BATCH_SIZE;
+
   private transient JbpmContext jbpmContext;
 
   public AbstractGetObjectBaseCommand()
@@ -75,6 +105,56 @@ public abstract class AbstractGetObjectBaseCommand extends AbstractBaseCommand
     }
   }
 
+  /**
+   * runs the fetch plan, if any, for the given process instances at once.
+   */
+  protected void fetchProcessInstances(Collection processInstances)
+  {
+    if ((fetchPlan == null) || (jbpmContext == null))
+    {
+      return;
+    }
+    Set processInstanceIds = new LinkedHashSet();
+    Iterator iter = processInstances.iterator();
+    while (iter.hasNext())
+    {
+      ProcessInstance pi = (ProcessInstance)iter.next();
+      if ((pi != null) && (!isHistoric(pi)))
+      {
+        processInstanceIds.add(new Long(pi.getId()));
+      }
+    }
+    jbpmContext.getGraphSession().fetchProcessInstances(new ArrayList(processInstanceIds), fetchPlan);
+  }
+
+  /**
+   * runs the fetch plan, if any, for the process instances of the given task instances at once.
+   */
+  protected void fetchTaskInstanceProcessInstances(Collection taskInstances)
+  {
+    if (fetchPlan == null)
+    {
+      return;
+    }
+    List processInstances = new ArrayList();
+    Iterator iter = taskInstances.iterator();
+    while (iter.hasNext())
+    {
+      TaskInstance ti = (TaskInstance)iter.next();
+      ProcessInstance pi = ti.getProcessInstance();
+      if ((pi == null) && (ti.getToken() != null))
+      {
+        pi = ti.getToken().getProcessInstance();
+      }
+      // stand-alone task instances have nothing to fetch
+      if (pi != null)
+      {
+        processInstances.add(pi);
+      }
+    }
+    fetchProcessInstances(processInstances);
+  }
+
   public ProcessInstance retrieveProcessInstance(ProcessInstance pi)
   {
     try
@@ -143,6 +223,11 @@ public abstract class AbstractGetObjectBaseCommand extends AbstractBaseCommand
 
   public void retrieveVariables(ProcessInstance pi)
   {
+    if (isHistoric(pi))
+    {
+      // archived process instances have no context instance
+      return;
+    }
     if (includeAllVariables)
     {
       pi.getContextInstance().getVariables();
@@ -158,6 +243,12 @@ public abstract class AbstractGetObjectBaseCommand extends AbstractBaseCommand
 
   public void retrieveVariables(TaskInstance ti)
   {
+    if (isHistoric(ti))
+    {
+      // only the task variables were archived along with the task instance
+      ti.getVariablesLocally();
+      return;
+    }
     if (includeAllVariables)
     {
       ti.getVariables();
@@ -196,6 +287,51 @@ public abstract class AbstractGetObjectBaseCommand extends AbstractBaseCommand
     this.variablesToInclude = new String[] { variableToInclude };
   }
 
+  protected boolean isHistoric(Object object)
+  {
+    return (includeHistory) && (jbpmContext != null) && (jbpmContext.getGraphSession().isHistoric(object));
+  }
+
+  public boolean isIncludeHistory()
+  {
+    return includeHistory;
+  }
+
+  public void setIncludeHistory(boolean includeHistory)
+  {
+    this.includeHistory = includeHistory;
+  }
+
+  public String getFetchPlan()
+  {
+    return fetchPlan;
+  }
+
+  public void setFetchPlan(String fetchPlan)
+  {
+    this.fetchPlan = fetchPlan;
+  }
+
+  public ResultHandler getResultHandler()
+  {
+    return resultHandler;
+  }
+
+  public void setResultHandler(ResultHandler resultHandler)
+  {
+    this.resultHandler = resultHandler;
+  }
+
+  public int getBatchSize()
+  {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize)
+  {
+    this.batchSize = batchSize;
+  }
+
   protected JbpmContext getJbpmContext()
   {
     return jbpmContext;
@@ -226,4 +362,28 @@ public abstract class AbstractGetObjectBaseCommand extends AbstractBaseCommand
     return this;
   }
 
+  public AbstractGetObjectBaseCommand includeHistory(boolean includeHistory)
+  {
+    setIncludeHistory(includeHistory);
+    return this;
+  }
+
+  public AbstractGetObjectBaseCommand fetchPlan(String fetchPlan)
+  {
+    setFetchPlan(fetchPlan);
+    return this;
+  }
+
+  public AbstractGetObjectBaseCommand resultHandler(ResultHandler resultHandler)
+  {
+    setResultHandler(resultHandler);
+    return this;
+  }
+
+  public AbstractGetObjectBaseCommand batchSize(int batchSize)
+  {
+    setBatchSize(batchSize);
+    return this;
+  }
+
 }
\ No newline at end of file
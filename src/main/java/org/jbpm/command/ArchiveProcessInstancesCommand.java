@@ -0,0 +1,108 @@
+package org.jbpm.command;
+
+import java.util.Date;
+
+import org.jbpm.JbpmContext;
+import org.jbpm.db.ProcessInstanceArchiver;
+
+/**
+ * Moves all process instances that ended before the cutoff date to the 
+ * history tables, together with their tokens, variables, tasks, logs and 
+ * comments. Without a cutoff date, all ended process instances are moved.
+ * 
+ * The archiving runs in its own transactions, one per chunk of process 
+ * instances, on the given number of threads. The history tables have to be 
+ * mapped, see org/jbpm/db/hibernate.history.hbm.xml. The result is the 
+ * number of archived process instances.
+ * 
+ * @see ProcessInstanceArchiver
+ */
+public class ArchiveProcessInstancesCommand extends AbstractBaseCommand
+{
+
+  private static final long serialVersionUID = 1L;
+
+  private Date cutoff;
+
+  /*
+   * number of threads that archive id ranges in parallel
+   */
+  private int threads = 1;
+
+  /*
+   * number of process instances that are archived in one transaction
+   */
+  private int chunkSize = 100;
+
+  public ArchiveProcessInstancesCommand()
+  {
+  }
+
+  public ArchiveProcessInstancesCommand(Date cutoff)
+  {
+    this.cutoff = cutoff;
+  }
+
+  public Object execute(JbpmContext jbpmContext) throws Exception
+  {
+    ProcessInstanceArchiver archiver = new ProcessInstanceArchiver(jbpmContext.getJbpmConfiguration(), (cutoff != null ? cutoff : new Date()));
+    archiver.setThreads(threads);
+    archiver.setChunkSize(chunkSize);
+    return new Long(archiver.purge());
+  }
+
+  public String getAdditionalToStringInformation()
+  {
+    return "cutoff=" + cutoff + ";threads=" + threads + ";chunkSize=" + chunkSize;
+  }
+
+  public Date getCutoff()
+  {
+    return cutoff;
+  }
+
+  public void setCutoff(Date cutoff)
+  {
+    this.cutoff = cutoff;
+  }
+
+  public int getThreads()
+  {
+    return threads;
+  }
+
+  public void setThreads(int threads)
+  {
+    this.threads = threads;
+  }
+
+  public int getChunkSize()
+  {
+    return chunkSize;
+  }
+
+  public void setChunkSize(int chunkSize)
+  {
+    this.chunkSize = chunkSize;
+  }
+
+  // methods for fluent programming
+
+  public ArchiveProcessInstancesCommand cutoff(Date cutoff)
+  {
+    setCutoff(cutoff);
+    return this;
+  }
+
+  public ArchiveProcessInstancesCommand threads(int threads)
+  {
+    setThreads(threads);
+    return this;
+  }
+
+  public ArchiveProcessInstancesCommand chunkSize(int chunkSize)
+  {
+    setChunkSize(chunkSize);
+    return this;
+  }
+}
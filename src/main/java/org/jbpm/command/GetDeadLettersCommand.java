@@ -0,0 +1,105 @@
+package org.jbpm.command;
+
+import org.jbpm.JbpmContext;
+import org.jbpm.db.JobSession;
+
+/**
+ * Retrieves the {@link org.jbpm.job.DeadLetter dead letters} of jobs that ran 
+ * out of retries, the most recent ones first. Either all dead letters are 
+ * retrieved page by page, or the ones of a single process instance.
+ * 
+ * The jobs themselves, including the exception that made them fail, can be 
+ * loaded by the job ids of the dead letters.
+ */
+public class GetDeadLettersCommand extends AbstractBaseCommand implements ReadOnlyCommand
+{
+
+  private static final long serialVersionUID = 1L;
+
+  /*
+   * if given, only dead letters of this process instance are retrieved
+   */
+  private long processInstanceId = -1;
+
+  private int firstResult = 0;
+
+  /*
+   * maximum number of dead letters to retrieve, 0 means no limit
+   */
+  private int maxResults = 0;
+
+  public GetDeadLettersCommand()
+  {
+  }
+
+  public GetDeadLettersCommand(int firstResult, int maxResults)
+  {
+    this.firstResult = firstResult;
+    this.maxResults = maxResults;
+  }
+
+  public Object execute(JbpmContext jbpmContext) throws Exception
+  {
+    JobSession jobSession = jbpmContext.getJobSession();
+    if (processInstanceId != -1)
+    {
+      return jobSession.findDeadLettersByProcessInstance(processInstanceId);
+    }
+    return jobSession.findDeadLetters(firstResult, maxResults);
+  }
+
+  public String getAdditionalToStringInformation()
+  {
+    return (processInstanceId != -1 ? "processInstanceId=" + processInstanceId : "firstResult=" + firstResult + ";maxResults=" + maxResults);
+  }
+
+  public long getProcessInstanceId()
+  {
+    return processInstanceId;
+  }
+
+  public void setProcessInstanceId(long processInstanceId)
+  {
+    this.processInstanceId = processInstanceId;
+  }
+
+  public int getFirstResult()
+  {
+    return firstResult;
+  }
+
+  public void setFirstResult(int firstResult)
+  {
+    this.firstResult = firstResult;
+  }
+
+  public int getMaxResults()
+  {
+    return maxResults;
+  }
+
+  public void setMaxResults(int maxResults)
+  {
+    this.maxResults = maxResults;
+  }
+
+  // methods for fluent programming
+
+  public GetDeadLettersCommand processInstanceId(long processInstanceId)
+  {
+    setProcessInstanceId(processInstanceId);
+    return this;
+  }
+
+  public GetDeadLettersCommand firstResult(int firstResult)
+  {
+    setFirstResult(firstResult);
+    return this;
+  }
+
+  public GetDeadLettersCommand maxResults(int maxResults)
+  {
+    setMaxResults(maxResults);
+    return this;
+  }
+}
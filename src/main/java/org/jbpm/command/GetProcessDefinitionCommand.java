@@ -7,7 +7,7 @@ import org.jbpm.JbpmContext;
  * 
  * @author Bernd Ruecker (bernd.ruecker@camunda.com)
  */
-public class GetProcessDefinitionCommand extends AbstractGetObjectBaseCommand
+public class GetProcessDefinitionCommand extends AbstractGetObjectBaseCommand implements ReadOnlyCommand
 {
 
   private static final long serialVersionUID = -1908847549444051495L;
@@ -11,7 +11,7 @@ import org.jbpm.graph.def.ProcessDefinition;
  * 
  * @author Bernd Ruecker (bernd.ruecker@camunda.com)
  */
-public class GetProcessDefinitionsCommand extends AbstractGetObjectBaseCommand
+public class GetProcessDefinitionsCommand extends AbstractGetObjectBaseCommand implements ReadOnlyCommand
 {
 
   private static final long serialVersionUID = -1908847549444051495L;
@@ -1,5 +1,7 @@
 package org.jbpm.command;
 
+import java.util.Collections;
+
 import org.jbpm.JbpmContext;
 import org.jbpm.graph.exe.ProcessInstance;
 
@@ -9,7 +11,7 @@ import org.jbpm.graph.exe.ProcessInstance;
  * 
  * @author Bernd Ruecker (bernd.ruecker@camunda.com)
  */
-public class GetProcessInstanceCommand extends AbstractGetObjectBaseCommand
+public class GetProcessInstanceCommand extends AbstractGetObjectBaseCommand implements ReadOnlyCommand
 {
 
   private static final long serialVersionUID = -8436697080972165601L;
@@ -41,14 +43,15 @@ public class GetProcessInstanceCommand extends AbstractGetObjectBaseCommand
 
     ProcessInstance processInstance = null;
     if (processInstanceId != 0)
-      processInstance = jbpmContext.getProcessInstance(processInstanceId);
+      processInstance = jbpmContext.getGraphSession().getProcessInstance(processInstanceId, isIncludeHistory());
     else if (tokenId != 0)
-      processInstance = jbpmContext.getToken(tokenId).getProcessInstance();
+      processInstance = jbpmContext.getGraphSession().getToken(tokenId, isIncludeHistory()).getProcessInstance();
     else if (taskInstanceId != 0)
-      processInstance = jbpmContext.getTaskInstance(taskInstanceId).getProcessInstance();
+      processInstance = jbpmContext.getTaskMgmtSession().getTaskInstance(taskInstanceId, isIncludeHistory()).getProcessInstance();
 
     if (processInstance != null)
     {
+      fetchProcessInstances(Collections.singletonList(processInstance));
       processInstance = retrieveProcessInstance(processInstance);
     }
     return processInstance;
@@ -17,7 +17,7 @@ import org.jbpm.logging.log.ProcessLog;
  * @author Bernd Ruecker (bernd.ruecker@camunda.com)
  * 
  */
-public class GetProcessInstanceLogCommand extends AbstractBaseCommand
+public class GetProcessInstanceLogCommand extends AbstractBaseCommand implements ReadOnlyCommand
 {
 
   private static final long serialVersionUID = -2812852941518870502L;
@@ -1,11 +1,14 @@
 package org.jbpm.command;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
 import org.hibernate.Query;
 import org.jbpm.JbpmContext;
+import org.jbpm.db.GraphSession;
+import org.jbpm.db.ScrollableResultIterator;
 import org.jbpm.graph.exe.ProcessInstance;
 
 /**
@@ -15,7 +18,7 @@ import org.jbpm.graph.exe.ProcessInstance;
  * 
  * @author Bernd Ruecker (bernd.ruecker@camunda.com)
  */
-public class GetProcessInstancesCommand extends AbstractGetObjectBaseCommand
+public class GetProcessInstancesCommand extends AbstractGetObjectBaseCommand implements ReadOnlyCommand
 {
 
   private static final long serialVersionUID = -5601050489405283851L;
@@ -63,8 +66,57 @@ public class GetProcessInstancesCommand extends AbstractGetObjectBaseCommand
   public Object execute(JbpmContext jbpmContext) throws Exception
   {
     setJbpmContext(jbpmContext);
+    if (getResultHandler() != null)
+    {
+      return new Long(streamProcessInstances(jbpmContext));
+    }
+    List processInstances = createQuery(jbpmContext, "org.jbpm.graph.exe.ProcessInstance").list();
+
+    // archived process instances have ended, so they are never running
+    if (isIncludeHistory() && !onlyRunning && jbpmContext.getGraphSession().isHistoryMapped())
+    {
+      List historicProcessInstances = createQuery(jbpmContext, GraphSession.HISTORIC_PROCESS_INSTANCE).list();
+      processInstances = GraphSession.mergeByStartDate(processInstances, historicProcessInstances);
+    }
+
+    return retrieveProcessInstanceDetails(processInstances);
+  }
+
+  /**
+   * passes the process instances one by one to the result handler, with their details retrieved. Archived process
+   * instances follow the running ones instead of being merged by start date.
+   * 
+   * @return the number of process instances
+   */
+  protected long streamProcessInstances(JbpmContext jbpmContext) throws Exception
+  {
+    List queries = new ArrayList();
+    queries.add(createQuery(jbpmContext, "org.jbpm.graph.exe.ProcessInstance"));
+    if (isIncludeHistory() && !onlyRunning && jbpmContext.getGraphSession().isHistoryMapped())
+    {
+      queries.add(createQuery(jbpmContext, GraphSession.HISTORIC_PROCESS_INSTANCE));
+    }
+    ScrollableResultIterator iter = new ScrollableResultIterator(jbpmContext.getSession(), (Query[])queries.toArray(new Query[queries.size()]), getBatchSize());
+    try
+    {
+      while (iter.hasNext())
+      {
+        ProcessInstance processInstance = (ProcessInstance)iter.next();
+        retrieveProcessInstance(processInstance);
+        getResultHandler().handle(processInstance, jbpmContext);
+      }
+    }
+    finally
+    {
+      iter.close();
+    }
+    return iter.getCount();
+  }
+
+  Query createQuery(JbpmContext jbpmContext, String entityName)
+  {
     firstExpression = true;
-    StringBuffer queryText = new StringBuffer("select pi" + " from org.jbpm.graph.exe.ProcessInstance as pi ");
+    StringBuffer queryText = new StringBuffer("select pi" + " from " + entityName + " as pi ");
 
     if (onlyRunning)
     {
@@ -104,6 +156,8 @@ public class GetProcessInstancesCommand extends AbstractGetObjectBaseCommand
     queryText.append(" order by pi.start desc");
 
     Query query = jbpmContext.getSession().createQuery(queryText.toString());
+    // in a read-only context, hibernate needn't keep snapshots of the listed process instances
+    query.setReadOnly(jbpmContext.isReadOnly());
 
     if (fromStartDate != null)
     {
@@ -133,7 +187,7 @@ public class GetProcessInstancesCommand extends AbstractGetObjectBaseCommand
       query.setString("version", version);
     }
 
-    return retrieveProcessInstanceDetails(query.list());
+    return query;
   }
 
   /**
@@ -144,6 +198,7 @@ public class GetProcessInstancesCommand extends AbstractGetObjectBaseCommand
    */
   public List retrieveProcessInstanceDetails(List processInstanceList)
   {
+    fetchProcessInstances(processInstanceList);
     Iterator it = processInstanceList.iterator();
     while (it.hasNext())
     {
@@ -263,7 +318,8 @@ public class GetProcessInstancesCommand extends AbstractGetObjectBaseCommand
       + ";stateName=" + stateName
       + ";fromStartDate=" + fromStartDate
       + ";untilStartDate=" + untilStartDate
-      + ";onlyRunning=" + onlyRunning;
+      + ";onlyRunning=" + onlyRunning
+      + ";includeHistory=" + isIncludeHistory();
   }
   
   // methods for fluent programming
@@ -1,9 +1,11 @@
 package org.jbpm.command;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
 import org.jbpm.taskmgmt.exe.TaskInstance;
 
 /**
@@ -12,7 +14,7 @@ import org.jbpm.taskmgmt.exe.TaskInstance;
  * 
  * @author Bernd Ruecker (bernd.ruecker@camunda.com)
  */
-public class GetTaskInstanceCommand extends AbstractGetObjectBaseCommand
+public class GetTaskInstanceCommand extends AbstractGetObjectBaseCommand implements ReadOnlyCommand
 {
 
   private static final long serialVersionUID = -8436697080972165601L;
@@ -60,12 +62,14 @@ public class GetTaskInstanceCommand extends AbstractGetObjectBaseCommand
 
   public Object execute(JbpmContext jbpmContext) throws Exception
   {
+    setJbpmContext(jbpmContext);
 
     if (taskInstanceId > 0)
     {
-      TaskInstance taskInstance = jbpmContext.getTaskInstance(taskInstanceId);
+      TaskInstance taskInstance = jbpmContext.getTaskMgmtSession().getTaskInstance(taskInstanceId, isIncludeHistory());
       if (taskInstance != null)
       {
+        fetchTaskInstanceProcessInstances(Collections.singletonList(taskInstance));
         retrieveTaskInstanceDetails(taskInstance);
       }
 
@@ -74,6 +78,7 @@ public class GetTaskInstanceCommand extends AbstractGetObjectBaseCommand
     else if (tokenId > 0)
     {
       List result = jbpmContext.getTaskMgmtSession().findTaskInstancesByToken(tokenId);
+      fetchTaskInstanceProcessInstances(result);
       for (Iterator iter = result.iterator(); iter.hasNext();)
       {
         TaskInstance ti = (TaskInstance)iter.next();
@@ -83,7 +88,17 @@ public class GetTaskInstanceCommand extends AbstractGetObjectBaseCommand
     }
     else if (processInstanceId > 0)
     {
-      List result = jbpmContext.getTaskMgmtSession().findTaskInstancesByProcessInstance(jbpmContext.getProcessInstance(processInstanceId));
+      List result;
+      ProcessInstance processInstance = jbpmContext.getProcessInstance(processInstanceId);
+      if ((processInstance == null) && (isIncludeHistory()))
+      {
+        result = jbpmContext.getTaskMgmtSession().findHistoricTaskInstancesByProcessInstance(processInstanceId);
+      }
+      else
+      {
+        result = jbpmContext.getTaskMgmtSession().findTaskInstancesByProcessInstance(processInstance);
+      }
+      fetchTaskInstanceProcessInstances(result);
       for (Iterator iter = result.iterator(); iter.hasNext();)
       {
         TaskInstance ti = (TaskInstance)iter.next();
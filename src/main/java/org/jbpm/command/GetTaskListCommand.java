@@ -8,6 +8,8 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jbpm.JbpmContext;
+import org.jbpm.db.ScrollableResultIterator;
+import org.jbpm.db.TaskListQuery;
 import org.jbpm.taskmgmt.exe.TaskInstance;
 
 /**
@@ -19,7 +21,7 @@ import org.jbpm.taskmgmt.exe.TaskInstance;
  * 
  * @author Bernd Ruecker (bernd.ruecker@camunda.com)
  */
-public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements Command
+public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements ReadOnlyCommand
 {
 
   private static final long serialVersionUID = -1627380259541998349L;
@@ -28,6 +30,11 @@ public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements
 
   private String[] actor;
 
+  /**
+   * if given, the command returns this page of the task list instead of all task instances of the actors
+   */
+  private TaskListQuery taskListQuery;
+
   public GetTaskListCommand(String[] actor)
   {
     setActor(actor);
@@ -45,11 +52,26 @@ public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements
     setActor(actor);
   }
 
+  public GetTaskListCommand(TaskListQuery taskListQuery)
+  {
+    setTaskListQuery(taskListQuery);
+  }
+
   public Object execute(JbpmContext jbpmContext) throws Exception
   {
     setJbpmContext(jbpmContext);
+    if (getResultHandler() != null)
+    {
+      return new Long(streamTaskInstances(jbpmContext));
+    }
     List result = null;
-    if (actor == null || actor.length == 0)
+    if (taskListQuery != null)
+    {
+      // in a read-only context, hibernate needn't keep snapshots of the listed tasks
+      boolean readOnly = taskListQuery.isReadOnly() || jbpmContext.isReadOnly();
+      result = jbpmContext.getTaskMgmtSession().findTaskInstances(taskListQuery, readOnly);
+    }
+    else if (actor == null || actor.length == 0)
       result = jbpmContext.getTaskList();
     else
     {
@@ -64,6 +86,45 @@ public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements
     return retrieveTaskInstanceDetails(result);
   }
 
+  /**
+   * passes the personal and pooled task instances of the actors one by one to the result handler, with their details
+   * retrieved.
+   * 
+   * @return the number of task instances
+   */
+  protected long streamTaskInstances(JbpmContext jbpmContext) throws Exception
+  {
+    TaskListQuery query = taskListQuery;
+    if (query == null)
+    {
+      String[] actorIds = actor;
+      if (actorIds == null || actorIds.length == 0)
+      {
+        if (jbpmContext.getActorId() == null)
+          return 0;
+        actorIds = new String[] { jbpmContext.getActorId() };
+      }
+      query = new TaskListQuery(actorIds);
+    }
+    boolean readOnly = query.isReadOnly() || jbpmContext.isReadOnly();
+
+    ScrollableResultIterator iter = jbpmContext.getTaskMgmtSession().scrollTaskInstances(query, getBatchSize(), readOnly);
+    try
+    {
+      while (iter.hasNext())
+      {
+        TaskInstance taskInstance = (TaskInstance)iter.next();
+        retrieveTaskInstanceDetails(taskInstance);
+        getResultHandler().handle(taskInstance, jbpmContext);
+      }
+    }
+    finally
+    {
+      iter.close();
+    }
+    return iter.getCount();
+  }
+
   /**
    * access everything on all TaskInstance objects, which is not in the default fetch group from hibernate, but needs to
    * be accesible from the client
@@ -72,6 +133,7 @@ public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements
    */
   public List retrieveTaskInstanceDetails(List taskInstanceList)
   {
+    fetchTaskInstanceProcessInstances(taskInstanceList);
     for (Iterator iter = taskInstanceList.iterator(); iter.hasNext();)
     {
       retrieveTaskInstanceDetails((TaskInstance)iter.next());
@@ -94,10 +156,21 @@ public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements
     this.actor = actor;
   }
   
+  public TaskListQuery getTaskListQuery()
+  {
+    return taskListQuery;
+  }
+
+  public void setTaskListQuery(TaskListQuery taskListQuery)
+  {
+    this.taskListQuery = taskListQuery;
+  }
+
   @Override
   public String getAdditionalToStringInformation()
   {
-    return "actors=" + Arrays.toString( actor );
+    return "actors=" + Arrays.toString( actor )
+      + ";taskListQuery=" + taskListQuery;
   }
 
   // methods for fluent programming
@@ -114,4 +187,10 @@ public class GetTaskListCommand extends AbstractGetObjectBaseCommand implements
     return this;
   }
 
+  public GetTaskListCommand taskListQuery(TaskListQuery taskListQuery)
+  {
+    setTaskListQuery(taskListQuery);
+    return this;
+  }
+
 }
@@ -0,0 +1,113 @@
+package org.jbpm.command;
+
+import java.util.Date;
+
+import org.jbpm.JbpmContext;
+import org.jbpm.JbpmException;
+import org.jbpm.db.ProcessInstancePurger;
+
+/**
+ * Deletes all process instances that ended before the cutoff date, together 
+ * with their logs, variables, byte arrays, tokens, tasks and jobs, using bulk 
+ * deletes without loading any entities.
+ * 
+ * The purge runs in its own transactions, one per chunk of process instances, 
+ * on the given number of threads. So the process instances that are purged 
+ * stay purged, even if the transaction of the command itself rolls back. 
+ * The result is the number of purged process instances.
+ * 
+ * @see ProcessInstancePurger
+ */
+public class PurgeProcessInstancesCommand extends AbstractBaseCommand
+{
+
+  private static final long serialVersionUID = 1L;
+
+  private Date cutoff;
+
+  /*
+   * number of threads that purge id ranges in parallel
+   */
+  private int threads = 1;
+
+  /*
+   * number of process instances that are purged in one transaction
+   */
+  private int chunkSize = 100;
+
+  public PurgeProcessInstancesCommand()
+  {
+  }
+
+  public PurgeProcessInstancesCommand(Date cutoff)
+  {
+    this.cutoff = cutoff;
+  }
+
+  public Object execute(JbpmContext jbpmContext) throws Exception
+  {
+    if (cutoff == null)
+    {
+      throw new JbpmException("no cutoff date given");
+    }
+    ProcessInstancePurger purger = new ProcessInstancePurger(jbpmContext.getJbpmConfiguration(), cutoff);
+    purger.setThreads(threads);
+    purger.setChunkSize(chunkSize);
+    return new Long(purger.purge());
+  }
+
+  public String getAdditionalToStringInformation()
+  {
+    return "cutoff=" + cutoff + ";threads=" + threads + ";chunkSize=" + chunkSize;
+  }
+
+  public Date getCutoff()
+  {
+    return cutoff;
+  }
+
+  public void setCutoff(Date cutoff)
+  {
+    this.cutoff = cutoff;
+  }
+
+  public int getThreads()
+  {
+    return threads;
+  }
+
+  public void setThreads(int threads)
+  {
+    this.threads = threads;
+  }
+
+  public int getChunkSize()
+  {
+    return chunkSize;
+  }
+
+  public void setChunkSize(int chunkSize)
+  {
+    this.chunkSize = chunkSize;
+  }
+
+  // methods for fluent programming
+
+  public PurgeProcessInstancesCommand cutoff(Date cutoff)
+  {
+    setCutoff(cutoff);
+    return this;
+  }
+
+  public PurgeProcessInstancesCommand threads(int threads)
+  {
+    setThreads(threads);
+    return this;
+  }
+
+  public PurgeProcessInstancesCommand chunkSize(int chunkSize)
+  {
+    setChunkSize(chunkSize);
+    return this;
+  }
+}
@@ -0,0 +1,135 @@
+package org.jbpm.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jbpm.JbpmContext;
+import org.jbpm.JbpmException;
+import org.jbpm.db.JobSession;
+import org.jbpm.job.DeadLetter;
+
+/**
+ * Replays the jobs of the given {@link DeadLetter dead letters}: the jobs get 
+ * new retries and become due immediately, the dead letters are removed. If a
+ * process instance id is given instead of dead letter ids, all dead letters 
+ * of that process instance are replayed.
+ * 
+ * Returns the number of replayed jobs as an {@link Integer}.
+ */
+public class ReplayDeadLettersCommand extends AbstractBaseCommand
+{
+
+  private static final long serialVersionUID = 1L;
+
+  private long[] deadLetterIds;
+
+  private long processInstanceId = -1;
+
+  /*
+   * number of retries the replayed jobs get
+   */
+  private int retries = 1;
+
+  public ReplayDeadLettersCommand()
+  {
+  }
+
+  public ReplayDeadLettersCommand(long[] deadLetterIds)
+  {
+    this.deadLetterIds = deadLetterIds;
+  }
+
+  public Object execute(JbpmContext jbpmContext) throws Exception
+  {
+    if (retries < 1)
+    {
+      throw new JbpmException("retries must be positive, but was " + retries);
+    }
+    JobSession jobSession = jbpmContext.getJobSession();
+    List ids = new ArrayList();
+    if (deadLetterIds != null)
+    {
+      for (int i = 0; i < deadLetterIds.length; i++)
+      {
+        ids.add(new Long(deadLetterIds[i]));
+      }
+    }
+    else if (processInstanceId != -1)
+    {
+      Iterator iter = jobSession.findDeadLettersByProcessInstance(processInstanceId).iterator();
+      while (iter.hasNext())
+      {
+        DeadLetter deadLetter = (DeadLetter)iter.next();
+        ids.add(new Long(deadLetter.getId()));
+      }
+    }
+    else
+    {
+      throw new JbpmException("neither dead letter ids nor a process instance id given");
+    }
+
+    if (ids.isEmpty())
+    {
+      return new Integer(0);
+    }
+    return new Integer(jobSession.replayDeadLetters(ids, retries));
+  }
+
+  public String getAdditionalToStringInformation()
+  {
+    return (deadLetterIds != null ? "deadLetterIds=" + Arrays.toString(deadLetterIds) : "processInstanceId=" + processInstanceId) 
+      + ";retries=" + retries;
+  }
+
+  public long[] getDeadLetterIds()
+  {
+    return deadLetterIds;
+  }
+
+  public void setDeadLetterIds(long[] deadLetterIds)
+  {
+    this.deadLetterIds = deadLetterIds;
+  }
+
+  public long getProcessInstanceId()
+  {
+    return processInstanceId;
+  }
+
+  public void setProcessInstanceId(long processInstanceId)
+  {
+    this.processInstanceId = processInstanceId;
+  }
+
+  public int getRetries()
+  {
+    return retries;
+  }
+
+  public void setRetries(int retries)
+  {
+    this.retries = retries;
+  }
+
+  // methods for fluent programming
+
+  public ReplayDeadLettersCommand deadLetterIds(long[] deadLetterIds)
+  {
+    setDeadLetterIds(deadLetterIds);
+    return this;
+  }
+
+  public ReplayDeadLettersCommand processInstanceId(long processInstanceId)
+  {
+    setProcessInstanceId(processInstanceId);
+    return this;
+  }
+
+  public ReplayDeadLettersCommand retries(int retries)
+  {
+    setRetries(retries);
+    return this;
+  }
+}
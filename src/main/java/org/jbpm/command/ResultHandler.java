@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.command;
+
+import java.io.Serializable;
+
+import org.jbpm.JbpmContext;
+
+/**
+ * receives the results of a listing command one by one, instead of all at once in a list. Listing commands that are
+ * given a result handler stream their results through it with a bounded memory footprint, which suits exports and
+ * batch jobs over many rows.
+ * 
+ * The handler runs inside the jbpm context of the command. The session is cleared after every batch of results, so a
+ * result must be completely processed in the call that receives it.
+ * 
+ * @see org.jbpm.db.ScrollableResultIterator
+ */
+public interface ResultHandler extends Serializable
+{
+
+  void handle(Object result, JbpmContext jbpmContext) throws Exception;
+}
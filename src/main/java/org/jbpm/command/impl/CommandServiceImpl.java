@@ -30,6 +30,7 @@ import org.jbpm.JbpmContext;
 import org.jbpm.JbpmException;
 import org.jbpm.command.Command;
 import org.jbpm.command.CommandService;
+import org.jbpm.command.ReadOnlyCommand;
 
 /**
  * Provide services for accessing the jBPM engine. Access is currently provided through a set of
@@ -66,6 +67,11 @@ public class CommandServiceImpl implements CommandService, Serializable
     JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
     try
     {
+      if (command instanceof ReadOnlyCommand)
+      {
+        // queries don't need dirty checking nor a flush
+        jbpmContext.setReadOnly(true);
+      }
       log.debug("executing " + command);
       result = command.execute(jbpmContext);
     }
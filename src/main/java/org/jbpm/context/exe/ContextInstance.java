@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.jbpm.JbpmException;
+import org.jbpm.db.hibernate.HibernateHelper;
 import org.jbpm.graph.exe.Token;
 import org.jbpm.module.exe.ModuleInstance;
 
@@ -195,9 +196,9 @@ public class ContextInstance extends ModuleInstance
   public Object getVariableLocally(String name, Token token)
   {
     Object variable = null;
-    if (tokenVariableMaps != null && tokenVariableMaps.containsKey(token))
+    if (tokenVariableMaps != null)
     {
-      TokenVariableMap tokenVariableMap = (TokenVariableMap)tokenVariableMaps.get(token);
+      TokenVariableMap tokenVariableMap = lookupTokenVariableMap(token);
       if (tokenVariableMap != null)
       {
         variable = tokenVariableMap.getVariableLocally(name);
@@ -350,19 +351,21 @@ public class ContextInstance extends ModuleInstance
 
     // if the given token has a variable map
     TokenVariableMap tokenVariableMap = null;
-    if ((tokenVariableMaps != null) && (tokenVariableMaps.containsKey(token)))
+    if (tokenVariableMaps != null)
     {
-      tokenVariableMap = (TokenVariableMap)tokenVariableMaps.get(token);
-
+      tokenVariableMap = lookupTokenVariableMap(token);
     }
-    else if (!token.isRoot())
-    {
-      tokenVariableMap = getOrCreateTokenVariableMap(token.getParent());
 
-    }
-    else
+    if (tokenVariableMap == null)
     {
-      tokenVariableMap = createTokenVariableMap(token);
+      if (!token.isRoot())
+      {
+        tokenVariableMap = getOrCreateTokenVariableMap(token.getParent());
+      }
+      else
+      {
+        tokenVariableMap = createTokenVariableMap(token);
+      }
     }
 
     return tokenVariableMap;
@@ -374,7 +377,7 @@ public class ContextInstance extends ModuleInstance
     {
       tokenVariableMaps = new HashMap();
     }
-    TokenVariableMap tokenVariableMap = (TokenVariableMap)tokenVariableMaps.get(token);
+    TokenVariableMap tokenVariableMap = lookupTokenVariableMap(token);
     if (tokenVariableMap == null)
     {
       tokenVariableMap = new TokenVariableMap(token, this);
@@ -385,17 +388,17 @@ public class ContextInstance extends ModuleInstance
 
   /*
    * looks for the first token-variable-map that is found up the token-parent hirarchy.
+   * the maps never contain null values, so a single get replaces containsKey and get.
+   * with lazy variable access (extra lazy maps) that is one query per token instead
+   * of initializing all token-variable-maps of the process instance.
    */
   public TokenVariableMap getTokenVariableMap(Token token)
   {
     TokenVariableMap tokenVariableMap = null;
     if (tokenVariableMaps != null)
     {
-      if (tokenVariableMaps.containsKey(token))
-      {
-        tokenVariableMap = (TokenVariableMap)tokenVariableMaps.get(token);
-      }
-      else if (!token.isRoot())
+      tokenVariableMap = lookupTokenVariableMap(token);
+      if ((tokenVariableMap == null) && (!token.isRoot()))
       {
         tokenVariableMap = getTokenVariableMap(token.getParent());
       }
@@ -403,13 +406,23 @@ public class ContextInstance extends ModuleInstance
     return tokenVariableMap;
   }
 
+  /*
+   * gets the token-variable-map of the given token itself.  a token that is not saved yet, like a new child of a fork, can't be looked up in an
+   * extra lazy map, so the map is initialized first.
+   */
+  TokenVariableMap lookupTokenVariableMap(Token token)
+  {
+    HibernateHelper.prepareExtraLazyAccess(tokenVariableMaps, token.getId() == 0);
+    return (TokenVariableMap)tokenVariableMaps.get(token);
+  }
+
   public VariableInstance getVariableInstance(String name, Token token)
   {
     VariableInstance variableInstance = null;
     TokenVariableMap tokenVariableMap = getTokenVariableMap(token);
     if (tokenVariableMap != null)
     {
-      tokenVariableMap.getVariableInstances();
+      variableInstance = tokenVariableMap.getVariableInstance(name);
     }
     return variableInstance;
   }
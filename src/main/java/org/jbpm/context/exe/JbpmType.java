@@ -22,9 +22,11 @@
 package org.jbpm.context.exe;
 
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jbpm.JbpmConfiguration;
 import org.jbpm.JbpmException;
@@ -37,7 +39,19 @@ import org.jbpm.util.ClassLoaderUtil;
  */
 public class JbpmType {
   
-  static Map jbpmTypesCache = new HashMap();
+  static Map jbpmTypesCache = new ConcurrentHashMap();
+
+  /** 
+   * maps object factories to the matching {@link Resolution} per value 
+   * class, so that the class matchers are only run once per class. 
+   */
+  static Map jbpmTypeResolutionCache = new ConcurrentHashMap();
+
+  /** 
+   * upper bound on the number of classes remembered per object factory, 
+   * which keeps classes of redeployed applications from piling up. 
+   */
+  static final int MAX_RESOLVED_CLASSES = 1024;
   
   JbpmTypeMatcher jbpmTypeMatcher = null;
   Converter converter = null;
@@ -65,22 +79,111 @@ public class JbpmType {
   }
 
   public static List getJbpmTypes() {
-    List jbpmTypes = null;
-    synchronized(jbpmTypesCache) {
-      ObjectFactory objectFactory = JbpmConfiguration.Configs.getObjectFactory();
-      jbpmTypes = (List) jbpmTypesCache.get(objectFactory);
-      if (jbpmTypes==null) {
-        if (JbpmConfiguration.Configs.hasObject("jbpm.types")) {
-          jbpmTypes = (List) JbpmConfiguration.Configs.getObject("jbpm.types");
-        } else {
-          jbpmTypes = getDefaultJbpmTypes();
+    return getJbpmTypes(JbpmConfiguration.Configs.getObjectFactory());
+  }
+
+  static List getJbpmTypes(ObjectFactory objectFactory) {
+    List jbpmTypes = (List) jbpmTypesCache.get(objectFactory);
+    if (jbpmTypes==null) {
+      synchronized(jbpmTypesCache) {
+        jbpmTypes = (List) jbpmTypesCache.get(objectFactory);
+        if (jbpmTypes==null) {
+          if (JbpmConfiguration.Configs.hasObject("jbpm.types")) {
+            jbpmTypes = (List) JbpmConfiguration.Configs.getObject("jbpm.types");
+          } else {
+            jbpmTypes = getDefaultJbpmTypes();
+          }
+          jbpmTypesCache.put(objectFactory, jbpmTypes);
         }
-        jbpmTypesCache.put(objectFactory, jbpmTypes);
       }
     }
     return jbpmTypes;
   }
 
+  /**
+   * finds the first jbpm type that matches the given value.  The 
+   * {@link JbpmTypeClassMatcher}s only depend on the class of the value, 
+   * so their outcome is remembered per class: later values of that class 
+   * only run the other matchers that come before the first matching class 
+   * matcher.  With the default mapping, that leaves the hibernate id 
+   * matchers to run for classes that aren't matched before them.
+   * @param value the value, not null.
+   * @return the matching jbpm type or null if no jbpm type matches.
+   */
+  public static JbpmType getJbpmType(Object value) {
+    ObjectFactory objectFactory = JbpmConfiguration.Configs.getObjectFactory();
+    Map resolutions = getResolvedTypes(objectFactory);
+    Class valueClass = value.getClass();
+
+    Resolution resolution = (Resolution) resolutions.get(valueClass);
+    if (resolution==null) {
+      resolution = resolve(getJbpmTypes(objectFactory), value);
+      putResolvedType(resolutions, valueClass, resolution);
+    }
+    return resolution.getJbpmType(value);
+  }
+
+  /**
+   * runs the class matchers for the class of the value and keeps the 
+   * other matchers that have to be run for every value.
+   */
+  static Resolution resolve(List jbpmTypes, Object value) {
+    List candidates = new ArrayList();
+    JbpmType classMatch = null;
+    Iterator iter = jbpmTypes.iterator();
+    while ( (classMatch==null)
+            && (iter.hasNext())
+          ) {
+      JbpmType jbpmType = (JbpmType) iter.next();
+      if (! (jbpmType.jbpmTypeMatcher instanceof JbpmTypeClassMatcher)) {
+        candidates.add(jbpmType);
+      } else if (jbpmType.matches(value)) {
+        classMatch = jbpmType;
+      }
+    }
+    return new Resolution((JbpmType[]) candidates.toArray(new JbpmType[candidates.size()]), classMatch);
+  }
+
+  /**
+   * the outcome of the matching for one class: the matchers that depend 
+   * on the value, in order, and the first class matcher that matches.
+   */
+  static class Resolution {
+    final JbpmType[] candidates;
+    final JbpmType classMatch;
+    Resolution(JbpmType[] candidates, JbpmType classMatch) {
+      this.candidates = candidates;
+      this.classMatch = classMatch;
+    }
+    JbpmType getJbpmType(Object value) {
+      for (int i=0; i<candidates.length; i++) {
+        if (candidates[i].matches(value)) {
+          return candidates[i];
+        }
+      }
+      return classMatch;
+    }
+  }
+
+  static Map getResolvedTypes(ObjectFactory objectFactory) {
+    Map resolvedTypes = (Map) jbpmTypeResolutionCache.get(objectFactory);
+    if (resolvedTypes==null) {
+      resolvedTypes = new ConcurrentHashMap();
+      Map existing = (Map) ((ConcurrentHashMap) jbpmTypeResolutionCache).putIfAbsent(objectFactory, resolvedTypes);
+      if (existing!=null) {
+        resolvedTypes = existing;
+      }
+    }
+    return resolvedTypes;
+  }
+
+  static void putResolvedType(Map resolvedTypes, Class valueClass, Resolution resolution) {
+    if (resolvedTypes.size()>=MAX_RESOLVED_CLASSES) {
+      resolvedTypes.clear();
+    }
+    resolvedTypes.put(valueClass, resolution);
+  }
+
   private static List getDefaultJbpmTypes() {
     String resource = JbpmConfiguration.Configs.getString("resource.varmapping");
     InputStream is = ClassLoaderUtil.getStream(resource);
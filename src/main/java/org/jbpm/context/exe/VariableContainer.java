@@ -11,6 +11,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jbpm.JbpmException;
 import org.jbpm.context.log.VariableDeleteLog;
+import org.jbpm.db.hibernate.HibernateHelper;
 import org.jbpm.graph.exe.ProcessInstance;
 import org.jbpm.graph.exe.Token;
 
@@ -26,8 +27,10 @@ public abstract class VariableContainer implements Serializable {
   
   public Object getVariable(String name) {
     Object value = null;
-    if (hasVariableLocally(name)) {
-      value = getVariableLocally(name);
+    // a single lookup, so that extra lazy variable maps issue one query
+    VariableInstance variableInstance = getVariableInstance(name);
+    if (variableInstance!=null) {
+      value = variableInstance.getValue();
     } else {
       VariableContainer parent = getParentVariableContainer();
       if (parent!=null) {
@@ -133,17 +136,20 @@ public abstract class VariableContainer implements Serializable {
   // local variable methods ///////////////////////////////////////////////////
 
   public boolean hasVariableLocally(String name) {
-    return ( (variableInstances!=null)
-             && (variableInstances.containsKey(name))
-           );
+    if (variableInstances==null) {
+      return false;
+    }
+    HibernateHelper.prepareExtraLazyAccess(variableInstances, false);
+    return variableInstances.containsKey(name);
   }
 
   public Object getVariableLocally(String name) {
     Object value = null;
     
     // if the variable is present in the variable instances
-    if (hasVariableLocally(name)) {
-      value = getVariableInstance(name).getValue();
+    VariableInstance variableInstance = getVariableInstance(name);
+    if (variableInstance!=null) {
+      value = variableInstance.getValue();
     }
 
     return value;
@@ -182,7 +188,11 @@ public abstract class VariableContainer implements Serializable {
   // local variable instances /////////////////////////////////////////////////
 
   public VariableInstance getVariableInstance(String name) {
-    return (variableInstances!=null ? (VariableInstance) variableInstances.get(name) : null);
+    if (variableInstances==null) {
+      return null;
+    }
+    HibernateHelper.prepareExtraLazyAccess(variableInstances, false);
+    return (VariableInstance) variableInstances.get(name);
   }
   
   public Map getVariableInstances() {
@@ -193,6 +203,7 @@ public abstract class VariableContainer implements Serializable {
     if (variableInstances==null) {
       variableInstances = new HashMap();
     }
+    HibernateHelper.prepareExtraLazyAccess(variableInstances, false);
     variableInstances.put(variableInstance.getName(), variableInstance);
     // only additions are registered in the updated variable containers 
     // because it is only used in the save operation to check wether there 
@@ -202,9 +213,15 @@ public abstract class VariableContainer implements Serializable {
 
   public void deleteVariableInstance(String name) {
     if (variableInstances!=null) {
+      HibernateHelper.prepareExtraLazyAccess(variableInstances, false);
       VariableInstance variableInstance = (VariableInstance) variableInstances.remove(name);
       if (variableInstance!=null) {
-        getToken().addLog(new VariableDeleteLog(variableInstance));
+        Token token = getToken();
+        if ( (token!=null)
+             && (token.isLogEnabled(VariableDeleteLog.class))
+           ) {
+          token.addLog(new VariableDeleteLog(variableInstance));
+        }
         variableInstance.removeReferences();
       }
     }
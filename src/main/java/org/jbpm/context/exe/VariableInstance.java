@@ -22,9 +22,9 @@
 package org.jbpm.context.exe;
 
 import java.io.Serializable;
-import java.util.Iterator;
 
 import org.jbpm.JbpmException;
+import org.jbpm.bytes.ByteArray;
 import org.jbpm.context.exe.converter.SerializableToByteArrayConverter;
 import org.jbpm.context.exe.variableinstance.NullInstance;
 import org.jbpm.context.exe.variableinstance.UnpersistableInstance;
@@ -68,7 +68,7 @@ public abstract class VariableInstance implements Serializable {
 		variableInstance.name = name;
 		variableInstance.processInstance = (token != null ? token
 				.getProcessInstance() : null);
-		if(token != null) {
+		if(token != null && token.isLogEnabled(VariableCreateLog.class)) {
 			token.addLog(new VariableCreateLog(variableInstance));
 		}
 		variableInstance.setValue(value);
@@ -76,22 +76,11 @@ public abstract class VariableInstance implements Serializable {
 	}
 
 	public static VariableInstance createVariableInstance(Object value) {
-		VariableInstance variableInstance = null;
-
-		Iterator iter = JbpmType.getJbpmTypes().iterator();
-		while((iter.hasNext()) && (variableInstance == null)) {
-			JbpmType jbpmType = (JbpmType) iter.next();
-
-			if(jbpmType.matches(value)) {
-				variableInstance = jbpmType.newVariableInstance();
-			}
+		JbpmType jbpmType = JbpmType.getJbpmType(value);
+		if(jbpmType == null) {
+			return new UnpersistableInstance();
 		}
-
-		if(variableInstance == null) {
-			variableInstance = new UnpersistableInstance();
-		}
-
-		return variableInstance;
+		return jbpmType.newVariableInstance();
 	}
 
 	// abstract methods /////////////////////////////////////////////////////////
@@ -124,6 +113,12 @@ public abstract class VariableInstance implements Serializable {
 	public void setValue(Object value) {
 		valueCache = value;
 		isValueCached = true;
+		if(converter instanceof SerializableToByteArrayConverter) {
+			VariableValueCache variableValueCache = VariableValueCache.getInstance();
+			if(variableValueCache != null) {
+				variableValueCache.remove(this);
+			}
+		}
 
 		if(converter != null) {
 			if(!converter.supports(value)) {
@@ -150,11 +145,29 @@ public abstract class VariableInstance implements Serializable {
 		if(isValueCached) {
 			return valueCache;
 		}
+		VariableValueCache variableValueCache = null;
+		if(converter instanceof SerializableToByteArrayConverter) {
+			variableValueCache = VariableValueCache.getInstance();
+		}
+		if(variableValueCache != null) {
+			// skip loading and deserializing the bytes if another transaction
+			// already deserialized this version of the variable
+			Object cachedValue = variableValueCache.get(this);
+			if(cachedValue != null) {
+				valueCache = cachedValue;
+				isValueCached = true;
+				return cachedValue;
+			}
+		}
 		Object value = getObject();
 		if((value != null) && (converter != null)) {
 			if(converter instanceof SerializableToByteArrayConverter && processInstance != null) {
 				SerializableToByteArrayConverter s2bConverter = (SerializableToByteArrayConverter) converter;
+				ByteArray byteArray = (value instanceof ByteArray ? (ByteArray) value : null);
 			  value = s2bConverter.revert(value, processInstance.getProcessDefinition());
+				if((variableValueCache != null) && (byteArray != null)) {
+					variableValueCache.put(this, value, byteArray.getLength());
+				}
 			}
 			else {
 				value = converter.revert(value);
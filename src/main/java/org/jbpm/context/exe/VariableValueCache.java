@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.configuration.ObjectFactory;
+
+/**
+ * keeps deserialized values of serializable variables across transactions, 
+ * so that read-mostly variables are not deserialized again in every 
+ * transaction that reads them.
+ * 
+ * <p>The cache is disabled unless <code>jbpm.variable.cache.size</code> 
+ * configures the maximum total size in serialized bytes.  There is one 
+ * cache per jbpm configuration, as variable instance ids are only unique
+ * within one database.  Entries are keyed by variable instance id and only 
+ * hit for the same variable instance version, so an updated variable is 
+ * never served stale, not even by other nodes in a cluster.  The least 
+ * recently used entries are evicted first.</p>
+ * 
+ * <p>Cached values are handed out to every transaction, so only values of 
+ * immutable classes are cached: {@link BigInteger}, {@link BigDecimal} and 
+ * the comma separated class names in 
+ * <code>jbpm.variable.cache.immutable.classes</code>.</p>
+ */
+public class VariableValueCache {
+
+  /** maps object factories to their variable value caches */
+  static Map variableValueCaches = new ConcurrentHashMap();
+
+  long maxSize;
+  Set immutableClassNames = new HashSet();
+
+  // maps variable instance ids (Long) to Entry's in least recently used order
+  LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+  long totalSize = 0;
+
+  VariableValueCache(long maxSize, String immutableClassNames) {
+    this.maxSize = maxSize;
+    this.immutableClassNames.add(BigInteger.class.getName());
+    this.immutableClassNames.add(BigDecimal.class.getName());
+    if (immutableClassNames!=null) {
+      StringTokenizer tokenizer = new StringTokenizer(immutableClassNames, ", \t\n\r");
+      while (tokenizer.hasMoreTokens()) {
+        this.immutableClassNames.add(tokenizer.nextToken());
+      }
+    }
+  }
+
+  static class Entry {
+    int version;
+    Object value;
+    long size;
+    Entry(int version, Object value, long size) {
+      this.version = version;
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  /**
+   * the variable value cache of the current jbpm context or null if there 
+   * is no current jbpm context or if the cache is disabled.
+   */
+  public static VariableValueCache getInstance() {
+    JbpmContext jbpmContext = JbpmContext.getCurrentJbpmContext();
+    if (jbpmContext==null) {
+      return null;
+    }
+    ObjectFactory objectFactory = jbpmContext.getObjectFactory();
+    VariableValueCache variableValueCache = (VariableValueCache) variableValueCaches.get(objectFactory);
+    if (variableValueCache==null) {
+      long maxSize = 0;
+      if (JbpmConfiguration.Configs.hasObject("jbpm.variable.cache.size")) {
+        maxSize = JbpmConfiguration.Configs.getLong("jbpm.variable.cache.size");
+      }
+      String immutableClassNames = null;
+      if (JbpmConfiguration.Configs.hasObject("jbpm.variable.cache.immutable.classes")) {
+        immutableClassNames = JbpmConfiguration.Configs.getString("jbpm.variable.cache.immutable.classes");
+      }
+      variableValueCache = new VariableValueCache(maxSize, immutableClassNames);
+      if (maxSize>0) {
+        log.debug("caching up to "+maxSize+" bytes of deserialized values of "+variableValueCache.immutableClassNames);
+      }
+      VariableValueCache existing = (VariableValueCache) ((ConcurrentHashMap) variableValueCaches).putIfAbsent(objectFactory, variableValueCache);
+      if (existing!=null) {
+        variableValueCache = existing;
+      }
+    }
+    return (variableValueCache.maxSize>0 ? variableValueCache : null);
+  }
+
+  /**
+   * the cached value of the variable instance or null if it is not cached 
+   * for the current version of the variable instance.
+   */
+  public Object get(VariableInstance variableInstance) {
+    if (variableInstance.id==0) return null;
+    Long key = new Long(variableInstance.id);
+    synchronized (entries) {
+      Entry entry = (Entry) entries.get(key);
+      if (entry==null) return null;
+      if (entry.version!=variableInstance.version) {
+        // the variable was updated in the meantime
+        remove(key);
+        return null;
+      }
+      return entry.value;
+    }
+  }
+
+  /**
+   * caches the deserialized value of a persistent variable instance if the
+   * value is immutable and fits in the cache.
+   * @param size the serialized size of the value, used for eviction.
+   */
+  public void put(VariableInstance variableInstance, Object value, long size) {
+    if ( (variableInstance.id==0)
+         || (value==null)
+         || (size>maxSize)
+         || (!immutableClassNames.contains(value.getClass().getName()))
+       ) {
+      return;
+    }
+    Long key = new Long(variableInstance.id);
+    synchronized (entries) {
+      remove(key);
+      entries.put(key, new Entry(variableInstance.version, value, size));
+      totalSize += size;
+      Iterator iter = entries.values().iterator();
+      while ( (totalSize>maxSize)
+              && (iter.hasNext())
+            ) {
+        Entry eldest = (Entry) iter.next();
+        totalSize -= eldest.size;
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * drops the cached value of the variable instance.  called when the 
+   * variable is updated.
+   */
+  public void remove(VariableInstance variableInstance) {
+    if (variableInstance.id==0) return;
+    synchronized (entries) {
+      remove(new Long(variableInstance.id));
+    }
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      totalSize = 0;
+    }
+  }
+
+  void remove(Long key) {
+    Entry entry = (Entry) entries.remove(key);
+    if (entry!=null) {
+      totalSize -= entry.size;
+    }
+  }
+
+  private static final Log log = LogFactory.getLog(VariableValueCache.class);
+}
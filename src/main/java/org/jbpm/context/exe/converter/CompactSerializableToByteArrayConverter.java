@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe.converter;
+
+import org.jbpm.JbpmConfiguration;
+
+/**
+ * stores serializable objects in the {@link CompactSerializer compact 
+ * format} and deflates values from 
+ * <code>jbpm.variable.compression.threshold</code> bytes on (1024 by 
+ * default, the size of one byte block).  Large domain objects take a 
+ * fraction of the byte blocks of plain serialization.
+ * 
+ * Values stored by this converter can't be read by jbpm versions that 
+ * predate the serialization format header.
+ */
+public class CompactSerializableToByteArrayConverter extends SerializableToByteArrayConverter {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+  static final Serializer COMPACT_SERIALIZER = new CompactSerializer();
+
+  protected Serializer getSerializer() {
+    return COMPACT_SERIALIZER;
+  }
+
+  protected int getCompressionThreshold() {
+    if (JbpmConfiguration.Configs.hasObject("jbpm.variable.compression.threshold")) {
+      return JbpmConfiguration.Configs.getInt("jbpm.variable.compression.threshold");
+    }
+    return DEFAULT_COMPRESSION_THRESHOLD;
+  }
+}
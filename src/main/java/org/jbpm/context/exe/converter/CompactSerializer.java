@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+
+import org.jbpm.util.ClassLoaderUtil;
+
+/**
+ * java serialization with compact class descriptors.
+ * 
+ * Plain java serialization writes the full descriptor of every class in 
+ * the object graph, with the names and types of all its fields, which 
+ * often outweighs the data of small objects.  This format only writes the 
+ * class name and serialVersionUID and takes the field layout from the 
+ * local class, which the JDK caches.  Within one value, a class descriptor 
+ * is written once and referenced afterwards.
+ * 
+ * Like plain serialization, a changed serialVersionUID is detected on 
+ * reading.  Unlike plain serialization, fields that were added or removed 
+ * without changing the serialVersionUID are not tolerated, so classes 
+ * stored in this format must declare a new serialVersionUID whenever their 
+ * fields change.
+ */
+public class CompactSerializer implements Serializer {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int FORMAT_ID = 1;
+
+  public int getFormatId() {
+    return FORMAT_ID;
+  }
+
+  public void writeObject(Object object, OutputStream out) throws IOException {
+    ObjectOutputStream objectStream = new CompactObjectOutputStream(out);
+    objectStream.writeObject(object);
+    objectStream.flush();
+  }
+
+  public Object readObject(InputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    ObjectInputStream objectStream = new CompactObjectInputStream(in, classLoader);
+    return objectStream.readObject();
+  }
+
+  static class CompactObjectOutputStream extends ObjectOutputStream {
+
+    CompactObjectOutputStream(OutputStream out) throws IOException {
+      super(out);
+    }
+
+    protected void writeStreamHeader() throws IOException {
+      // the format header of the converter identifies the stream
+    }
+
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+      writeUTF(desc.getName());
+      writeLong(desc.getSerialVersionUID());
+    }
+  }
+
+  static class CompactObjectInputStream extends ObjectInputStream {
+
+    ClassLoader classLoader;
+
+    CompactObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+      super(in);
+      this.classLoader = classLoader;
+    }
+
+    protected void readStreamHeader() throws IOException {
+      // no stream header, see CompactObjectOutputStream
+    }
+
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      String className = readUTF();
+      long serialVersionUID = readLong();
+      ObjectStreamClass desc = ObjectStreamClass.lookup(loadClass(className));
+      if (desc==null) {
+        throw new InvalidClassException(className, "class is not serializable");
+      }
+      if (desc.getSerialVersionUID()!=serialVersionUID) {
+        throw new InvalidClassException(className, "local class incompatible: stream classdesc serialVersionUID = "
+            +serialVersionUID+", local class serialVersionUID = "+desc.getSerialVersionUID());
+      }
+      return desc;
+    }
+
+    protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      return loadClass(desc.getName());
+    }
+
+    Class loadClass(String className) throws ClassNotFoundException {
+      if (classLoader!=null) {
+        try {
+          return Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+          // try the jbpm class loader
+        }
+      }
+      return Class.forName(className, false, ClassLoaderUtil.getClassLoader());
+    }
+  }
+}
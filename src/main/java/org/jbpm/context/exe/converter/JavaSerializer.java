@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.jbpm.util.CustomLoaderObjectInputStream;
+
+/**
+ * plain java serialization.  This is also the format of values that were 
+ * stored without a header.
+ */
+public class JavaSerializer implements Serializer {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int FORMAT_ID = 0;
+
+  public int getFormatId() {
+    return FORMAT_ID;
+  }
+
+  public void writeObject(Object object, OutputStream out) throws IOException {
+    ObjectOutputStream objectStream = new ObjectOutputStream(out);
+    objectStream.writeObject(object);
+    objectStream.flush();
+  }
+
+  public Object readObject(InputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    ObjectInputStream objectStream = (classLoader!=null
+                                      ? new CustomLoaderObjectInputStream(in, classLoader)
+                                      : new ObjectInputStream(in));
+    return objectStream.readObject();
+  }
+}
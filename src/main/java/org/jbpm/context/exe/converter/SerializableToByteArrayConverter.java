@@ -21,53 +21,142 @@
  */
 package org.jbpm.context.exe.converter;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.jbpm.JbpmConfiguration;
 import org.jbpm.JbpmException;
 import org.jbpm.bytes.ByteArray;
 import org.jbpm.context.exe.Converter;
 import org.jbpm.graph.def.ProcessDefinition;
-import org.jbpm.util.ClassLoaderUtil;
-import org.jbpm.util.CustomLoaderObjectInputStream;
 
+/**
+ * stores serializable objects as a {@link ByteArray}.
+ * 
+ * This converter writes plain java serialization, exactly like older 
+ * versions of jbpm, so that they can still read the values it stores.
+ * Subclasses can pick another {@link Serializer} and compress large 
+ * values, see {@link CompactSerializableToByteArrayConverter}.  Such 
+ * values start with a four byte header: the magic bytes 'J' 'V', the 
+ * format id of the serializer and the compression flags.  Values without 
+ * header are plain java serialization, which always starts with 0xACED.  
+ * Every serializable converter reads all formats, whatever serializer it 
+ * writes with.
+ */
 public class SerializableToByteArrayConverter implements Converter {
 
 	private static final long serialVersionUID = 1L;
 
+	static final byte MAGIC_0 = 'J';
+	static final byte MAGIC_1 = 'V';
+	static final int HEADER_LENGTH = 4;
+	static final byte FLAG_DEFLATE = 0x01;
+
+	static final Serializer[] BUILT_IN_SERIALIZERS = new Serializer[] { new JavaSerializer(), new CompactSerializer() };
+
+	/** pooled serialization buffers that grew larger than this are dropped after use */
+	static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+	static ThreadLocal pooledBuffers = new ThreadLocal();
+
 	public boolean supports(Object value) {
 		if(value == null)
 			return true;
 		return Serializable.class.isAssignableFrom(value.getClass());
 	}
 
+	/**
+	 * the serializer that new values are written with, or null for plain 
+	 * java serialization without header.
+	 */
+	protected Serializer getSerializer() {
+		return null;
+	}
+
+	/**
+	 * the serialized size in bytes from which values are deflated, or -1 to 
+	 * never compress.  Only applies to values written with a serializer.
+	 */
+	protected int getCompressionThreshold() {
+		return -1;
+	}
+
 	public Object convert(Object o) {
-		byte[] bytes = null;
+		Serializer serializer = getSerializer();
+		SerializationBuffer buffer = borrowBuffer();
 		try {
-			ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
-			ObjectOutputStream objectStream = new ObjectOutputStream(memoryStream);
-			objectStream.writeObject(o);
-			objectStream.flush();
-			bytes = memoryStream.toByteArray();
+			if(serializer == null) {
+				BUILT_IN_SERIALIZERS[JavaSerializer.FORMAT_ID].writeObject(o, buffer);
+				return new ByteArray(buffer.toByteArray());
+			}
+
+			serializer.writeObject(o, buffer);
+			int threshold = getCompressionThreshold();
+			boolean isDeflated = (threshold >= 0) && (buffer.size() >= threshold);
+
+			ByteArrayOutputStream memoryStream = new ByteArrayOutputStream(isDeflated ? buffer.size() / 2 : HEADER_LENGTH + buffer.size());
+			memoryStream.write(MAGIC_0);
+			memoryStream.write(MAGIC_1);
+			memoryStream.write(serializer.getFormatId());
+			memoryStream.write(isDeflated ? FLAG_DEFLATE : 0);
+			if(isDeflated) {
+				Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				try {
+					DeflaterOutputStream deflaterStream = new DeflaterOutputStream(memoryStream, deflater);
+					buffer.writeTo(deflaterStream);
+					deflaterStream.finish();
+				}
+				finally {
+					deflater.end();
+				}
+			}
+			else {
+				buffer.writeTo(memoryStream);
+			}
+			return new ByteArray(memoryStream.toByteArray());
 		}
 		catch(IOException e) {
 			throw new JbpmException("couldn't serialize '" + o + "'", e);
 		}
-		return new ByteArray(bytes);
+		finally {
+			returnBuffer(buffer);
+		}
 	}
 
 	public Object revert(Object o) {
-		ByteArray byteArray = (ByteArray) o;
-		InputStream memoryStream = new ByteArrayInputStream(byteArray.getBytes());
+		return readObject((ByteArray) o, null);
+	}
+
+	public Object revert(Object o, ProcessDefinition processDefinition) {
+		return readObject((ByteArray) o, JbpmConfiguration.getProcessClassLoader(processDefinition));
+	}
+
+	Object readObject(ByteArray byteArray, ClassLoader classLoader) {
+		// stream the bytes, so that large values are not glued together or
+		// read from a blob into one array first
+		InputStream byteStream = new BufferedInputStream(byteArray.getInputStream());
+		Inflater inflater = null;
 		try {
-			ObjectInputStream objectStream = new ObjectInputStream(memoryStream);
-			return objectStream.readObject();
+			byte[] header = new byte[HEADER_LENGTH];
+			byteStream.mark(HEADER_LENGTH);
+			int headerLength = readFully(byteStream, header);
+			if(!hasHeader(header, headerLength)) {
+				byteStream.reset();
+				return BUILT_IN_SERIALIZERS[JavaSerializer.FORMAT_ID].readObject(byteStream, classLoader);
+			}
+			Serializer serializer = getSerializer(header[2]);
+			if((header[3] & FLAG_DEFLATE) != 0) {
+				inflater = new Inflater();
+				byteStream = new InflaterInputStream(byteStream, inflater);
+			}
+			return serializer.readObject(byteStream, classLoader);
 		}
 		catch(IOException ex) {
 			throw new JbpmException("failed to read object", ex);
@@ -75,20 +164,72 @@ public class SerializableToByteArrayConverter implements Converter {
 		catch(ClassNotFoundException ex) {
 			throw new JbpmException("serialized object class not found", ex);
 		}
+		finally {
+			// releases the blob stream, if any, and the native inflater memory
+			try {
+				byteStream.close();
+			}
+			catch(IOException ex) {
+				// the object is read completely, nothing left to lose
+			}
+			if(inflater != null) {
+				inflater.end();
+			}
+		}
 	}
 
-	public Object revert(Object o, ProcessDefinition processDefinition) {
-		ByteArray byteArray = (ByteArray) o;
-		InputStream memoryStream = new ByteArrayInputStream(byteArray.getBytes());
-		try {
-		  ObjectInputStream objectStream = new CustomLoaderObjectInputStream(memoryStream, JbpmConfiguration.getProcessClassLoader(processDefinition));
-			return objectStream.readObject();
+	static boolean hasHeader(byte[] header, int length) {
+		return (length == HEADER_LENGTH) && (header[0] == MAGIC_0) && (header[1] == MAGIC_1);
+	}
+
+	static int readFully(InputStream in, byte[] bytes) throws IOException {
+		int length = 0;
+		while(length < bytes.length) {
+			int count = in.read(bytes, length, bytes.length - length);
+			if(count == -1) {
+				break;
+			}
+			length += count;
 		}
-		catch(IOException ex) {
-			throw new JbpmException("failed to read object", ex);
+		return length;
+	}
+
+	Serializer getSerializer(int formatId) {
+		Serializer serializer = getSerializer();
+		if((serializer != null) && (serializer.getFormatId() == formatId)) {
+			return serializer;
 		}
-		catch(ClassNotFoundException ex) {
-			throw new JbpmException("serialized object class not found", ex);
+		if((formatId >= 0) && (formatId < BUILT_IN_SERIALIZERS.length)) {
+			return BUILT_IN_SERIALIZERS[formatId];
+		}
+		throw new JbpmException("unknown serialization format " + formatId + ", configure the converter that stored the value");
+	}
+
+	// buffer pooling ///////////////////////////////////////////////////////////
+
+	static SerializationBuffer borrowBuffer() {
+		SerializationBuffer buffer = (SerializationBuffer) pooledBuffers.get();
+		if(buffer == null) {
+			return new SerializationBuffer();
+		}
+		// a nested serialization in the same thread gets a fresh buffer
+		pooledBuffers.set(null);
+		buffer.reset();
+		return buffer;
+	}
+
+	static void returnBuffer(SerializationBuffer buffer) {
+		if(buffer.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+			pooledBuffers.set(buffer);
+		}
+	}
+
+	static class SerializationBuffer extends ByteArrayOutputStream {
+		SerializationBuffer() {
+			super(4096);
+		}
+		int capacity() {
+			return buf.length;
 		}
 	}
 }
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * turns serializable objects into bytes and back, for the 
+ * {@link SerializableToByteArrayConverter}.  
+ * 
+ * Every serializer has a format id that is written in the header of the 
+ * stored bytes, so that values keep deserializing after the serializer of 
+ * a jbpm type is changed.  Format ids 0 to 15 are reserved for the 
+ * serializers of jbpm.
+ */
+public interface Serializer extends Serializable {
+
+  int getFormatId();
+
+  void writeObject(Object object, OutputStream out) throws IOException;
+
+  /**
+   * @param classLoader the class loader to resolve classes with, or null 
+   * for the jbpm class loader.
+   */
+  Object readObject(InputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+}
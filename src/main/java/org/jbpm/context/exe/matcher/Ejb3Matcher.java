@@ -21,9 +21,9 @@
  */
 package org.jbpm.context.exe.matcher;
 
-import org.jbpm.context.exe.JbpmTypeMatcher;
+import org.jbpm.context.exe.JbpmTypeClassMatcher;
 
-public class Ejb3Matcher implements JbpmTypeMatcher {
+public class Ejb3Matcher implements JbpmTypeClassMatcher {
 
   private static final long serialVersionUID = 1L;
 
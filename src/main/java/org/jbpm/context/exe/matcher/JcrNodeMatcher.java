@@ -23,9 +23,9 @@ package org.jbpm.context.exe.matcher;
 
 import javax.jcr.Node;
 
-import org.jbpm.context.exe.JbpmTypeMatcher;
+import org.jbpm.context.exe.JbpmTypeClassMatcher;
 
-public class JcrNodeMatcher implements JbpmTypeMatcher {
+public class JcrNodeMatcher implements JbpmTypeClassMatcher {
 
   private static final long serialVersionUID = 1L;
 
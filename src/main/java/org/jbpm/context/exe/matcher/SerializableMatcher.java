@@ -23,9 +23,9 @@ package org.jbpm.context.exe.matcher;
 
 import java.io.Serializable;
 
-import org.jbpm.context.exe.JbpmTypeMatcher;
+import org.jbpm.context.exe.JbpmTypeClassMatcher;
 
-public class SerializableMatcher implements JbpmTypeMatcher {
+public class SerializableMatcher implements JbpmTypeClassMatcher {
 
   private static final long serialVersionUID = 1L;
 
@@ -43,7 +43,7 @@ public class ByteArrayInstance  extends VariableInstance {
   }
 
   protected void setObject(Object value) {
-    if (token!=null) token.addLog(new ByteArrayUpdateLog(this, this.value, (ByteArray) value));
+    if ((token!=null) && (token.isLogEnabled(ByteArrayUpdateLog.class))) token.addLog(new ByteArrayUpdateLog(this, this.value, (ByteArray) value));
     // delete old value, otherwise it will be unreachable
     if (this.value != null) {
       JbpmContext jbpmContext = JbpmContext.getCurrentJbpmContext();
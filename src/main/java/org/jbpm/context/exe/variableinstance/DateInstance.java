@@ -42,7 +42,7 @@ public class DateInstance extends VariableInstance {
   }
 
   protected void setObject(Object value) {
-    if (token!=null) token.addLog(new DateUpdateLog(this, this.value, (Date) value));
+    if ((token!=null) && (token.isLogEnabled(DateUpdateLog.class))) token.addLog(new DateUpdateLog(this, this.value, (Date) value));
     this.value = (Date) value;
   }
 }
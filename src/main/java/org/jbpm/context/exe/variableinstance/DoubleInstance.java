@@ -40,7 +40,7 @@ public class DoubleInstance extends VariableInstance {
   }
 
   protected void setObject(Object value) {
-    if (token!=null) token.addLog(new DoubleUpdateLog(this, this.value, (Double) value));
+    if ((token!=null) && (token.isLogEnabled(DoubleUpdateLog.class))) token.addLog(new DoubleUpdateLog(this, this.value, (Double) value));
     this.value = (Double) value;
   }
 }
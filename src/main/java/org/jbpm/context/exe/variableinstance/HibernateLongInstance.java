@@ -39,7 +39,7 @@ public class HibernateLongInstance  extends VariableInstance {
   }
 
   protected void setObject(Object value) {
-    if (token!=null) token.addLog(new HibernateLongUpdateLog(this, this.value, value));
+    if ((token!=null) && (token.isLogEnabled(HibernateLongUpdateLog.class))) token.addLog(new HibernateLongUpdateLog(this, this.value, value));
     this.value = value;
   }
 }
\ No newline at end of file
@@ -39,7 +39,7 @@ public class HibernateStringInstance extends VariableInstance {
   }
 
   protected void setObject(Object value) {
-    if (token!=null) token.addLog(new HibernateStringUpdateLog(this, this.value, value));
+    if ((token!=null) && (token.isLogEnabled(HibernateStringUpdateLog.class))) token.addLog(new HibernateStringUpdateLog(this, this.value, value));
     this.value = value;
   }
 }
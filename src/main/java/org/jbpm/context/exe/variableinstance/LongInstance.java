@@ -40,7 +40,7 @@ public class LongInstance extends VariableInstance {
   }
 
   protected  void setObject(Object value) {
-    if (token!=null) token.addLog(new LongUpdateLog(this, this.value, (Long)value));
+    if ((token!=null) && (token.isLogEnabled(LongUpdateLog.class))) token.addLog(new LongUpdateLog(this, this.value, (Long)value));
     this.value = (Long) value;
   }
 
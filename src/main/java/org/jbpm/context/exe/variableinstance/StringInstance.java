@@ -40,7 +40,7 @@ public class StringInstance extends VariableInstance {
   }
 
   protected void setObject(Object value) {
-    if (token!=null) token.addLog(new StringUpdateLog(this, this.value, (String)value));
+    if ((token!=null) && (token.isLogEnabled(StringUpdateLog.class))) token.addLog(new StringUpdateLog(this, this.value, (String)value));
     this.value = (String) value;
   }
 }
@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.jbpm.JbpmException;
+
+/**
+ * a named set of queries that loads the object graph of process instances
+ * into the session up front, so that navigating the graph afterwards
+ * doesn't fire a lazy load select per token, variable or task.
+ *
+ * <p>Every query of a plan initializes one level of the graph for all the
+ * given process instances at once with a fetch join.  So a plan takes the
+ * same small number of queries for one process instance as for a hundred.
+ * The predefined plans are:</p>
+ * <ul>
+ *   <li>{@link #EXECUTION}: the process instance, its module instances,
+ *   all tokens with their children, the token variable maps and the
+ *   process variables.  Enough to signal and to read or update
+ *   variables.</li>
+ *   <li>{@link #TASK_FORM}: the execution plan plus the task instances
+ *   with their task variables and the swimlane instances.</li>
+ *   <li>{@link #FULL}: the task form plan plus pooled actors, comments,
+ *   runtime actions and the contents of byte array variables.</li>
+ * </ul>
+ *
+ * <p>Definition objects like nodes and tasks are not fetched, they
+ * normally come from the second level cache.</p>
+ */
+public class FetchPlan implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String EXECUTION = "execution";
+  public static final String TASK_FORM = "task-form";
+  public static final String FULL = "full";
+
+  static final String[] EXECUTION_QUERIES = new String[] {
+    "FetchPlan.processInstances",
+    "FetchPlan.tokens",
+    "FetchPlan.tokenVariableMaps",
+    "FetchPlan.variableInstances"
+  };
+  static final String[] TASK_FORM_QUERIES = new String[] {
+    "FetchPlan.taskInstances",
+    "FetchPlan.taskVariableInstances",
+    "FetchPlan.swimlaneInstances"
+  };
+  static final String[] FULL_QUERIES = new String[] {
+    "FetchPlan.taskPooledActors",
+    "FetchPlan.swimlanePooledActors",
+    "FetchPlan.tokenComments",
+    "FetchPlan.taskComments",
+    "FetchPlan.runtimeActions",
+    "FetchPlan.byteArrays"
+  };
+
+  static final int MAX_IDS_PER_QUERY = 500;
+
+  static final Map fetchPlans = new HashMap();
+  static {
+    addFetchPlan(new FetchPlan(EXECUTION, EXECUTION_QUERIES));
+    addFetchPlan(new FetchPlan(TASK_FORM, concat(EXECUTION_QUERIES, TASK_FORM_QUERIES)));
+    addFetchPlan(new FetchPlan(FULL, concat(concat(EXECUTION_QUERIES, TASK_FORM_QUERIES), FULL_QUERIES)));
+  }
+
+  String name;
+  String[] queryNames;
+
+  /**
+   * creates a fetch plan from named queries.  Each query gets the list
+   * parameter <code>processInstanceIds</code>.
+   */
+  public FetchPlan(String name, String[] queryNames) {
+    this.name = name;
+    this.queryNames = queryNames;
+  }
+
+  /**
+   * the fetch plan with the given name.
+   * @throws JbpmException if no such plan was added.
+   */
+  public static FetchPlan getFetchPlan(String name) {
+    FetchPlan fetchPlan;
+    synchronized (fetchPlans) {
+      fetchPlan = (FetchPlan) fetchPlans.get(name);
+    }
+    if (fetchPlan==null) {
+      throw new JbpmException("unknown fetch plan '"+name+"'");
+    }
+    return fetchPlan;
+  }
+
+  /**
+   * makes a fetch plan available by its name, replacing a plan with the
+   * same name.
+   */
+  public static void addFetchPlan(FetchPlan fetchPlan) {
+    synchronized (fetchPlans) {
+      fetchPlans.put(fetchPlan.getName(), fetchPlan);
+    }
+  }
+
+  /**
+   * runs the queries of this plan for the process instances with the given
+   * ids.  Long id lists are split so that the <code>in</code> clauses stay
+   * small.
+   */
+  public void fetch(Session session, List processInstanceIds) {
+    for (int i=0; i<processInstanceIds.size(); i+=MAX_IDS_PER_QUERY) {
+      List chunk = processInstanceIds.subList(i, Math.min(i+MAX_IDS_PER_QUERY, processInstanceIds.size()));
+      for (int j=0; j<queryNames.length; j++) {
+        Query query = session.getNamedQuery(queryNames[j]);
+        query.setParameterList("processInstanceIds", chunk);
+        query.list();
+      }
+    }
+  }
+
+  static String[] concat(String[] first, String[] second) {
+    String[] result = new String[first.length+second.length];
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+
+  public String getName() {
+    return name;
+  }
+  public String[] getQueryNames() {
+    return queryNames;
+  }
+  public String toString() {
+    return "FetchPlan("+name+")";
+  }
+}
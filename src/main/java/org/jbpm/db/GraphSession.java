@@ -22,10 +22,16 @@
 package org.jbpm.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +40,8 @@ import org.hibernate.LockMode;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
 import org.jbpm.JbpmException;
 import org.jbpm.graph.def.ProcessDefinition;
 import org.jbpm.graph.exe.ProcessInstance;
@@ -364,6 +372,53 @@ public class GraphSession
     }
   }
 
+  /**
+   * loads a process instance and initializes its object graph with the given {@link FetchPlan fetch plan}, like
+   * {@link FetchPlan#EXECUTION}.
+   * 
+   * @throws JbpmException in case the process instance doesn't exist.
+   */
+  public ProcessInstance loadProcessInstance(long processInstanceId, String fetchPlan)
+  {
+    fetchProcessInstances(Collections.singletonList(new Long(processInstanceId)), fetchPlan);
+    return loadProcessInstance(processInstanceId);
+  }
+
+  /**
+   * gets a process instance and initializes its object graph with the given {@link FetchPlan fetch plan}. This
+   * method returns null in case the given process instance doesn't exist.
+   */
+  public ProcessInstance getProcessInstance(long processInstanceId, String fetchPlan)
+  {
+    fetchProcessInstances(Collections.singletonList(new Long(processInstanceId)), fetchPlan);
+    return getProcessInstance(processInstanceId);
+  }
+
+  /**
+   * initializes the object graphs of the process instances with the given ids in this session, with a fixed number
+   * of queries per fetch plan.
+   * 
+   * @param processInstanceIds list of {@link Long}s.
+   */
+  public void fetchProcessInstances(List processInstanceIds, String fetchPlan)
+  {
+    FetchPlan plan = FetchPlan.getFetchPlan(fetchPlan);
+    if (processInstanceIds.isEmpty())
+    {
+      return;
+    }
+    try
+    {
+      plan.fetch(session, processInstanceIds);
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't fetch process instances " + processInstanceIds + " with " + plan, e);
+    }
+  }
+
   /**
    * loads a token from the database by the identifier.
    * 
@@ -478,6 +533,10 @@ public class GraphSession
         Query query = session.getNamedQuery("GraphSession.deleteJobsForProcessInstance");
         query.setEntity("processInstance", processInstance);
         query.executeUpdate();
+
+        query = session.getNamedQuery("JobSession.deleteDeadLettersForProcessInstance");
+        query.setLong("processInstanceId", processInstance.getId());
+        query.executeUpdate();
       }
 
       // tasks
@@ -563,6 +622,440 @@ public class GraphSession
     }
   }
 
+  // purging ended process instances ///////////////////////////////////////////
+
+  /**
+   * the lowest and highest id of the process instances that ended before the cutoff, or <code>null</code> if there
+   * are none.
+   */
+  public long[] findEndedProcessInstanceIdRange(Date cutoff)
+  {
+    try
+    {
+      Query query = session.getNamedQuery("GraphSession.findEndedProcessInstanceIdRange");
+      query.setTimestamp("cutoff", cutoff);
+      Object[] range = (Object[])query.uniqueResult();
+      if ((range == null) || (range[0] == null))
+      {
+        return null;
+      }
+      return new long[] { ((Number)range[0]).longValue(), ((Number)range[1]).longValue() };
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't find ended process instances", e);
+    }
+  }
+
+  /**
+   * the ids of the process instances that ended before the cutoff, in ascending order.
+   * @param fromId the lowest id to consider.
+   * @param toId the highest id to consider.
+   */
+  public List findEndedProcessInstanceIds(Date cutoff, long fromId, long toId, int maxResults)
+  {
+    try
+    {
+      Query query = session.getNamedQuery("GraphSession.findEndedProcessInstanceIds");
+      query.setTimestamp("cutoff", cutoff);
+      query.setLong("fromId", fromId);
+      query.setLong("toId", toId);
+      query.setMaxResults(maxResults);
+      return query.list();
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't find ended process instances", e);
+    }
+  }
+
+  /**
+   * deletes the given process instances with bulk statements, without loading any entities. Logs, variable
+   * instances, byte arrays, tokens, task instances, swimlane instances, pooled actors, comments, jobs and dead letters
+   * of the process instances are deleted as well. References from process instances that are not purged, like the
+   * super process token of a sub process, are set to null.
+   * 
+   * <p>
+   * Sub process instances are not deleted along with their super process instance. Purge them by their own id, for
+   * example by selecting them with the same cutoff. Keep the id list small enough for an <code>in</code> clause of
+   * the database.
+   * </p>
+   * 
+   * @return the number of deleted process instances.
+   */
+  public int purgeProcessInstances(List processInstanceIds)
+  {
+    return purgeProcessInstances(processInstanceIds, true);
+  }
+
+  /**
+   * runs the purge statements.
+   * @param includeByteArrays false to keep the byte arrays of the variable instances and logs, which are referenced
+   *          from the history tables after archiving.
+   */
+  int purgeProcessInstances(List processInstanceIds, boolean includeByteArrays)
+  {
+    if (processInstanceIds.isEmpty())
+    {
+      return 0;
+    }
+    try
+    {
+      // collect what is only reachable through rows that are deleted first
+      List byteArrayIds = new ArrayList();
+      if (includeByteArrays)
+      {
+        byteArrayIds.addAll(purgeQuery("GraphSession.purgeFindLogOldByteArrayIds", processInstanceIds).list());
+        byteArrayIds.addAll(purgeQuery("GraphSession.purgeFindLogNewByteArrayIds", processInstanceIds).list());
+        byteArrayIds.addAll(purgeQuery("GraphSession.purgeFindVariableByteArrayIds", processInstanceIds).list());
+      }
+      List pooledActorIds = purgeQuery("GraphSession.purgeFindTaskPooledActorIds", processInstanceIds).list();
+
+      // the order of the statements follows the foreign keys
+      purgeQuery("GraphSession.purgeJobs", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeDeadLetters", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeUnlinkLogs", processInstanceIds).executeUpdate();
+      int logCount = purgeQuery("GraphSession.purgeLogs", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeTokenComments", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeTaskComments", processInstanceIds).executeUpdate();
+      int variableCount = purgeQuery("GraphSession.purgeVariableInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeTaskActorPool", processInstanceIds).executeUpdate();
+      for (int i = 0; i < pooledActorIds.size(); i += PURGE_ID_CHUNK_SIZE)
+      {
+        Query query = session.getNamedQuery("GraphSession.purgePooledActorsById");
+        query.setParameterList("pooledActorIds", pooledActorIds.subList(i, Math.min(i + PURGE_ID_CHUNK_SIZE, pooledActorIds.size())));
+        query.executeUpdate();
+      }
+      purgeQuery("GraphSession.purgeSwimlanePooledActors", processInstanceIds).executeUpdate();
+      int taskCount = purgeQuery("GraphSession.purgeTaskInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeSwimlaneInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeTokenVariableMaps", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeRuntimeActions", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeModuleInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeUnlinkSuperProcessTokens", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeUnlinkSubProcessInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeUnlinkRootTokens", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeUnlinkTokens", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.purgeTokens", processInstanceIds).executeUpdate();
+      int processInstanceCount = purgeQuery("GraphSession.purgeProcessInstances", processInstanceIds).executeUpdate();
+
+      for (int i = 0; i < byteArrayIds.size(); i += PURGE_ID_CHUNK_SIZE)
+      {
+        List chunk = byteArrayIds.subList(i, Math.min(i + PURGE_ID_CHUNK_SIZE, byteArrayIds.size()));
+        Query query = session.getNamedQuery("GraphSession.purgeByteBlocks");
+        query.setParameterList("byteArrayIds", chunk);
+        query.executeUpdate();
+        query = session.getNamedQuery("GraphSession.purgeByteArrays");
+        query.setParameterList("byteArrayIds", chunk);
+        query.executeUpdate();
+      }
+
+      if (log.isDebugEnabled())
+      {
+        log.debug("purged " + processInstanceCount + " process instances with " + logCount + " logs, " + variableCount + " variable instances, "
+            + taskCount + " task instances and " + byteArrayIds.size() + " byte arrays");
+      }
+      return processInstanceCount;
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't purge process instances " + processInstanceIds, e);
+    }
+  }
+
+  static final int PURGE_ID_CHUNK_SIZE = 500;
+
+  Query purgeQuery(String queryName, List processInstanceIds)
+  {
+    Query query = session.getNamedQuery(queryName);
+    query.setParameterList("processInstanceIds", processInstanceIds);
+    return query;
+  }
+
+  // archiving ended process instances ///////////////////////////////////////
+
+  public static final String HISTORIC_PROCESS_INSTANCE = "org.jbpm.graph.exe.HistoricProcessInstance";
+  public static final String HISTORIC_TOKEN = "org.jbpm.graph.exe.HistoricToken";
+  public static final String HISTORIC_VARIABLE_INSTANCE = "org.jbpm.context.exe.HistoricVariableInstance";
+  public static final String HISTORIC_TASK_INSTANCE = "org.jbpm.taskmgmt.exe.HistoricTaskInstance";
+  public static final String HISTORIC_PROCESS_LOG = "org.jbpm.logging.log.HistoricProcessLog";
+  public static final String HISTORIC_COMMENT = "org.jbpm.graph.exe.HistoricComment";
+
+  static final Set HISTORIC_ENTITY_NAMES = new HashSet(Arrays.asList(new String[] { HISTORIC_PROCESS_INSTANCE, HISTORIC_TOKEN,
+      HISTORIC_VARIABLE_INSTANCE, HISTORIC_TASK_INSTANCE, HISTORIC_PROCESS_LOG, HISTORIC_COMMENT }));
+
+  /**
+   * tells if the history tables of org/jbpm/db/hibernate.history.hbm.xml are part of the hibernate configuration.
+   */
+  public boolean isHistoryMapped()
+  {
+    return session.getSessionFactory().getClassMetadata(HISTORIC_PROCESS_INSTANCE) != null;
+  }
+
+  /**
+   * tells if the given process instance, token, variable instance, task instance, log or comment was loaded from the
+   * history tables.
+   */
+  public boolean isHistoric(Object entity)
+  {
+    if (!session.contains(entity))
+    {
+      return false;
+    }
+    String entityName = session.getEntityName(entity);
+    EntityPersister persister = ((SessionFactoryImplementor)session.getSessionFactory()).getEntityPersister(entityName);
+    return HISTORIC_ENTITY_NAMES.contains(persister.getRootEntityName());
+  }
+
+  /**
+   * moves the given ended process instances to the history tables. The process instances, their tokens, variable
+   * instances, task instances, logs and comments are copied with bulk statements. Then all runtime rows of the
+   * process instances are deleted like in {@link #purgeProcessInstances(List)}, except for the byte arrays, which
+   * are referenced from the archived variable instances and logs.
+   * 
+   * <p>
+   * Swimlane instances, pooled actors and jobs are not archived: they only drive the execution. The assignments stay
+   * visible in the actor ids of the archived task instances and in the assignment logs. Sub process instances are
+   * archived by their own id, like in the purge.
+   * </p>
+   * 
+   * @return the number of archived process instances.
+   * @throws JbpmException if the history tables are not mapped.
+   */
+  public int archiveProcessInstances(List processInstanceIds)
+  {
+    if (!isHistoryMapped())
+    {
+      throw new JbpmException("history tables are not mapped, add org/jbpm/db/hibernate.history.hbm.xml to the hibernate configuration");
+    }
+    if (processInstanceIds.isEmpty())
+    {
+      return 0;
+    }
+    try
+    {
+      // the copies are made before the purge unlinks any references
+      purgeQuery("GraphSession.archiveProcessInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.archiveTokens", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.archiveTaskInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.archiveVariableInstances", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.archiveLogs", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.archiveTokenComments", processInstanceIds).executeUpdate();
+      purgeQuery("GraphSession.archiveTaskComments", processInstanceIds).executeUpdate();
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't archive process instances " + processInstanceIds, e);
+    }
+    return purgeProcessInstances(processInstanceIds, false);
+  }
+
+  /**
+   * gets a process instance by the identifier. If it is not found in the runtime tables and includeHistory is set,
+   * it is looked up in the history tables. The historic process instance is read only.
+   * 
+   * @return the process instance or null in case it doesn't exist.
+   */
+  public ProcessInstance getProcessInstance(long processInstanceId, boolean includeHistory)
+  {
+    ProcessInstance processInstance = getProcessInstance(processInstanceId);
+    if ((processInstance == null) && includeHistory && isHistoryMapped())
+    {
+      try
+      {
+        processInstance = (ProcessInstance)session.get(HISTORIC_PROCESS_INSTANCE, new Long(processInstanceId));
+      }
+      catch (Exception e)
+      {
+        log.error(e);
+        jbpmSession.handleException();
+        throw new JbpmException("couldn't get historic process instance '" + processInstanceId + "'", e);
+      }
+    }
+    return processInstance;
+  }
+
+  /**
+   * gets a token by the identifier, from the history tables as well if includeHistory is set.
+   * 
+   * @return the token or null in case it doesn't exist.
+   */
+  public Token getToken(long tokenId, boolean includeHistory)
+  {
+    Token token = getToken(tokenId);
+    if ((token == null) && includeHistory && isHistoryMapped())
+    {
+      try
+      {
+        token = (Token)session.get(HISTORIC_TOKEN, new Long(tokenId));
+      }
+      catch (Exception e)
+      {
+        log.error(e);
+        jbpmSession.handleException();
+        throw new JbpmException("couldn't get historic token '" + tokenId + "'", e);
+      }
+    }
+    return token;
+  }
+
+  /**
+   * streams all processInstances for the given process definition from the database, youngest first, without
+   * materializing them in one list. The session is cleared after every batch of process instances.
+   * 
+   * @see ScrollableResultIterator
+   */
+  public ScrollableResultIterator scrollProcessInstances(long processDefinitionId, int batchSize)
+  {
+    try
+    {
+      Query query = session.getNamedQuery("GraphSession.findAllProcessInstancesForADefinition");
+      query.setLong("processDefinitionId", processDefinitionId);
+      return new ScrollableResultIterator(session, query, batchSize);
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't scroll process instances for process definition '" + processDefinitionId + "'", e);
+    }
+  }
+
+  /**
+   * fetches the process instances for the given process definition, from the history tables as well if
+   * includeHistory is set. The returned list is sorted by start date, youngest first.
+   */
+  public List findProcessInstances(long processDefinitionId, boolean includeHistory)
+  {
+    List processInstances = findProcessInstances(processDefinitionId);
+    if (includeHistory && isHistoryMapped())
+    {
+      try
+      {
+        Query query = session.getNamedQuery("GraphSession.findHistoricProcessInstancesForADefinition");
+        query.setLong("processDefinitionId", processDefinitionId);
+        processInstances = mergeByStartDate(processInstances, query.list());
+      }
+      catch (Exception e)
+      {
+        log.error(e);
+        jbpmSession.handleException();
+        throw new JbpmException("couldn't load historic process instances for process definition '" + processDefinitionId + "'", e);
+      }
+    }
+    return processInstances;
+  }
+
+  /**
+   * gets the process instance with the given key, from the history tables as well if includeHistory is set.
+   */
+  public ProcessInstance getProcessInstance(ProcessDefinition processDefinition, String key, boolean includeHistory)
+  {
+    ProcessInstance processInstance = getProcessInstance(processDefinition, key);
+    if ((processInstance == null) && includeHistory && isHistoryMapped())
+    {
+      try
+      {
+        Query query = session.getNamedQuery("GraphSession.findHistoricProcessInstanceByKey");
+        query.setEntity("processDefinition", processDefinition);
+        query.setString("key", key);
+        processInstance = (ProcessInstance)query.uniqueResult();
+      }
+      catch (Exception e)
+      {
+        log.error(e);
+        jbpmSession.handleException();
+        throw new JbpmException("couldn't get historic process instance with key '" + key + "'", e);
+      }
+    }
+    return processInstance;
+  }
+
+  /**
+   * fetches the variable instances of an archived process instance, sorted by name. Historic process instances have
+   * no context instance, so their variables are only available through this method.
+   */
+  public List findHistoricVariableInstances(long processInstanceId)
+  {
+    if (!isHistoryMapped())
+    {
+      return Collections.EMPTY_LIST;
+    }
+    try
+    {
+      Query query = session.getNamedQuery("GraphSession.findHistoricVariableInstances");
+      query.setLong("processInstanceId", processInstanceId);
+      return query.list();
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't load historic variable instances for process instance '" + processInstanceId + "'", e);
+    }
+  }
+
+  /**
+   * fetches the logs of an archived process instance, ordered by token and index.
+   */
+  public List findHistoricLogs(long processInstanceId)
+  {
+    if (!isHistoryMapped())
+    {
+      return Collections.EMPTY_LIST;
+    }
+    try
+    {
+      Query query = session.getNamedQuery("GraphSession.findHistoricLogs");
+      query.setLong("processInstanceId", processInstanceId);
+      return query.list();
+    }
+    catch (Exception e)
+    {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't load historic logs for process instance '" + processInstanceId + "'", e);
+    }
+  }
+
+  /**
+   * merges two lists of process instances that are sorted by start date, youngest first.
+   */
+  public static List mergeByStartDate(List processInstances, List otherProcessInstances)
+  {
+    List merged = new ArrayList(processInstances.size() + otherProcessInstances.size());
+    merged.addAll(processInstances);
+    merged.addAll(otherProcessInstances);
+    Collections.sort(merged, START_DATE_DESCENDING);
+    return merged;
+  }
+
+  static final Comparator START_DATE_DESCENDING = new Comparator()
+  {
+    public int compare(Object o1, Object o2)
+    {
+      Date start1 = ((ProcessInstance)o1).getStart();
+      Date start2 = ((ProcessInstance)o2).getStart();
+      if (start1 == null)
+      {
+        return (start2 == null ? 0 : 1);
+      }
+      if (start2 == null)
+      {
+        return -1;
+      }
+      return start2.compareTo(start1);
+    }
+  };
+
   public static class AverageNodeTimeEntry
   {
     private long nodeId;
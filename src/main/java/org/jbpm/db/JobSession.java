@@ -21,20 +21,30 @@
  */
 package org.jbpm.db;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Hibernate;
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.proxy.HibernateProxy;
 import org.jbpm.JbpmException;
 import org.jbpm.graph.def.Action;
 import org.jbpm.graph.exe.ProcessInstance;
 import org.jbpm.graph.exe.Token;
+import org.jbpm.job.DeadLetter;
 import org.jbpm.job.Job;
+import org.jbpm.job.JobExecutorHeartbeat;
 import org.jbpm.job.Timer;
 
 public class JobSession {
@@ -76,7 +86,175 @@ public class JobSession {
     }
     return jobs;
   }
-  
+
+  /**
+   * finds the acquirable jobs that are due first, without loading them.
+   * @return a list of <code>Object[]</code> rows holding the job id, the
+   * exclusive flag and the process instance id, in that order.
+   */
+  public List findAcquirableJobIds(String lockOwner, int maxResults) {
+    try {
+      Query query = session.getNamedQuery("JobSession.findAcquirableJobIds");
+      query.setString("lockOwner", lockOwner);
+      query.setTimestamp("now", new Date());
+      query.setMaxResults(maxResults);
+      return query.list();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find acquirable jobs for thread '"+lockOwner+"'", e);
+    }
+  }
+
+  /** dialects of databases that support <code>for update skip locked</code> */
+  static final String[] SKIP_LOCKED_DIALECTS = {
+    "org.hibernate.dialect.PostgreSQLDialect",
+    "org.hibernate.dialect.MySQLDialect",
+    "org.hibernate.dialect.Oracle9Dialect",
+    "org.hibernate.dialect.Oracle9iDialect",
+    "org.hibernate.dialect.Oracle10gDialect"
+  };
+
+  static final String[] ORACLE_DIALECTS = {
+    "org.hibernate.dialect.OracleDialect",
+    "org.hibernate.dialect.Oracle9Dialect",
+    "org.hibernate.dialect.Oracle9iDialect",
+    "org.hibernate.dialect.Oracle10gDialect"
+  };
+
+  /**
+   * tells whether the database supports skipping locked rows in 
+   * <code>select ... for update</code> statements, based on the dialect.
+   * Only the hibernate dialects in {@link #SKIP_LOCKED_DIALECTS} and their 
+   * subclasses are accepted: PostgreSQL, which needs server version 9.5 or 
+   * later, MySQL, which needs server version 8.0 or later, and Oracle, 
+   * which documents skip locked from 11g on.  For other databases, or to 
+   * turn skip locked off for an older server, set 
+   * <code>skipLocked</code> on the 
+   * {@link org.jbpm.job.executor.RowLockJobAcquisitionStrategy} explicitly.
+   */
+  public boolean isSkipLockedSupported() {
+    return isDialect(SKIP_LOCKED_DIALECTS);
+  }
+
+  /**
+   * tells whether the dialect is one of the given dialect classes or 
+   * extends one of them.
+   */
+  boolean isDialect(String[] dialectClassNames) {
+    for (Class dialectClass = getDialect().getClass(); dialectClass!=null; dialectClass = dialectClass.getSuperclass()) {
+      for (int i=0; i<dialectClassNames.length; i++) {
+        if (dialectClassNames[i].equals(dialectClass.getName())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * finds and row-locks the acquirable jobs that are due first, skipping 
+   * jobs that are row-locked by other transactions.  The locks are held 
+   * until the current transaction ends.
+   * @return a list of <code>Object[]</code> rows holding the job id, the
+   * exclusive flag and the process instance id, in that order.
+   * @see #isSkipLockedSupported()
+   */
+  public List findAcquirableJobIdsForUpdate(String lockOwner, int maxResults) {
+    try {
+      // oracle does not allow for update in combination with rownum 
+      // limits, but locks skipped rows as they are fetched
+      boolean isOracle = isDialect(ORACLE_DIALECTS);
+      StringBuffer sql = new StringBuffer()
+        .append(session.getNamedQuery("JobSession.findAcquirableJobIdsForUpdate").getQueryString().trim())
+        .append(' ');
+      if (!isOracle) {
+        sql.append("limit ").append(maxResults).append(' ');
+      }
+      sql.append("for update skip locked");
+
+      SQLQuery query = session.createSQLQuery(sql.toString());
+      query.addScalar("ID_", Hibernate.LONG);
+      query.addScalar("ISEXCLUSIVE_", Hibernate.BOOLEAN);
+      query.addScalar("PROCESSINSTANCE_", Hibernate.LONG);
+      query.setString("lockOwner", lockOwner);
+      query.setTimestamp("now", new Date());
+      query.setBoolean("suspended", true);
+      query.setFetchSize(maxResults);
+
+      List jobIds = new ArrayList();
+      ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+      try {
+        while (jobIds.size()<maxResults && results.next()) {
+          jobIds.add(results.get());
+        }
+      } finally {
+        results.close();
+      }
+      return jobIds;
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find acquirable jobs for update for thread '"+lockOwner+"'", e);
+    }
+  }
+
+  /**
+   * locks the given jobs with a conditional bulk update.  jobs that were
+   * locked by another owner in the meantime are skipped rather than causing
+   * an optimistic locking failure.
+   * @return the number of jobs actually locked.
+   */
+  public int lockJobs(Collection jobIds, String lockOwner, Date lockTime) {
+    try {
+      Query query = session.getNamedQuery("JobSession.lockJobs");
+      query.setParameterList("jobIds", jobIds);
+      query.setString("lockOwner", lockOwner);
+      query.setTimestamp("lockTime", lockTime);
+      return query.executeUpdate();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't lock jobs "+jobIds+" for thread '"+lockOwner+"'", e);
+    }
+  }
+
+  /**
+   * locks all acquirable exclusive jobs of the given process instances with
+   * a conditional bulk update.
+   * @return the number of jobs actually locked.
+   */
+  public int lockExclusiveJobs(Collection processInstanceIds, String lockOwner, Date lockTime) {
+    try {
+      Query query = session.getNamedQuery("JobSession.lockExclusiveJobs");
+      query.setParameterList("processInstanceIds", processInstanceIds);
+      query.setString("lockOwner", lockOwner);
+      query.setTimestamp("lockTime", lockTime);
+      query.setTimestamp("now", new Date());
+      return query.executeUpdate();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't lock exclusive jobs of process instances "+processInstanceIds+" for thread '"+lockOwner+"'", e);
+    }
+  }
+
+  /**
+   * finds the due jobs that are currently locked by the given owner.
+   */
+  public List findJobsLockedBy(String lockOwner) {
+    try {
+      Query query = session.getNamedQuery("JobSession.findJobsLockedBy");
+      query.setString("lockOwner", lockOwner);
+      query.setTimestamp("now", new Date());
+      return query.list();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find jobs locked by thread '"+lockOwner+"'", e);
+    }
+  }
+
   /**
    * find all jobs
    */
@@ -117,6 +295,136 @@ public class JobSession {
     return job;
   }
 
+  /**
+   * finds the due dates of the jobs that become due in the given time range,
+   * without loading the jobs.  Jobs locked by other owners than those with 
+   * the given prefix are left out.
+   * @return a list of <code>Object[]</code> rows holding the job id and the 
+   * due date.
+   */
+  public List findJobDueDates(String lockOwnerPrefix, Date from, Date until) {
+    try {
+      Query query = session.getNamedQuery("JobSession.findJobDueDates");
+      query.setString("lockOwnerPrefix", escapeLikePattern(lockOwnerPrefix)+"%");
+      query.setTimestamp("from", from);
+      query.setTimestamp("until", until);
+      return query.list();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find due dates of jobs due between '"+from+"' and '"+until+"'", e);
+    }
+  }
+
+  /**
+   * moves a job that ran out of retries to the dead-letter store.  The job 
+   * stays in the job table, but its due date is cleared so that it no longer
+   * shows up in the due date ranges scanned by job acquisition.
+   * @see DeadLetter
+   */
+  public DeadLetter deadLetterJob(Job job) {
+    try {
+      DeadLetter deadLetter = new DeadLetter( job.getId(),
+                                              getProcessInstanceId(job),
+                                              Hibernate.getClass(job).getName(),
+                                              job.getDueDate(),
+                                              job.getFailures()
+                                            );
+      session.save(deadLetter);
+      job.setDueDate(null);
+      log.debug("moved "+job+" to the dead-letter store");
+      return deadLetter;
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't move "+job+" to the dead-letter store", e);
+    }
+  }
+
+  /**
+   * finds dead letters, the most recent ones first.
+   */
+  public List findDeadLetters(int firstResult, int maxResults) {
+    try {
+      Query query = session.getNamedQuery("JobSession.findDeadLetters");
+      query.setFirstResult(firstResult);
+      if (maxResults>0) {
+        query.setMaxResults(maxResults);
+      }
+      return query.list();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find dead letters", e);
+    }
+  }
+
+  public List findDeadLettersByProcessInstance(long processInstanceId) {
+    try {
+      Query query = session.getNamedQuery("JobSession.findDeadLettersByProcessInstance");
+      query.setLong("processInstanceId", processInstanceId);
+      return query.list();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find dead letters for process instance '"+processInstanceId+"'", e);
+    }
+  }
+
+  /**
+   * gives the jobs of the given dead letters new retries, makes them due 
+   * immediately and removes the dead letters, all with bulk updates.
+   * @return the number of jobs that were replayed.  Jobs that were deleted 
+   *   in the meantime are not counted.
+   */
+  public int replayDeadLetters(Collection deadLetterIds, int retries) {
+    try {
+      Query query = session.getNamedQuery("JobSession.replayDeadLetterJobs");
+      query.setParameterList("deadLetterIds", deadLetterIds);
+      query.setInteger("retries", retries);
+      query.setTimestamp("now", new Date());
+      int jobCount = query.executeUpdate();
+
+      query = session.getNamedQuery("JobSession.deleteDeadLetters");
+      query.setParameterList("deadLetterIds", deadLetterIds);
+      query.executeUpdate();
+      log.debug("replayed "+jobCount+" jobs of dead letters "+deadLetterIds);
+      return jobCount;
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't replay dead letters "+deadLetterIds, e);
+    }
+  }
+
+  public void deleteDeadLettersForProcessInstance(long processInstanceId) {
+    try {
+      Query query = session.getNamedQuery("JobSession.deleteDeadLettersForProcessInstance");
+      query.setLong("processInstanceId", processInstanceId);
+      int entityCount = query.executeUpdate();
+      log.debug(entityCount+" dead letters for process instance "+processInstanceId+" were deleted");
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't delete dead letters for process instance '"+processInstanceId+"'", e);
+    }
+  }
+
+  /**
+   * the id of the process instance of the given job, obtained without 
+   * initializing the process instance proxy.
+   */
+  private static Long getProcessInstanceId(Job job) {
+    ProcessInstance processInstance = job.getProcessInstance();
+    if (processInstance==null) {
+      return null;
+    }
+    if (processInstance instanceof HibernateProxy) {
+      return (Long) ((HibernateProxy)processInstance).getHibernateLazyInitializer().getIdentifier();
+    }
+    return new Long(processInstance.getId());
+  }
+
   public void saveJob(Job job) {
     session.saveOrUpdate(job);
     if (job instanceof Timer) {
@@ -226,9 +534,126 @@ public class JobSession {
 
   public List findJobsWithOverdueLockTime(Date treshold) {
     Query query = session.getNamedQuery("JobSession.findJobsWithOverdueLockTime");
-    query.setDate("now", treshold);
+    query.setTimestamp("now", treshold);
     return query.list();
   }
 
+  /**
+   * finds the ids of jobs locked before the given treshold, without loading
+   * the jobs.
+   */
+  public List findJobIdsWithOverdueLockTime(Date treshold, int maxResults) {
+    try {
+      Query query = session.getNamedQuery("JobSession.findJobIdsWithOverdueLockTime");
+      query.setTimestamp("treshold", treshold);
+      if (maxResults>0) {
+        query.setMaxResults(maxResults);
+      }
+      return query.list();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find jobs locked before '"+treshold+"'", e);
+    }
+  }
+
+  /**
+   * releases the locks of the given jobs with a bulk update.  Jobs that were
+   * locked again after the treshold in the meantime are left alone.
+   * @return the number of jobs unlocked.
+   */
+  public int unlockJobs(Collection jobIds, Date treshold) {
+    try {
+      Query query = session.getNamedQuery("JobSession.unlockJobs");
+      query.setParameterList("jobIds", jobIds);
+      query.setTimestamp("treshold", treshold);
+      return query.executeUpdate();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't unlock jobs "+jobIds, e);
+    }
+  }
+
+  /**
+   * records that the job executor with the given lock owner prefix is alive.
+   */
+  public void recordHeartbeat(String lockOwnerPrefix) {
+    try {
+      Date now = new Date();
+      Query query = session.getNamedQuery("JobSession.recordHeartbeat");
+      query.setString("lockOwnerPrefix", lockOwnerPrefix);
+      query.setTimestamp("now", now);
+      if (query.executeUpdate()==0) {
+        session.save(new JobExecutorHeartbeat(lockOwnerPrefix, now));
+      }
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't record heartbeat of '"+lockOwnerPrefix+"'", e);
+    }
+  }
+
+  /**
+   * finds the lock owner prefixes of the job executors whose last heartbeat 
+   * is older than the given treshold.
+   */
+  public List findDeadLockOwnerPrefixes(Date treshold) {
+    try {
+      Query query = session.getNamedQuery("JobSession.findDeadLockOwnerPrefixes");
+      query.setTimestamp("treshold", treshold);
+      return query.list();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't find job executors without heartbeat since '"+treshold+"'", e);
+    }
+  }
+
+  /**
+   * releases all locks of a dead job executor with a single bulk update, 
+   * and removes its heartbeat.  Nothing is released if the job executor 
+   * recorded a heartbeat after the treshold in the meantime, or if another
+   * lock monitor released the locks already. 
+   * @return the number of jobs unlocked.
+   */
+  public int unlockJobsOfDeadOwner(String lockOwnerPrefix, Date treshold) {
+    try {
+      Query query = session.getNamedQuery("JobSession.deleteDeadHeartbeat");
+      query.setString("lockOwnerPrefix", lockOwnerPrefix);
+      query.setTimestamp("treshold", treshold);
+      if (query.executeUpdate()==0) {
+        return 0;
+      }
+      query = session.getNamedQuery("JobSession.unlockJobsOfLockOwnerPrefix");
+      query.setString("lockOwnerPrefix", escapeLikePattern(lockOwnerPrefix)+"%");
+      return query.executeUpdate();
+
+    } catch (Exception e) {
+      log.error(e);
+      throw new JbpmException("couldn't unlock jobs of dead job executor '"+lockOwnerPrefix+"'", e);
+    }
+  }
+
+  Dialect getDialect() {
+    return ((SessionFactoryImplementor) session.getSessionFactory()).getDialect();
+  }
+
+  /**
+   * escapes the LIKE wildcards in the given literal text with '!', the 
+   * escape character of the lock owner prefix queries.
+   */
+  static String escapeLikePattern(String text) {
+    StringBuffer pattern = new StringBuffer(text.length()+8);
+    for (int i=0; i<text.length(); i++) {
+      char c = text.charAt(i);
+      if (c=='!' || c=='%' || c=='_') {
+        pattern.append('!');
+      }
+      pattern.append(c);
+    }
+    return pattern.toString();
+  }
+
   private static Log log = LogFactory.getLog(JobSession.class);
 }
@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.util.Date;
+import java.util.List;
+
+import org.jbpm.JbpmConfiguration;
+
+/**
+ * moves the process instances that ended before a cutoff date to the
+ * history tables with {@link GraphSession#archiveProcessInstances(List)}.
+ *
+ * <p>Chunks, threads and progress work like in the
+ * {@link ProcessInstancePurger}: the purged count is the number of
+ * archived process instances.  Run it periodically, for example from a
+ * timer or a scheduled {@link org.jbpm.command.ArchiveProcessInstancesCommand},
+ * to keep the runtime tables limited to the running process instances.</p>
+ */
+public class ProcessInstanceArchiver extends ProcessInstancePurger {
+
+  public ProcessInstanceArchiver(JbpmConfiguration jbpmConfiguration, Date cutoff) {
+    super(jbpmConfiguration, cutoff);
+  }
+
+  protected int purgeChunk(GraphSession graphSession, List processInstanceIds) {
+    return graphSession.archiveProcessInstances(processInstanceIds);
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.JbpmException;
+
+/**
+ * purges the process instances that ended before a cutoff date with
+ * {@link GraphSession#purgeProcessInstances(List) bulk deletes}.
+ *
+ * <p>The id range of the ended process instances is split into one range
+ * per thread.  Each thread deletes its range in chunks of
+ * <code>chunkSize</code> process instances, with a transaction per chunk.
+ * The progress can be followed with {@link #getPurgedCount()} and
+ * {@link #getChunkCount()} from another thread.</p>
+ *
+ * <p>A chunk that fails is logged and skipped, the purge continues with
+ * the next chunk.  The failures are counted in
+ * {@link #getFailedChunkCount()}.</p>
+ */
+public class ProcessInstancePurger {
+
+  JbpmConfiguration jbpmConfiguration;
+  Date cutoff;
+  int threads = 1;
+  int chunkSize = 100;
+
+  final AtomicLong purgedCount = new AtomicLong();
+  final AtomicLong chunkCount = new AtomicLong();
+  final AtomicLong failedChunkCount = new AtomicLong();
+  volatile boolean isActive = true;
+
+  public ProcessInstancePurger(JbpmConfiguration jbpmConfiguration, Date cutoff) {
+    this.jbpmConfiguration = jbpmConfiguration;
+    this.cutoff = cutoff;
+  }
+
+  /**
+   * purges the ended process instances and waits until all threads are done.
+   * @return the number of purged process instances.
+   */
+  public long purge() {
+    if ( (threads<1)
+         || (chunkSize<1)
+       ) {
+      throw new JbpmException("threads and chunk size must be positive");
+    }
+    long[] range;
+    JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
+    try {
+      range = jbpmContext.getGraphSession().findEndedProcessInstanceIdRange(cutoff);
+    } finally {
+      jbpmContext.close();
+    }
+    if (range==null) {
+      log.info("no process instances ended before "+cutoff);
+      return 0;
+    }
+    log.info("purging process instances that ended before "+cutoff+" with ids from "+range[0]+" to "+range[1]);
+
+    long rangeSize = (range[1]-range[0])/threads+1;
+    List purgeThreads = new ArrayList();
+    for (int i=0; i<threads; i++) {
+      long fromId = range[0]+i*rangeSize;
+      long toId = Math.min(fromId+rangeSize-1, range[1]);
+      if (fromId>range[1]) {
+        break;
+      }
+      Thread purgeThread = new PurgeThread(fromId, toId);
+      purgeThread.setName("JbpmPurger:"+fromId+"-"+toId);
+      purgeThreads.add(purgeThread);
+      purgeThread.start();
+    }
+    try {
+      for (int i=0; i<purgeThreads.size(); i++) {
+        ((Thread) purgeThreads.get(i)).join();
+      }
+    } catch (InterruptedException e) {
+      // stop the threads after their current chunk
+      isActive = false;
+      Thread.currentThread().interrupt();
+    }
+    log.info("purged "+purgedCount.get()+" process instances in "+chunkCount.get()+" chunks, "+failedChunkCount.get()+" chunks failed");
+    return purgedCount.get();
+  }
+
+  /**
+   * purges the ended process instances in the given id range, chunk by chunk.
+   */
+  protected void purgeRange(long fromId, long toId) {
+    long nextId = fromId;
+    while ( (isActive)
+            && (nextId<=toId)
+          ) {
+      JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
+      List processInstanceIds;
+      int purged = 0;
+      boolean isChunkPurged = false;
+      try {
+        GraphSession graphSession = jbpmContext.getGraphSession();
+        processInstanceIds = graphSession.findEndedProcessInstanceIds(cutoff, nextId, toId, chunkSize);
+        if (processInstanceIds.isEmpty()) {
+          return;
+        }
+        nextId = ((Number) processInstanceIds.get(processInstanceIds.size()-1)).longValue()+1;
+        try {
+          purged = purgeChunk(graphSession, processInstanceIds);
+          isChunkPurged = true;
+        } catch (RuntimeException e) {
+          jbpmContext.setRollbackOnly();
+          log.error("couldn't purge process instances "+processInstanceIds, e);
+        }
+      } finally {
+        try {
+          jbpmContext.close();
+        } catch (RuntimeException e) {
+          log.error("couldn't commit the purge of a chunk of process instances", e);
+          isChunkPurged = false;
+        }
+      }
+
+      if (isChunkPurged) {
+        purgedCount.addAndGet(purged);
+        long chunks = chunkCount.incrementAndGet();
+        if (log.isDebugEnabled()) {
+          log.debug("purged "+purgedCount.get()+" process instances in "+chunks+" chunks");
+        }
+      } else {
+        failedChunkCount.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * removes one chunk of ended process instances in the current transaction.
+   * @return the number of removed process instances.
+   */
+  protected int purgeChunk(GraphSession graphSession, List processInstanceIds) {
+    return graphSession.purgeProcessInstances(processInstanceIds);
+  }
+
+  class PurgeThread extends Thread {
+    long fromId;
+    long toId;
+    PurgeThread(long fromId, long toId) {
+      this.fromId = fromId;
+      this.toId = toId;
+    }
+    public void run() {
+      try {
+        purgeRange(fromId, toId);
+      } catch (Exception e) {
+        log.error("exception in purge thread '"+getName()+"'", e);
+      }
+    }
+  }
+
+  /**
+   * lets the threads stop after their current chunk.
+   */
+  public void stop() {
+    isActive = false;
+  }
+
+  public long getPurgedCount() {
+    return purgedCount.get();
+  }
+  public long getChunkCount() {
+    return chunkCount.get();
+  }
+  public long getFailedChunkCount() {
+    return failedChunkCount.get();
+  }
+  public int getThreads() {
+    return threads;
+  }
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+  public int getChunkSize() {
+    return chunkSize;
+  }
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  private static Log log = LogFactory.getLog(ProcessInstancePurger.class);
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.FlushMode;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.jbpm.JbpmException;
+
+/**
+ * streams the results of one or more queries with a forward only cursor,
+ * for exports and batch jobs over more rows than fit in memory.
+ *
+ * <p>Only one batch of results is attached to the session at any time: 
+ * when the first result of the next batch is read by {@link #hasNext()} 
+ * or {@link #next()}, the session is flushed (unless its flush mode is 
+ * manual) and cleared.  So objects returned by this iterator must 
+ * be completely processed, including their lazy associations, before 
+ * the next batch is fetched.  Clearing detaches all other objects of the 
+ * session as well, so streaming is best done in a jbpm context of its 
+ * own.</p>
+ *
+ * <p>The queries are executed one after the other.  The underlying cursor 
+ * is closed when the last result has been read.  Callers that stop early 
+ * must {@link #close()} the iterator.</p>
+ */
+public class ScrollableResultIterator implements Iterator {
+
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  Session session;
+  Query[] queries;
+  int batchSize;
+
+  int queryIndex = -1;
+  ScrollableResults results = null;
+  Object nextResult = null;
+  boolean isNextResultFetched = false;
+  int count = 0;
+
+  public ScrollableResultIterator(Session session, Query query, int batchSize) {
+    this(session, new Query[] { query }, batchSize);
+  }
+
+  public ScrollableResultIterator(Session session, Query[] queries, int batchSize) {
+    if (batchSize<=0) {
+      throw new JbpmException("batch size must be positive: "+batchSize);
+    }
+    this.session = session;
+    this.queries = queries;
+    this.batchSize = batchSize;
+  }
+
+  public boolean hasNext() {
+    if (! isNextResultFetched) {
+      fetchNextResult();
+    }
+    return (nextResult!=null);
+  }
+
+  public Object next() {
+    if (! hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Object result = nextResult;
+    nextResult = null;
+    isNextResultFetched = false;
+    count++;
+    return result;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException("streamed results can't be removed");
+  }
+
+  /**
+   * the number of results returned so far.
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * closes the cursor.  Must be called by callers that don't read all 
+   * results.  Closing twice is harmless.
+   */
+  public void close() {
+    if (results!=null) {
+      try {
+        results.close();
+      } catch (Exception e) {
+        log.error("couldn't close scrollable results", e);
+      }
+      results = null;
+    }
+    queryIndex = queries.length;
+  }
+
+  void fetchNextResult() {
+    isNextResultFetched = true;
+    if ( (count>0)
+         && (count%batchSize==0)
+       ) {
+      clearSession();
+    }
+    while (queryIndex<queries.length) {
+      if (results==null) {
+        queryIndex++;
+        if (queryIndex>=queries.length) {
+          break;
+        }
+        Query query = queries[queryIndex];
+        query.setFetchSize(batchSize);
+        results = query.scroll(ScrollMode.FORWARD_ONLY);
+      }
+      if (results.next()) {
+        nextResult = results.get(0);
+        return;
+      }
+      results.close();
+      results = null;
+    }
+  }
+
+  void clearSession() {
+    if (! FlushMode.MANUAL.equals(session.getFlushMode())) {
+      session.flush();
+    }
+    log.debug("clearing session after "+count+" streamed results");
+    session.clear();
+  }
+
+  private static final Log log = LogFactory.getLog(ScrollableResultIterator.class);
+}
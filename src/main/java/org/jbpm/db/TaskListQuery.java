@@ -0,0 +1,345 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.jbpm.JbpmException;
+import org.jbpm.taskmgmt.exe.TaskInstance;
+
+/**
+ * a page of the open task instances of a group of actors, loaded with a
+ * single query.
+ *
+ * <p>Personal task instances are assigned to one of the actors.  Pooled
+ * task instances are unassigned and have one of the actors in their pool.
+ * Both are selected in one query, with the token, the process instance and
+ * the task fetch joined, so that showing the list fires no further
+ * selects.</p>
+ *
+ * <p>Pages are read with keyset pagination: pass the last task instance of
+ * a page to {@link #after(TaskInstance)} to get the next page.  Unlike an
+ * offset, this stays fast deep into a large inbox and doesn't skip or
+ * repeat tasks when tasks are added or taken in the meantime.  Task
+ * instances are sorted by create date, priority or due date, with the id
+ * as tie breaker.  Task instances without a due date come last.</p>
+ *
+ * <pre>
+ * TaskListQuery query = new TaskListQuery(actorIds).orderBy(TaskListQuery.ORDER_BY_PRIORITY).maxResults(50);
+ * List page = taskMgmtSession.findTaskInstances(query);
+ * ...
+ * query.after((TaskInstance) page.get(page.size()-1));
+ * List nextPage = taskMgmtSession.findTaskInstances(query);
+ * </pre>
+ */
+public class TaskListQuery implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String ORDER_BY_CREATE = "create";
+  public static final String ORDER_BY_PRIORITY = "priority";
+  public static final String ORDER_BY_DUE_DATE = "dueDate";
+
+  static final List SORT_PROPERTIES = Arrays.asList(new String[] { ORDER_BY_CREATE, ORDER_BY_PRIORITY, ORDER_BY_DUE_DATE });
+
+  String[] actorIds;
+  boolean includePersonal = true;
+  boolean includePooled = true;
+  String orderBy = ORDER_BY_CREATE;
+  boolean descending = false;
+  int maxResults = 100;
+  boolean readOnly = false;
+
+  /** id of the last task instance of the previous page, or -1 for the first page */
+  long afterId = -1;
+  /** sort value of the last task instance of the previous page */
+  Object afterValue = null;
+
+  public TaskListQuery(String[] actorIds) {
+    this.actorIds = actorIds;
+  }
+
+  public TaskListQuery(List actorIds) {
+    this((String[]) actorIds.toArray(new String[actorIds.size()]));
+  }
+
+  // execution ////////////////////////////////////////////////////////////////
+
+  List list(Session session) {
+    return list(session, readOnly);
+  }
+
+  /**
+   * @param readOnly loads the task instances read-only, regardless of the 
+   *   read-only setting of this query.
+   */
+  List list(Session session, boolean readOnly) {
+    List result = new ArrayList();
+    if (actorIds.length==0) {
+      return result;
+    }
+    boolean isInNullSection = (afterId!=-1) && (afterValue==null);
+    if (! isInNullSection) {
+      Query query = createQuery(session, false, maxResults, readOnly);
+      result.addAll(query.list());
+    }
+    // task instances without a sort value come last, on databases that sort
+    // nulls first as well as on those that sort them last
+    if ( (isNullable())
+         && ( (maxResults<=0)
+              || (result.size()<maxResults)
+            )
+       ) {
+      Query query = createQuery(session, true, (maxResults>0 ? maxResults-result.size() : 0), readOnly);
+      result.addAll(query.list());
+    }
+    return result;
+  }
+
+  long count(Session session) {
+    if (actorIds.length==0) {
+      return 0;
+    }
+    StringBuffer hql = new StringBuffer();
+    hql.append("select count(ti.id) from org.jbpm.taskmgmt.exe.TaskInstance ti ");
+    appendActorRestriction(hql);
+    Query query = session.createQuery(hql.toString());
+    query.setParameterList("actorIds", actorIds);
+    return ((Number) query.uniqueResult()).longValue();
+  }
+
+  /**
+   * streams all task instances from the current position on, regardless 
+   * of the page size.
+   */
+  ScrollableResultIterator scroll(Session session, int batchSize) {
+    return scroll(session, batchSize, readOnly);
+  }
+
+  ScrollableResultIterator scroll(Session session, int batchSize, boolean readOnly) {
+    List queries = new ArrayList();
+    if (actorIds.length>0) {
+      boolean isInNullSection = (afterId!=-1) && (afterValue==null);
+      if (! isInNullSection) {
+        queries.add(createQuery(session, false, 0, readOnly));
+      }
+      if (isNullable()) {
+        queries.add(createQuery(session, true, 0, readOnly));
+      }
+    }
+    return new ScrollableResultIterator(session, (Query[]) queries.toArray(new Query[queries.size()]), batchSize);
+  }
+
+  Query createQuery(Session session, boolean isNullSection, int maxResults, boolean readOnly) {
+    String order = (descending ? " desc" : " asc");
+    String comparison = (descending ? " < " : " > ");
+    boolean hasKey = (afterId!=-1);
+
+    StringBuffer hql = new StringBuffer();
+    hql.append("select ti from org.jbpm.taskmgmt.exe.TaskInstance ti ");
+    hql.append("left join fetch ti.token as token ");
+    hql.append("left join fetch token.processInstance ");
+    hql.append("left join fetch ti.task ");
+    appendActorRestriction(hql);
+    if (isNullSection) {
+      hql.append("and ti.").append(orderBy).append(" is null ");
+      if ( (hasKey) 
+           && (afterValue==null)
+         ) {
+        hql.append("and ti.id").append(comparison).append(":afterId ");
+      }
+      hql.append("order by ti.id").append(order);
+    } else {
+      if (isNullable()) {
+        hql.append("and ti.").append(orderBy).append(" is not null ");
+      }
+      if (hasKey) {
+        hql.append("and ( ti.").append(orderBy).append(comparison).append(":afterValue ");
+        hql.append("or ( ti.").append(orderBy).append(" = :afterValue and ti.id").append(comparison).append(":afterId ) ) ");
+      }
+      hql.append("order by ti.").append(orderBy).append(order).append(", ti.id").append(order);
+    }
+
+    Query query = session.createQuery(hql.toString());
+    query.setParameterList("actorIds", actorIds);
+    if (hasKey) {
+      if (! isNullSection) {
+        query.setParameter("afterValue", afterValue);
+        query.setLong("afterId", afterId);
+      } else if (afterValue==null) {
+        query.setLong("afterId", afterId);
+      }
+    }
+    if (maxResults>0) {
+      query.setMaxResults(maxResults);
+    }
+    query.setReadOnly(readOnly);
+    return query;
+  }
+
+  void appendActorRestriction(StringBuffer hql) {
+    if ( (! includePersonal)
+         && (! includePooled)
+       ) {
+      throw new JbpmException("task list query includes neither personal nor pooled task instances");
+    }
+    hql.append("where ti.isSuspended != true and ti.isOpen = true and ( ");
+    if (includePersonal) {
+      hql.append("ti.actorId in (:actorIds) ");
+    }
+    if (includePooled) {
+      if (includePersonal) {
+        hql.append("or ");
+      }
+      hql.append("( ti.actorId is null and ti.id in ( ");
+      hql.append("select pooledTask.id from org.jbpm.taskmgmt.exe.TaskInstance pooledTask ");
+      hql.append("join pooledTask.pooledActors pooledActor ");
+      hql.append("where pooledActor.actorId in (:actorIds) ) ) ");
+    }
+    hql.append(") ");
+  }
+
+  boolean isNullable() {
+    return ! ORDER_BY_PRIORITY.equals(orderBy);
+  }
+
+  // keyset ///////////////////////////////////////////////////////////////////
+
+  /**
+   * continues after the given task instance, which is normally the last one
+   * of the previous page.
+   */
+  public TaskListQuery after(TaskInstance taskInstance) {
+    Object value;
+    if (ORDER_BY_PRIORITY.equals(orderBy)) {
+      value = new Integer(taskInstance.getPriority());
+    } else if (ORDER_BY_DUE_DATE.equals(orderBy)) {
+      value = taskInstance.getDueDate();
+    } else {
+      value = taskInstance.getCreate();
+    }
+    return after(value, taskInstance.getId());
+  }
+
+  /**
+   * continues after the task instance with the given sort value and id.
+   * @param value a {@link java.util.Date} or {@link Integer}, or null for a
+   * task instance without due date.
+   */
+  public TaskListQuery after(Object value, long taskInstanceId) {
+    this.afterValue = value;
+    this.afterId = taskInstanceId;
+    return this;
+  }
+
+  /**
+   * starts again from the first page.
+   */
+  public TaskListQuery first() {
+    return after(null, -1);
+  }
+
+  // configuration ////////////////////////////////////////////////////////////
+
+  public TaskListQuery includePersonal(boolean includePersonal) {
+    this.includePersonal = includePersonal;
+    return this;
+  }
+
+  public TaskListQuery includePooled(boolean includePooled) {
+    this.includePooled = includePooled;
+    return this;
+  }
+
+  /**
+   * sorts by {@link #ORDER_BY_CREATE}, {@link #ORDER_BY_PRIORITY} or
+   * {@link #ORDER_BY_DUE_DATE}.  Changing the order starts from the first
+   * page.
+   */
+  public TaskListQuery orderBy(String orderBy) {
+    if (! SORT_PROPERTIES.contains(orderBy)) {
+      throw new JbpmException("can't sort task list by '"+orderBy+"'");
+    }
+    this.orderBy = orderBy;
+    return first();
+  }
+
+  public TaskListQuery descending(boolean descending) {
+    this.descending = descending;
+    return first();
+  }
+
+  /**
+   * the page size, 0 for all task instances.
+   */
+  public TaskListQuery maxResults(int maxResults) {
+    this.maxResults = maxResults;
+    return this;
+  }
+
+  /**
+   * loads the task instances read-only, for lists that are only shown.  
+   * hibernate keeps no snapshots of them and never dirty checks them, so 
+   * changes to them are not saved.
+   */
+  public TaskListQuery readOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+    return this;
+  }
+
+  public String[] getActorIds() {
+    return actorIds;
+  }
+  public boolean isIncludePersonal() {
+    return includePersonal;
+  }
+  public boolean isIncludePooled() {
+    return includePooled;
+  }
+  public String getOrderBy() {
+    return orderBy;
+  }
+  public boolean isDescending() {
+    return descending;
+  }
+  public int getMaxResults() {
+    return maxResults;
+  }
+  public long getAfterId() {
+    return afterId;
+  }
+  public Object getAfterValue() {
+    return afterValue;
+  }
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  public String toString() {
+    return "TaskListQuery(actorIds="+Arrays.asList(actorIds)+",orderBy="+orderBy+(descending ? " desc" : "")+",after="+afterValue+"/"+afterId+")";
+  }
+}
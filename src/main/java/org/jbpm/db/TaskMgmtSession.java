@@ -24,7 +24,6 @@ package org.jbpm.db;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -99,54 +98,84 @@ public class TaskMgmtSession implements Serializable {
    * get the taskinstances for which the given actor is in the pool.
    */
   public List findPooledTaskInstances(String actorId) {
-    List result = null;
+    return findPooledTaskInstances(Collections.singletonList(actorId));
+  }
+  
+  /**
+   * get the taskinstances for which the given actor is in the pool.
+   */
+  public List findPooledTaskInstances(List actorIds) {
+    TaskListQuery taskListQuery = new TaskListQuery(actorIds)
+      .includePersonal(false)
+      .maxResults(0);
     try {
-      Query query = session.getNamedQuery("TaskMgmtSession.findPooledTaskInstancesByActorId");
-      query.setString("swimlaneActorId", actorId);
-      List identifiers = query.list();
-      if (!identifiers.isEmpty()) {
-        result = new ArrayList(identifiers.size());
-        for (Iterator i = identifiers.iterator(); i.hasNext();) {
-          Long taskInstanceId = (Long) i.next();
-          result.add(session.load(TaskInstance.class, taskInstanceId));
-        }
-      }
-      else {
-        result = Collections.EMPTY_LIST;
-      }
+      return taskListQuery.list(session);
     } catch (Exception e) {
       log.error(e);
       jbpmSession.handleException();
-      throw new JbpmException("couldn't get pooled task instances list for actor '"+actorId+"'", e);
+      throw new JbpmException("couldn't get pooled task instances list for actors '"+actorIds+"'", e);
     } 
-    return result;
   }
-  
+
   /**
-   * get the taskinstances for which the given actor is in the pool.
+   * get a page of the personal and pooled task instances of a group of 
+   * actors in one query.
+   * @see TaskListQuery
    */
-  public List findPooledTaskInstances(List actorIds) {
-    List result = null;
+  public List findTaskInstances(TaskListQuery taskListQuery) {
+    return findTaskInstances(taskListQuery, taskListQuery.isReadOnly());
+  }
+
+  /**
+   * get a page of the task instances of the task list query, read-only if 
+   * requested, without changing the read-only setting of the query.
+   */
+  public List findTaskInstances(TaskListQuery taskListQuery, boolean readOnly) {
     try {
-      Query query = session.getNamedQuery("TaskMgmtSession.findPooledTaskInstancesByActorIds");
-      query.setParameterList("actorIds", actorIds);
-      List identifiers = query.list();
-      if (!identifiers.isEmpty()) {
-        result = new ArrayList(identifiers.size());
-        for (Iterator i = identifiers.iterator(); i.hasNext();) {
-          Long taskInstanceId = (Long) i.next();
-          result.add(session.load(TaskInstance.class, taskInstanceId));
-        }
-      }
-      else {
-        result = Collections.EMPTY_LIST;
-      }
+      return taskListQuery.list(session, readOnly);
     } catch (Exception e) {
       log.error(e);
       jbpmSession.handleException();
-      throw new JbpmException("couldn't get pooled task instances list for actors '"+actorIds+"'", e);
+      throw new JbpmException("couldn't get task instances for "+taskListQuery, e);
+    } 
+  }
+
+  /**
+   * streams all personal and pooled task instances of the task list query 
+   * from its current position on, regardless of the page size.  The session
+   * is cleared after every batch of task instances.
+   * @see ScrollableResultIterator
+   */
+  public ScrollableResultIterator scrollTaskInstances(TaskListQuery taskListQuery, int batchSize) {
+    return scrollTaskInstances(taskListQuery, batchSize, taskListQuery.isReadOnly());
+  }
+
+  /**
+   * streams the task instances of the task list query, read-only if 
+   * requested, without changing the read-only setting of the query.
+   */
+  public ScrollableResultIterator scrollTaskInstances(TaskListQuery taskListQuery, int batchSize, boolean readOnly) {
+    try {
+      return taskListQuery.scroll(session, batchSize, readOnly);
+    } catch (Exception e) {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't scroll task instances for "+taskListQuery, e);
+    } 
+  }
+
+  /**
+   * count all task instances that match the task list query, regardless 
+   * of the page.
+   */
+  public long countTaskInstances(TaskListQuery taskListQuery) {
+    try {
+      return taskListQuery.count(session);
+    } catch (Exception e) {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't count task instances for "+taskListQuery, e);
     } 
-    return result;
   }
 
   /**
@@ -228,5 +257,47 @@ public class TaskMgmtSession implements Serializable {
     return result;
   }
 
+  /**
+   * get the task instance for a given task instance-id.  If it is not
+   * found in the runtime tables and includeHistory is set, it is looked
+   * up in the history tables.
+   */
+  public TaskInstance getTaskInstance(long taskInstanceId, boolean includeHistory) {
+    TaskInstance taskInstance = getTaskInstance(taskInstanceId);
+    if ( (taskInstance==null)
+         && (includeHistory)
+         && (jbpmSession.getGraphSession().isHistoryMapped())
+       ) {
+      try {
+        taskInstance = (TaskInstance) session.get(GraphSession.HISTORIC_TASK_INSTANCE, new Long(taskInstanceId));
+      } catch (Exception e) {
+        log.error(e);
+        jbpmSession.handleException();
+        throw new JbpmException("couldn't get historic task instance '"+taskInstanceId+"'", e);
+      }
+    }
+    return taskInstance;
+  }
+
+  /**
+   * get all task instances of an archived process instance.
+   */
+  public List findHistoricTaskInstancesByProcessInstance(long processInstanceId) {
+    if (! jbpmSession.getGraphSession().isHistoryMapped()) {
+      return Collections.EMPTY_LIST;
+    }
+    List result = null;
+    try {
+      Query query = session.getNamedQuery("TaskMgmtSession.findHistoricTaskInstancesByProcessInstance");
+      query.setLong("processInstanceId", processInstanceId);
+      result = query.list();
+    } catch (Exception e) {
+      log.error(e);
+      jbpmSession.handleException();
+      throw new JbpmException("couldn't get historic task instances by process instance '"+processInstanceId+"'", e);
+    }
+    return result;
+  }
+
   private static final Log log = LogFactory.getLog(TaskMgmtSession.class);
 }
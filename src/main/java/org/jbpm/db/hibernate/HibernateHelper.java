@@ -31,8 +31,15 @@ import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Hibernate;
 import org.hibernate.SessionFactory;
+import org.hibernate.collection.PersistentCollection;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.mapping.SimpleValue;
 import org.hibernate.tool.hbm2ddl.SchemaExport;
 import org.jbpm.util.ClassLoaderUtil;
 
@@ -46,6 +53,18 @@ public class HibernateHelper {
    * by default, configuration lookup will be enabled */
   static Map configurations = new HashMap();
 
+  /** hibernate property that selects the identifier generator of jBPM entities */
+  public static final String ID_GENERATOR_PROPERTY = "jbpm.id.generator";
+  /** hibernate property with the number of ids the pooled generator reserves at once */
+  public static final String ID_INCREMENT_SIZE_PROPERTY = "jbpm.id.increment_size";
+  /** hibernate property that selects how process variables are loaded: eager (default) or lazy */
+  public static final String VARIABLE_ACCESS_PROPERTY = "jbpm.variable.access";
+
+  static final String[] VARIABLE_COLLECTION_ROLES = {
+    "org.jbpm.context.exe.ContextInstance.tokenVariableMaps",
+    "org.jbpm.context.exe.TokenVariableMap.variableInstances"
+  };
+
   public static void clearConfigurationsCache() {
     configurations.clear();
   }
@@ -102,9 +121,103 @@ public class HibernateHelper {
       }
     }
 
+    configureIdentifierGenerators(configuration);
+    configureVariableAccess(configuration);
     return configuration;
   }
 
+  /**
+   * replaces the <code>native</code> identifier generators of the jBPM 
+   * entities with a pooled table generator, if the 
+   * <code>jbpm.id.generator</code> property is set to <code>pooled</code>.
+   * 
+   * <p>On databases where <code>native</code> means identity columns, such 
+   * as MySQL, SQL Server and Sybase, hibernate has to execute every insert 
+   * immediately to learn the generated id, which rules out JDBC batching.  
+   * The pooled generator reserves blocks of <code>jbpm.id.increment_size</code>
+   * ids with a single update of the <code>JBPM_ID_GENERATOR</code> table, one
+   * row per entity table, so that inserts can be batched.</p>
+   * 
+   * <p>Only switch an existing database over after setting the next values
+   * of the generator rows above the current maximum ids.</p>
+   */
+  public static void configureIdentifierGenerators(Configuration configuration) {
+    String generator = configuration.getProperty(ID_GENERATOR_PROPERTY);
+    if (!"pooled".equals(generator)) {
+      return;
+    }
+    String incrementSize = configuration.getProperty(ID_INCREMENT_SIZE_PROPERTY);
+    if (incrementSize==null) {
+      incrementSize = "50";
+    }
+    log.debug("using pooled identifier generators with increment size "+incrementSize);
+    Iterator iter = configuration.getClassMappings();
+    while (iter.hasNext()) {
+      PersistentClass persistentClass = (PersistentClass) iter.next();
+      if ( (persistentClass instanceof RootClass)
+           && (persistentClass.getClassName().startsWith("org.jbpm."))
+           && (persistentClass.getIdentifier() instanceof SimpleValue)
+         ) {
+        SimpleValue identifier = (SimpleValue) persistentClass.getIdentifier();
+        if ("native".equals(identifier.getIdentifierGeneratorStrategy())) {
+          Properties parameters = new Properties();
+          if (identifier.getIdentifierGeneratorProperties()!=null) {
+            parameters.putAll(identifier.getIdentifierGeneratorProperties());
+          }
+          parameters.setProperty(TableGenerator.TABLE_PARAM, "JBPM_ID_GENERATOR");
+          parameters.setProperty(TableGenerator.SEGMENT_VALUE_PARAM, persistentClass.getTable().getName());
+          parameters.setProperty(TableGenerator.INCREMENT_PARAM, incrementSize);
+          parameters.setProperty(TableGenerator.OPT_PARAM, "pooled");
+          identifier.setIdentifierGeneratorStrategy(TableGenerator.class.getName());
+          identifier.setIdentifierGeneratorProperties(parameters);
+        }
+      }
+    }
+  }
+  /**
+   * with lazy variable access, the token variable maps and the variable 
+   * instance maps are mapped extra lazy.  looking up a single variable by 
+   * name then fetches only the matching token variable map and variable 
+   * instance, both of which stay in the session cache.  iterating the maps, 
+   * as {@link org.jbpm.context.exe.ContextInstance#getVariables()} does, 
+   * still loads them completely.
+   */
+  public static void configureVariableAccess(Configuration configuration) {
+    String variableAccess = configuration.getProperty(VARIABLE_ACCESS_PROPERTY);
+    if (!"lazy".equals(variableAccess)) {
+      return;
+    }
+    log.debug("using lazy variable access");
+    for (int i=0; i<VARIABLE_COLLECTION_ROLES.length; i++) {
+      Collection collection = configuration.getCollectionMapping(VARIABLE_COLLECTION_ROLES[i]);
+      if (collection!=null) {
+        collection.setLazy(true);
+        collection.setExtraLazy(true);
+      }
+    }
+  }
+  /**
+   * prepares a map for a lookup, put or remove of a single key.  On an 
+   * uninitialized extra lazy map, these operations query the database. 
+   * That fails with a transient entity as key, and it flushes the session
+   * if the map has queued operations.  In both cases the map is initialized
+   * instead, so that the operation is served from memory.
+   * @param isTransientKey tells whether the key is an entity that was not 
+   *   saved yet.
+   */
+  public static void prepareExtraLazyAccess(Map map, boolean isTransientKey) {
+    if ( (map instanceof PersistentCollection)
+         && (! Hibernate.isInitialized(map))
+         && ( isTransientKey
+              || ((PersistentCollection)map).hasQueuedOperations()
+            )
+       ) {
+      Hibernate.initialize(map);
+    }
+  }
+
+
+
   public static Configuration getConfiguration(SessionFactory sessionFactory) {
     return (Configuration) configurations.get(sessionFactory);
   }
@@ -176,7 +176,7 @@ public class FileDefinition extends ModuleDefinition {
     log.trace("loading file '" + name + "' from database");
     ByteArray byteArray = getByteArray(name);
     if (byteArray != null) {
-    	inputStream = new ByteArrayInputStream(byteArray.getBytes());
+    	inputStream = byteArray.getInputStream();
     }
     return inputStream;
   }
@@ -43,6 +43,7 @@ public class Action implements ActionHandler, Parsable, Serializable {
   protected boolean isPropagationAllowed = true;
   protected boolean isAsync = false;
   protected boolean isAsyncExclusive = false;
+  protected int asyncPriority = 0;
   protected Action referencedAction = null;
   protected Delegation actionDelegation  = null;
   protected String actionExpression = null;
@@ -104,6 +105,15 @@ public class Action implements ActionHandler, Parsable, Serializable {
       isAsync = true;
       isAsyncExclusive = true;
     }
+
+    String asyncPriorityText = actionElement.attributeValue("async-priority");
+    if (asyncPriorityText!=null) {
+      try {
+        asyncPriority = Integer.parseInt(asyncPriorityText.trim());
+      } catch (NumberFormatException e) {
+        jpdlReader.addWarning("invalid async-priority '"+asyncPriorityText+"' in "+actionElement.asXML());
+      }
+    }
   }
 
   public void write(Element actionElement) {
@@ -215,4 +225,10 @@ public class Action implements ActionHandler, Parsable, Serializable {
   public void setAsync(boolean isAsync) {
     this.isAsync = isAsync;
   }
+  public int getAsyncPriority() {
+    return asyncPriority;
+  }
+  public void setAsyncPriority(int asyncPriority) {
+    this.asyncPriority = asyncPriority;
+  }
 }
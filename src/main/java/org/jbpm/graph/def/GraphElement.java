@@ -250,6 +250,7 @@ public abstract class GraphElement implements Identifiable, Serializable {
     job.setAction(action);
     job.setDueDate(new Date());
     job.setExclusive(action.isAsyncExclusive());
+    job.setPriority(action.getAsyncPriority());
     return job;
   }
 
@@ -257,8 +258,11 @@ public abstract class GraphElement implements Identifiable, Serializable {
     Token token = executionContext.getToken();
 
     // create action log
-    ActionLog actionLog = new ActionLog(action);
-    token.startCompositeLog(actionLog);
+    ActionLog actionLog = null;
+    if (token.isLogEnabled(ActionLog.class)) {
+      actionLog = new ActionLog(action);
+      token.startCompositeLog(actionLog);
+    }
 
     // if this is an action being executed in an event,
     // the token needs to be locked. if this is an action
@@ -295,13 +299,17 @@ public abstract class GraphElement implements Identifiable, Serializable {
       log.error("action threw exception: " + exception.getMessage(), exception);
 
       // log the action exception
-      actionLog.setException(exception);
+      if (actionLog != null) {
+        actionLog.setException(exception);
+      }
 
       // if an exception handler is available
       raiseException(exception, executionContext);
     } finally {
       executionContext.setAction(null);
-      token.endCompositeLog();
+      if (actionLog != null) {
+        token.endCompositeLog();
+      }
     }
   }
 
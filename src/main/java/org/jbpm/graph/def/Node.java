@@ -58,6 +58,7 @@ public class Node extends GraphElement implements Parsable
   protected SuperState superState = null;
   protected boolean isAsync = false;
   protected boolean isAsyncExclusive = false;
+  protected int asyncPriority = 0;
 
   
   public NodeType getNodeType()
@@ -397,6 +398,7 @@ public class Node extends GraphElement implements Parsable
     job.setNode(this);
     job.setDueDate(new Date());
     job.setExclusive(isAsyncExclusive);
+    job.setPriority(asyncPriority);
     return job;
   }
 
@@ -481,7 +483,10 @@ public class Node extends GraphElement implements Parsable
 
   protected void addNodeLog(Token token)
   {
-    token.addLog(new NodeLog(this, token.getNodeEnter(), Clock.getCurrentTime()));
+    if (token.isLogEnabled(NodeLog.class))
+    {
+      token.addLog(new NodeLog(this, token.getNodeEnter(), Clock.getCurrentTime()));
+    }
   }
 
   // ///////////////////////////////////////////////////////////////////////////
@@ -605,4 +610,14 @@ public class Node extends GraphElement implements Parsable
   {
     this.isAsyncExclusive = isAsyncExclusive;
   }
+
+  public int getAsyncPriority()
+  {
+    return asyncPriority;
+  }
+
+  public void setAsyncPriority(int asyncPriority)
+  {
+    this.asyncPriority = asyncPriority;
+  }
 }
@@ -140,8 +140,12 @@ public class Transition extends GraphElement
     }
 
     // start the transition log
-    TransitionLog transitionLog = new TransitionLog(this, executionContext.getTransitionSource());
-    token.startCompositeLog(transitionLog);
+    TransitionLog transitionLog = null;
+    if (token.isLogEnabled(TransitionLog.class))
+    {
+      transitionLog = new TransitionLog(this, executionContext.getTransitionSource());
+      token.startCompositeLog(transitionLog);
+    }
     try
     {
 
@@ -154,13 +158,19 @@ public class Transition extends GraphElement
       // fire enter events for superstates (if any)
       Node destination = fireSuperStateEnterEvents(executionContext);
       // update the ultimate destinationNode of this transition
-      transitionLog.setDestinationNode(destination);
+      if (transitionLog != null)
+      {
+        transitionLog.setDestinationNode(destination);
+      }
 
     }
     finally
     {
       // end the transition log
-      token.endCompositeLog();
+      if (transitionLog != null)
+      {
+        token.endCompositeLog();
+      }
     }
 
     // pass the token to the destinationNode node
@@ -136,7 +136,10 @@ public class ProcessInstance implements Identifiable, Serializable
     addInitialModuleDefinitions(processDefinition);
 
     // add the creation log
-    rootToken.addLog(new ProcessInstanceCreateLog());
+    if (rootToken.isLogEnabled(ProcessInstanceCreateLog.class))
+    {
+      rootToken.addLog(new ProcessInstanceCreateLog());
+    }
 
     // set the variables
     addInitialContextVariables(variables);
@@ -351,7 +354,10 @@ public class ProcessInstance implements Identifiable, Serializable
       processDefinition.fireEvent(Event.EVENTTYPE_PROCESS_END, executionContext);
 
       // add the process instance end log
-      rootToken.addLog(new ProcessInstanceEndLog());
+      if (rootToken.isLogEnabled(ProcessInstanceEndLog.class))
+      {
+        rootToken.addLog(new ProcessInstanceEndLog());
+      }
 
       // check if this process was started as a subprocess of a super process
       if (superProcessToken != null)
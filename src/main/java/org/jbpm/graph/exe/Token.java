@@ -115,7 +115,10 @@ public class Token implements Identifiable, Serializable
     this.parent = parent;
     parent.addChild(this);
     this.isTerminationImplicit = parent.isTerminationImplicit();
-    parent.addLog(new TokenCreateLog(this));
+    if (parent.isLogEnabled(TokenCreateLog.class))
+    {
+      parent.addLog(new TokenCreateLog(this));
+    }
 
     // assign an id to this token before events get fired
     Services.assignId(this);
@@ -212,7 +215,11 @@ public class Token implements Identifiable, Serializable
       throw new JbpmException("this token is locked by " + lock);
     }
 
-    startCompositeLog(new SignalLog(transition));
+    boolean isSignalLogged = isLogEnabled(SignalLog.class);
+    if (isSignalLogged)
+    {
+      startCompositeLog(new SignalLog(transition));
+    }
     try
     {
       // fire the event before-signal
@@ -231,7 +238,10 @@ public class Token implements Identifiable, Serializable
     }
     finally
     {
-      endCompositeLog();
+      if (isSignalLogged)
+      {
+        endCompositeLog();
+      }
     }
   }
 
@@ -331,7 +341,7 @@ public class Token implements Identifiable, Serializable
       }
 
       // only log the end of child-tokens. the process instance logs replace the root token logs.
-      if (parent != null)
+      if ((parent != null) && (parent.isLogEnabled(TokenEndLog.class)))
       {
         // add a log
         parent.addLog(new TokenEndLog(this));
@@ -419,6 +429,17 @@ public class Token implements Identifiable, Serializable
 
   // log convenience methods //////////////////////////////////////////////////
 
+  /**
+   * tells if logs of the given type must be created for this token. Check this before creating a log, so that
+   * filtered and unsampled logs are never instantiated.
+   * @see org.jbpm.logging.exe.ProcessLogFilter
+   */
+  public boolean isLogEnabled(Class logType)
+  {
+    LoggingInstance li = (LoggingInstance)processInstance.getInstance(LoggingInstance.class);
+    return (li != null) && (li.isLogEnabled(logType));
+  }
+
   /**
    * convenience method for adding a process log.
    */
@@ -218,7 +218,9 @@ public class ProcessState extends Node implements Parsable {
     
     // We replaced the normal log generation of super.leave() by creating the log here
     // and overriding the addNodeLog method with an empty version 
-    superProcessToken.addLog(new ProcessStateLog(this, superProcessToken.getNodeEnter(), Clock.getCurrentTime(), subProcessInstance));
+    if (superProcessToken.isLogEnabled(ProcessStateLog.class)) {
+      superProcessToken.addLog(new ProcessStateLog(this, superProcessToken.getNodeEnter(), Clock.getCurrentTime(), subProcessInstance));
+    }
 
     // call the subProcessEndAction
     super.leave(executionContext, getDefaultLeavingTransition());
@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.job;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * entry of the dead-letter store, recording a job that ran out of retries.
+ * 
+ * <p>The job itself stays in the job table, because its subclasses refer to
+ * actions, nodes and other graph elements.  Its due date is cleared so that
+ * it falls outside the due date ranges scanned by job acquisition.  The 
+ * original due date is kept here.  Replaying a dead letter gives the job new
+ * retries, makes it due and removes the dead letter.</p>
+ * 
+ * <p>Dead letters refer to jobs and process instances by id only, so that
+ * the jobs of a process instance can be deleted in bulk.</p>
+ * 
+ * @see org.jbpm.db.JobSession#deadLetterJob(Job)
+ */
+public class DeadLetter implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  long id;
+  long jobId;
+  Long processInstanceId;
+  String jobType;
+  Date dueDate;
+  Date deadDate;
+  int failures;
+
+  public DeadLetter() {
+  }
+
+  public DeadLetter(long jobId, Long processInstanceId, String jobType, Date dueDate, int failures) {
+    this.jobId = jobId;
+    this.processInstanceId = processInstanceId;
+    this.jobType = jobType;
+    this.dueDate = dueDate;
+    this.deadDate = new Date();
+    this.failures = failures;
+  }
+
+  public String toString() {
+    return "deadLetter["+id+"|job="+jobId+"]";
+  }
+
+  public long getId() {
+    return id;
+  }
+  public long getJobId() {
+    return jobId;
+  }
+  public Long getProcessInstanceId() {
+    return processInstanceId;
+  }
+  public String getJobType() {
+    return jobType;
+  }
+  public Date getDueDate() {
+    return dueDate;
+  }
+  public Date getDeadDate() {
+    return deadDate;
+  }
+  public int getFailures() {
+    return failures;
+  }
+}
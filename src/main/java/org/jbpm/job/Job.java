@@ -44,6 +44,18 @@ public abstract class Job implements Serializable {
 
   String exception;
   int retries = 1;
+
+  /**
+   * number of consecutive failed executions, which determines how far the 
+   * next retry is pushed back.
+   */
+  int failures = 0;
+
+  /**
+   * jobs with a higher priority are acquired before jobs with a lower 
+   * priority, regardless of their due dates.
+   */
+  int priority = 0;
   
   String configuration;
  
@@ -71,6 +83,8 @@ public abstract class Job implements Serializable {
        + ", lockTime="+lockTime
        + ", exception="+exception
        + ", retries="+retries
+       + ", failures="+failures
+       + ", priority="+priority
        + ", configuration="+configuration;
   }
 
@@ -125,6 +139,18 @@ public abstract class Job implements Serializable {
   public void setRetries(int retries) {
     this.retries = retries;
   }
+  public int getFailures() {
+    return failures;
+  }
+  public void setFailures(int failures) {
+    this.failures = failures;
+  }
+  public int getPriority() {
+    return priority;
+  }
+  public void setPriority(int priority) {
+    this.priority = priority;
+  }
   public TaskInstance getTaskInstance() {
     return taskInstance;
   }
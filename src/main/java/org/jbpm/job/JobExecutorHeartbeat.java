@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.job;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * last sign of life of a job executor.  It is keyed by the prefix that the
+ * job executor gives to all its lock owners, so that the locks of a job
+ * executor whose heartbeat stopped can be released at once.
+ */
+public class JobExecutorHeartbeat implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  String lockOwnerPrefix;
+  Date lastBeat;
+
+  public JobExecutorHeartbeat() {
+  }
+
+  public JobExecutorHeartbeat(String lockOwnerPrefix, Date lastBeat) {
+    this.lockOwnerPrefix = lockOwnerPrefix;
+    this.lastBeat = lastBeat;
+  }
+
+  public String toString() {
+    return "heartbeat["+lockOwnerPrefix+"|"+lastBeat+"]";
+  }
+
+  public String getLockOwnerPrefix() {
+    return lockOwnerPrefix;
+  }
+  public Date getLastBeat() {
+    return lastBeat;
+  }
+}
@@ -0,0 +1,100 @@
+package org.jbpm.job.executor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.JbpmContext;
+import org.jbpm.db.JobSession;
+import org.jbpm.persistence.JbpmPersistenceException;
+import org.jbpm.svc.Services;
+
+/**
+ * locks up to {@link JobExecutor#getJobAcquisitionBatchSize() batch size}
+ * jobs in a single transaction, without holding the job executor monitor.
+ * The candidate jobs are claimed with conditional bulk updates, so concurrent
+ * threads end up with disjoint sets of jobs and a lost race does not cost 
+ * a failed transaction.
+ */
+public class BatchJobAcquisitionStrategy implements JobAcquisitionStrategy {
+
+  private static final long serialVersionUID = 1L;
+
+  public Collection acquireJobs(JobExecutor jobExecutor, String lockOwner) {
+    int batchSize = Math.max(jobExecutor.getJobAcquisitionBatchSize(), 1);
+    Collection acquiredJobs = Collections.EMPTY_LIST;
+    JbpmContext jbpmContext = jobExecutor.getJbpmConfiguration().createJbpmContext();
+    try {
+      JobSession jobSession = jbpmContext.getJobSession();
+      log.debug("querying for at most "+batchSize+" acquirable jobs...");
+      List candidates = findCandidates(jobSession, lockOwner, batchSize);
+      if (! candidates.isEmpty()) {
+        List jobIds = new ArrayList();
+        Set exclusiveProcessInstanceIds = new HashSet();
+        for (Iterator iter = candidates.iterator(); iter.hasNext();) {
+          Object[] candidate = (Object[]) iter.next();
+          Boolean isExclusive = (Boolean) candidate[1];
+          Long processInstanceId = (Long) candidate[2];
+          if (Boolean.TRUE.equals(isExclusive) && processInstanceId!=null) {
+            // exclusive jobs are locked together with the other exclusive 
+            // jobs of their process instance
+            exclusiveProcessInstanceIds.add(processInstanceId);
+          } else {
+            jobIds.add(candidate[0]);
+          }
+        }
+
+        Date lockTime = new Date();
+        int lockCount = 0;
+        if (! jobIds.isEmpty()) {
+          log.debug("trying to obtain locks on jobs "+jobIds);
+          lockCount += jobSession.lockJobs(jobIds, lockOwner, lockTime);
+        }
+        if (! exclusiveProcessInstanceIds.isEmpty()) {
+          log.debug("trying to obtain exclusive locks for process instances "+exclusiveProcessInstanceIds);
+          lockCount += jobSession.lockExclusiveJobs(exclusiveProcessInstanceIds, lockOwner, lockTime);
+        }
+
+        if (lockCount>0) {
+          acquiredJobs = jobSession.findJobsLockedBy(lockOwner);
+        }
+      } else {
+        log.debug("no acquirable jobs in job table");
+      }
+    } finally {
+      try {
+        jbpmContext.close();
+        log.debug("obtained lock on jobs: "+acquiredJobs);
+      }
+      catch (JbpmPersistenceException e) {
+        // if this is a stale object exception, keep it quiet
+        if (Services.isCausedByStaleState(e)) {
+          log.debug("optimistic locking failed, couldn't obtain lock on jobs "+acquiredJobs);
+          acquiredJobs = Collections.EMPTY_LIST;
+          jobExecutor.getLiveStatistics().acquisitionFailedOnStaleState();
+        } else {
+          throw e;
+        }
+      }
+    }
+    return acquiredJobs;
+  }
+
+  /**
+   * finds the jobs to claim.
+   * @return a list of <code>Object[]</code> rows holding the job id, the
+   * exclusive flag and the process instance id, in that order.
+   */
+  protected List findCandidates(JobSession jobSession, String lockOwner, int batchSize) {
+    return jobSession.findAcquirableJobIds(lockOwner, batchSize);
+  }
+
+  private static Log log = LogFactory.getLog(BatchJobAcquisitionStrategy.class);
+}
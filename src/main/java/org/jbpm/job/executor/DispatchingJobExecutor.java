@@ -0,0 +1,389 @@
+package org.jbpm.job.executor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.job.Job;
+
+/**
+ * job executor that separates job acquisition from job execution.  A single
+ * {@link JobDispatcherThread dispatcher thread} acquires jobs and puts them
+ * in a bounded queue, which is drained by a pool of 
+ * {@link #getNbrOfThreads() nbrOfThreads} worker threads.  The database only 
+ * sees the polling queries of the dispatcher, regardless of the number of 
+ * workers.
+ * 
+ * <p>The dispatcher only acquires jobs when the queue has room for a full
+ * {@link #getJobAcquisitionBatchSize() acquisition batch}, so it never 
+ * locks more jobs than the workers can take on.  Configure it in the 
+ * <code>jbpm.cfg.xml</code> like this:</p>
+ * 
+ * <pre>
+ * &lt;bean name="jbpm.job.executor" class="org.jbpm.job.executor.DispatchingJobExecutor">
+ *   ...
+ *   &lt;field name="nbrOfThreads">&lt;int value="200" />&lt;/field>
+ *   &lt;field name="queueSize">&lt;int value="400" />&lt;/field>
+ *   &lt;field name="jobAcquisitionBatchSize">&lt;int value="50" />&lt;/field>
+ * &lt;/bean>
+ * </pre>
+ */
+public class DispatchingJobExecutor extends JobExecutor {
+
+  private static final long serialVersionUID = 1L;
+
+  /** maximum number of jobs waiting for a free worker */
+  protected int queueSize = 100;
+  /**
+   * if <code>true</code>, every worker gets a lane of its own and the jobs
+   * of a process instance always go to the same lane, chosen by a hash of 
+   * the process instance id.  Jobs of one process instance then execute one
+   * after the other, which avoids optimistic locking failures on the tokens 
+   * and the process instance.  Jobs of different process instances still 
+   * execute in parallel.
+   */
+  protected boolean processInstanceAffinity = false;
+  /**
+   * maps job class names to the number of threads in a pool of their own.
+   * Jobs of these classes, or of subclasses, do not compete with other jobs
+   * for workers.  With {@link #processInstanceAffinity}, jobs of a process
+   * instance always run in the lane of the process instance, so the class
+   * pools only take jobs without process instance.  For example, the 
+   * following keeps a burst of async continuations from delaying timers:
+   * <pre>
+   * &lt;field name="jobClassPoolSizes">
+   *   &lt;map>
+   *     &lt;entry>&lt;key>&lt;string value="org.jbpm.job.Timer" />&lt;/key>&lt;value>&lt;int value="4" />&lt;/value>&lt;/entry>
+   *   &lt;/map>
+   * &lt;/field>
+   * </pre>
+   */
+  protected Map jobClassPoolSizes = null;
+
+  protected transient ExecutorService workerPool;
+  protected transient ExecutorService[] workerLanes;
+  /** round robin counter for jobs without process instance */
+  protected transient AtomicInteger nextLaneIndex;
+  /** maps job class names to their worker pools */
+  protected transient Map jobClassPools;
+  protected transient ThreadFactory workerThreadFactory;
+  protected transient Object queueMonitor;
+  /** number of dispatched jobs that did not finish yet, guarded by the queue monitor */
+  protected transient int pendingTaskCount;
+
+  public synchronized void start() {
+    if (! isStarted) {
+      log.debug("starting dispatcher and "+nbrOfThreads+" workers of '"+name+"'...");
+      startStatistics();
+      queueMonitor = new Object();
+      pendingTaskCount = 0;
+      workerThreadFactory = new WorkerThreadFactory();
+      if (processInstanceAffinity) {
+        nextLaneIndex = new AtomicInteger();
+        workerLanes = createWorkerLanes();
+      } else {
+        workerPool = createWorkerPool();
+      }
+      jobClassPools = createJobClassPools();
+      if ( processInstanceAffinity
+           && (! jobClassPools.isEmpty())
+         ) {
+        log.warn("process instance affinity is enabled in '"+name+"': job class pools only run jobs without process instance");
+      }
+      startThread();
+      startLockMonitor();
+      startTimerWheel();
+      isStarted = true;
+    } else {
+      log.debug("ignoring start: thread group '"+name+"' is already started'");
+    }
+  }
+
+  /**
+   * signals the dispatcher to stop and shuts down the worker pool.  Jobs 
+   * that are executing will finish.  Jobs that are still in the queue are
+   * not executed; they remain locked until the lock monitor releases them.
+   * @return a list containing the dispatcher thread, or an empty list 
+   *   in case the job executor was not started.
+   */
+  public synchronized List stop() {
+    List stoppedThreads = new ArrayList(threads.size());
+    if (isStarted) {
+      log.debug("stopping dispatcher and workers of '"+name+"'...");
+      stoppedThreads.add(stopThread());
+      List queuedJobs = new ArrayList();
+      for (Iterator iter = getWorkerPools().iterator(); iter.hasNext();) {
+        ExecutorService pool = (ExecutorService) iter.next();
+        if (pool instanceof ThreadPoolExecutor) {
+          ((ThreadPoolExecutor)pool).getQueue().drainTo(queuedJobs);
+        }
+        pool.shutdown();
+      }
+      if (! queuedJobs.isEmpty()) {
+        log.info("discarding "+queuedJobs.size()+" dispatched jobs, their locks will be released by the lock monitor");
+      }
+      stopLockMonitor();
+      stopTimerWheel();
+      stopStatistics();
+      isStarted = false;
+    } else {
+      log.debug("ignoring stop: thread group '"+name+"' not started");
+    }
+    return stoppedThreads;
+  }
+
+  public void stopAndJoin() throws InterruptedException {
+    super.stopAndJoin();
+    for (Iterator iter = getWorkerPools().iterator(); iter.hasNext();) {
+      ExecutorService pool = (ExecutorService) iter.next();
+      while (! pool.awaitTermination(idleInterval, TimeUnit.MILLISECONDS)) {
+        log.debug("waiting for workers of '"+name+"' to finish...");
+      }
+    }
+  }
+
+  /**
+   * all executor services that run jobs for this job executor.
+   */
+  protected List getWorkerPools() {
+    List workerPools = new ArrayList();
+    if (workerPool!=null) {
+      workerPools.add(workerPool);
+    }
+    if (workerLanes!=null) {
+      workerPools.addAll(Arrays.asList(workerLanes));
+    }
+    if (jobClassPools!=null) {
+      workerPools.addAll(jobClassPools.values());
+    }
+    return workerPools;
+  }
+
+  protected Thread createThread(String threadName) {
+    return new JobDispatcherThread(threadName, this, jbpmConfiguration, idleInterval, maxIdleInterval, maxLockTime, historyMaxSize);
+  }
+
+  protected ExecutorService createWorkerPool() {
+    return createThreadPool(nbrOfThreads);
+  }
+
+  /**
+   * creates one single threaded lane per worker, for process instance 
+   * affinity.
+   */
+  protected ExecutorService[] createWorkerLanes() {
+    ExecutorService[] lanes = new ExecutorService[Math.max(nbrOfThreads, 1)];
+    for (int i=0; i<lanes.length; i++) {
+      lanes[i] = createThreadPool(1);
+    }
+    return lanes;
+  }
+
+  /**
+   * creates the worker pools dedicated to job classes.
+   * @see #jobClassPoolSizes
+   */
+  protected Map createJobClassPools() {
+    Map pools = new HashMap();
+    if (jobClassPoolSizes!=null) {
+      for (Iterator iter = jobClassPoolSizes.entrySet().iterator(); iter.hasNext();) {
+        Map.Entry entry = (Map.Entry) iter.next();
+        String jobClassName = (String) entry.getKey();
+        int poolSize = ((Number) entry.getValue()).intValue();
+        log.debug("starting "+poolSize+" workers dedicated to "+jobClassName);
+        pools.put(jobClassName, createThreadPool(Math.max(poolSize, 1)));
+      }
+    }
+    return pools;
+  }
+
+  /**
+   * creates a fixed pool of platform worker threads, fed by a queue of 
+   * {@link #getQueueSize() queueSize} entries.
+   */
+  protected ExecutorService createThreadPool(int poolSize) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+        poolSize, 
+        poolSize, 
+        0L, TimeUnit.MILLISECONDS, 
+        new ArrayBlockingQueue(Math.max(queueSize, 1)),
+        workerThreadFactory,
+        new BlockingSubmitPolicy());
+    pool.prestartAllCoreThreads();
+    return pool;
+  }
+
+  /**
+   * the maximum number of dispatched jobs that did not finish yet: one per
+   * worker plus the queue size.
+   */
+  protected int getDispatchCapacity() {
+    int workerCount = Math.max(nbrOfThreads, 1);
+    if (jobClassPoolSizes!=null) {
+      for (Iterator iter = jobClassPoolSizes.values().iterator(); iter.hasNext();) {
+        workerCount += Math.max(((Number) iter.next()).intValue(), 1);
+      }
+    }
+    return workerCount + Math.max(queueSize, 0);
+  }
+
+  protected void dispatch(Runnable task) {
+    dispatch(task, null);
+  }
+
+  /**
+   * hands work over to the worker pool.  In case the queue is full, this 
+   * method blocks until a worker takes on the next queued task.
+   * @param job the job that is executed by the task or the first of them,
+   *   used for routing the task.  May be <code>null</code>.
+   */
+  protected void dispatch(final Runnable task, Job job) {
+    ExecutorService pool = selectWorkerPool(job);
+    synchronized (queueMonitor) {
+      pendingTaskCount++;
+    }
+    try {
+      pool.execute(new Runnable() {
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            taskFinished();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      log.warn("worker pool of '"+name+"' refused dispatched jobs, their locks will be released by the lock monitor", e);
+      taskFinished();
+    }
+  }
+
+  /**
+   * selects the executor service that runs the given job.
+   */
+  protected ExecutorService selectWorkerPool(Job job) {
+    // with process instance affinity, the lane of the process instance 
+    // takes precedence over job class pools.  otherwise a timer and an 
+    // async continuation of the same process instance could run concurrently
+    if ( (workerLanes!=null)
+         && (job!=null)
+       ) {
+      Long processInstanceId = JobDispatcherThread.getProcessInstanceId(job);
+      if (processInstanceId!=null) {
+        return workerLanes[getLaneIndex(processInstanceId.longValue(), workerLanes.length)];
+      }
+    }
+    if ( (job!=null)
+         && (jobClassPools!=null)
+         && (! jobClassPools.isEmpty())
+       ) {
+      for (Class jobClass = job.getClass(); jobClass!=null; jobClass = jobClass.getSuperclass()) {
+        ExecutorService jobClassPool = (ExecutorService) jobClassPools.get(jobClass.getName());
+        if (jobClassPool!=null) {
+          return jobClassPool;
+        }
+      }
+    }
+    if (workerLanes!=null) {
+      // jobs without process instance are spread over the lanes
+      int laneIndex = (nextLaneIndex.getAndIncrement() & 0x7fffffff) % workerLanes.length;
+      return workerLanes[laneIndex];
+    }
+    return workerPool;
+  }
+
+  /**
+   * stable mapping of a process instance id to a lane.  The id is scrambled
+   * first, so that sequentially generated ids spread evenly.
+   */
+  static int getLaneIndex(long processInstanceId, int laneCount) {
+    long hash = processInstanceId * 0x9E3779B97F4A7C15L;
+    hash ^= (hash >>> 32);
+    return (int) ((hash & 0x7fffffffL) % laneCount);
+  }
+
+  void taskFinished() {
+    synchronized (queueMonitor) {
+      pendingTaskCount--;
+      queueMonitor.notifyAll();
+    }
+  }
+
+  /**
+   * blocks until the queue has room for a full acquisition batch.
+   */
+  void awaitQueueCapacity() throws InterruptedException {
+    int dispatchCapacity = getDispatchCapacity();
+    int requiredCapacity = Math.min(Math.max(jobAcquisitionBatchSize, 1), dispatchCapacity);
+    synchronized (queueMonitor) {
+      while (dispatchCapacity-pendingTaskCount<requiredCapacity) {
+        queueMonitor.wait(idleInterval);
+      }
+    }
+  }
+
+  class WorkerThreadFactory implements ThreadFactory {
+    int workerCount = 0;
+    public synchronized Thread newThread(Runnable runnable) {
+      Thread worker = new Thread(runnable, name+":worker:"+(++workerCount));
+      worker.setDaemon(false);
+      return worker;
+    }
+  }
+
+  /**
+   * makes the submitting thread wait for queue capacity instead of 
+   * rejecting the task, which gives the dispatcher backpressure.
+   */
+  static class BlockingSubmitPolicy implements RejectedExecutionHandler {
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("worker pool is shut down");
+      }
+      try {
+        executor.getQueue().put(task);
+      } catch (InterruptedException e) {
+        throw new RejectedExecutionException(e);
+      }
+    }
+  }
+
+  public boolean isProcessInstanceAffinity() {
+    return processInstanceAffinity;
+  }
+
+  public void setProcessInstanceAffinity(boolean processInstanceAffinity) {
+    this.processInstanceAffinity = processInstanceAffinity;
+  }
+
+  public Map getJobClassPoolSizes() {
+    return jobClassPoolSizes;
+  }
+
+  public void setJobClassPoolSizes(Map jobClassPoolSizes) {
+    this.jobClassPoolSizes = jobClassPoolSizes;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  private static Log log = LogFactory.getLog(DispatchingJobExecutor.class);
+}
@@ -0,0 +1,84 @@
+package org.jbpm.job.executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.persistence.JbpmPersistenceException;
+import org.jbpm.svc.Services;
+
+/**
+ * records the heartbeat of a job executor at a fixed interval.  The 
+ * heartbeat runs on a thread of its own, so that long running unlock work 
+ * of the {@link LockMonitorThread lock monitor} never delays it.  A live 
+ * job executor that misses its heartbeat would be taken for dead and its 
+ * jobs would be unlocked while they are still executing.
+ */
+public class HeartbeatThread extends Thread {
+
+  JbpmConfiguration jbpmConfiguration;
+  String lockOwnerPrefix;
+  int heartbeatInterval;
+
+  volatile boolean isActive = true;
+
+  public HeartbeatThread(JobExecutor jobExecutor) {
+    setName(jobExecutor.getName()+":heartbeat");
+    setDaemon(true);
+    this.jbpmConfiguration = jobExecutor.getJbpmConfiguration();
+    this.lockOwnerPrefix = jobExecutor.getLockOwnerPrefix();
+    this.heartbeatInterval = jobExecutor.getHeartbeatInterval();
+  }
+
+  public void run() {
+    try {
+      while (isActive) {
+        try {
+          recordHeartbeat();
+        } catch (Exception e) {
+          log.error("exception in heartbeat thread. retrying in "+heartbeatInterval+" milliseconds", e);
+        }
+        try {
+          if (isActive) {
+            sleep(heartbeatInterval);
+          }
+        } catch (InterruptedException e) {
+          log.info("heartbeat thread '"+getName()+"' got interrupted");
+        }
+      }
+    } finally {
+      log.info(getName()+" leaves cyberspace");
+    }
+  }
+
+  protected void recordHeartbeat() {
+    JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
+    try {
+      jbpmContext.getJobSession().recordHeartbeat(lockOwnerPrefix);
+    } finally {
+      try {
+        jbpmContext.close();
+      } catch (JbpmPersistenceException e) {
+        // if this is a stale object exception, keep it quiet
+        if (Services.isCausedByStaleState(e)) {
+          log.debug("optimistic locking failed, couldn't record heartbeat");
+        } else {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Indicates that this thread should stop running.
+   * Execution will cease shortly afterwards.
+   */
+  public void deactivate() {
+    if (isActive) {
+      isActive = false;
+      interrupt();
+    }
+  }
+
+  private static Log log = LogFactory.getLog(HeartbeatThread.class);
+}
@@ -0,0 +1,113 @@
+package org.jbpm.job.executor;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free histogram of non-negative values, such as latencies in
+ * milliseconds.  Values are counted in buckets with power of two bounds,
+ * so percentiles are accurate within a factor of two.
+ */
+public class Histogram implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** bucket 0 counts zeros, bucket i counts the values with a bit length of i */
+  static final int BUCKET_COUNT = 64;
+
+  final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  final AtomicLong count = new AtomicLong();
+  final AtomicLong sum = new AtomicLong();
+  final AtomicLong max = new AtomicLong();
+
+  public Histogram() {
+  }
+
+  /**
+   * copies the given histogram.  The copy is consistent as long as no 
+   * values are recorded concurrently.
+   */
+  public Histogram(Histogram histogram) {
+    copy(histogram);
+  }
+
+  void copy(Histogram histogram) {
+    for (int i=0; i<BUCKET_COUNT; i++) {
+      buckets.set(i, histogram.buckets.get(i));
+    }
+    count.set(histogram.count.get());
+    sum.set(histogram.sum.get());
+    max.set(histogram.max.get());
+  }
+
+  public void record(long value) {
+    if (value<0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(64-Long.numberOfLeadingZeros(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax = max.get();
+    while (value>currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return (n>0 ? (double) sum.get() / n : 0);
+  }
+
+  /**
+   * the upper bound of the bucket that holds the given percentile.
+   * @param percentile a number between 0 and 100.
+   */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n==0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100);
+    long seen = 0;
+    for (int i=0; i<BUCKET_COUNT; i++) {
+      seen += buckets.get(i);
+      if (seen>=rank) {
+        // the largest value with i bits
+        long upperBound = (i==0 ? 0 : (1L<<(i-1))*2-1);
+        return Math.min(upperBound, max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public void reset() {
+    for (int i=0; i<BUCKET_COUNT; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  public String toString() {
+    return "count="+getCount()
+       + ", mean="+Math.round(getMean())
+       + ", p50="+getPercentile(50)
+       + ", p95="+getPercentile(95)
+       + ", p99="+getPercentile(99)
+       + ", max="+getMax();
+  }
+}
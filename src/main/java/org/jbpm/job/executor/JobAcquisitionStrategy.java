@@ -0,0 +1,25 @@
+package org.jbpm.job.executor;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * determines how job executor threads lock jobs for execution.
+ * A strategy is configured on the {@link JobExecutor} with the 
+ * <code>jobAcquisitionStrategy</code> field.  When none is configured, the 
+ * job executor picks one based on its job acquisition batch size.
+ * 
+ * @see OptimisticJobAcquisitionStrategy
+ * @see BatchJobAcquisitionStrategy
+ * @see RowLockJobAcquisitionStrategy
+ */
+public interface JobAcquisitionStrategy extends Serializable {
+
+  /**
+   * locks jobs on behalf of the given owner in a transaction of its own.
+   * @return the locked jobs, or an empty collection in case no jobs could
+   *   be locked.  The jobs are detached: the caller must reload them in the
+   *   transaction that executes them.
+   */
+  Collection acquireJobs(JobExecutor jobExecutor, String lockOwner);
+}
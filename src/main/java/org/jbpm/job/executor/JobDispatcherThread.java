@@ -0,0 +1,115 @@
+package org.jbpm.job.executor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.proxy.HibernateProxy;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.job.Job;
+
+/**
+ * acquisition thread of a {@link DispatchingJobExecutor}.  Instead of 
+ * executing the jobs it acquires, this thread hands them to the worker pool 
+ * of its job executor.  It only acquires jobs when the dispatch queue has 
+ * room for them.
+ * 
+ * <p>Jobs stay locked while they wait in the queue and while they execute.
+ * To prevent acquiring its own in-flight jobs again, every acquisition uses
+ * a distinct lock owner derived from the thread name.  For the same reason,
+ * the workers unlock jobs that remain after execution, such as failed jobs 
+ * and repeating timers.</p>
+ */
+public class JobDispatcherThread extends JobExecutorThread {
+
+  final DispatchingJobExecutor dispatchingJobExecutor;
+  long acquisitionCount;
+
+  public JobDispatcherThread( String name,
+                              DispatchingJobExecutor jobExecutor,
+                              JbpmConfiguration jbpmConfiguration,
+                              int idleInterval,
+                              int maxIdleInterval,
+                              long maxLockTime,
+                              int maxHistory
+                            ) {
+    super(name, jobExecutor, jbpmConfiguration, idleInterval, maxIdleInterval, maxLockTime, maxHistory);
+    this.dispatchingJobExecutor = jobExecutor;
+  }
+
+  protected Collection acquireJobs() {
+    try {
+      dispatchingJobExecutor.awaitQueueCapacity();
+    } catch (InterruptedException e) {
+      log.debug("waiting for queue capacity got interrupted");
+      return Collections.EMPTY_LIST;
+    }
+    String lockOwner = getName() + ":" + (++acquisitionCount);
+    return acquireJobs(lockOwner);
+  }
+
+  /**
+   * hands the acquired jobs over to the worker pool.  Exclusive jobs of the 
+   * same process instance are dispatched as a single unit, so that they keep
+   * executing one after the other.
+   */
+  protected void executeJobs(Collection acquiredJobs) {
+    Map exclusiveJobsByProcessInstance = new LinkedHashMap();
+    for (Iterator iter = acquiredJobs.iterator(); iter.hasNext();) {
+      Job job = (Job) iter.next();
+      Long processInstanceId = getProcessInstanceId(job);
+      if (job.isExclusive() && processInstanceId!=null) {
+        List exclusiveJobs = (List) exclusiveJobsByProcessInstance.get(processInstanceId);
+        if (exclusiveJobs==null) {
+          exclusiveJobs = new ArrayList();
+          exclusiveJobsByProcessInstance.put(processInstanceId, exclusiveJobs);
+        }
+        exclusiveJobs.add(job);
+      } else {
+        dispatch(Collections.singletonList(job));
+      }
+    }
+    for (Iterator iter = exclusiveJobsByProcessInstance.values().iterator(); iter.hasNext();) {
+      dispatch((List) iter.next());
+    }
+  }
+
+  protected void dispatch(final List jobs) {
+    log.debug("dispatching "+jobs);
+    dispatchingJobExecutor.dispatch(new Runnable() {
+      public void run() {
+        try {
+          for (Iterator iter = jobs.iterator(); iter.hasNext();) {
+            executeJob((Job) iter.next(), true);
+          }
+        } catch (RuntimeException e) {
+          log.error("exception in job executor worker while executing "+jobs, e);
+        }
+      }
+    }, (Job) jobs.get(0));
+  }
+
+  /**
+   * the id of the process instance of a detached job, obtained without 
+   * initializing the process instance proxy.
+   */
+  static Long getProcessInstanceId(Job job) {
+    ProcessInstance processInstance = job.getProcessInstance();
+    if (processInstance==null) {
+      return null;
+    }
+    if (processInstance instanceof HibernateProxy) {
+      return (Long) ((HibernateProxy)processInstance).getHibernateLazyInitializer().getIdentifier();
+    }
+    return new Long(processInstance.getId());
+  }
+
+  private static Log log = LogFactory.getLog(JobDispatcherThread.class);
+}
@@ -1,20 +1,26 @@
 package org.jbpm.job.executor;
 
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
+import javax.management.ObjectName;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jbpm.JbpmConfiguration;
+import org.jbpm.job.Job;
 
 public class JobExecutor implements Serializable {
 
@@ -26,26 +32,90 @@ public class JobExecutor implements Serializable {
   protected int idleInterval;
   protected int maxIdleInterval;
   protected int historyMaxSize;
+  /**
+   * maximum number of jobs a thread locks per acquisition.  With the 
+   * default value of 1, threads acquire one job at a time while holding 
+   * the job executor monitor.  Larger values make threads claim batches 
+   * of jobs with bulk updates and without the monitor. 
+   */
+  protected int jobAcquisitionBatchSize = 1;
+  protected volatile JobAcquisitionStrategy jobAcquisitionStrategy;
+
+  /**
+   * delay in milliseconds before the first retry of a failed job.  Every 
+   * following retry is delayed <code>retryIntervalMultiplier</code> times 
+   * longer, up to <code>maxRetryInterval</code>.  A value of 0 makes failed 
+   * jobs due again immediately. 
+   */
+  protected int retryInterval = 0;
+  protected double retryIntervalMultiplier = 2.0;
+  protected int maxRetryInterval = 3600000;
+  /**
+   * fraction by which retry delays are randomly stretched or shortened, so
+   * that jobs that failed together do not retry together. 
+   */
+  protected double retryJitter = 0.0;
 
   protected int maxLockTime;
   protected int lockMonitorInterval;
   protected int lockBufferTime;
+  /** maximum number of overdue locks the lock monitor releases per transaction */
+  protected int lockMonitorChunkSize = 1000;
+  /**
+   * interval in milliseconds at which a {@link HeartbeatThread} records that
+   * this job executor is alive.  The locks of job executors whose heartbeat stopped 
+   * for <code>heartbeatTimeout</code> milliseconds are released without 
+   * waiting for the maximum lock time.  A value of 0 disables heartbeats. 
+   */
+  protected int heartbeatInterval = 0;
+  /** 
+   * time in milliseconds without heartbeat after which a job executor is 
+   * considered dead.  A value of 0 means three heartbeat intervals.
+   */
+  protected int heartbeatTimeout = 0;
+
+  /**
+   * time window in milliseconds for which the due dates of jobs are kept in
+   * a {@link TimerWheel}.  Threads are then woken up when jobs become due, 
+   * instead of each thread querying for the next due date.  A value of 0 
+   * disables the timer wheel. 
+   */
+  protected int timerLookAhead = 0;
+  /** resolution of the timer wheel in milliseconds */
+  protected int timerWheelTickDuration = 100;
+
+  /** registers the statistics of this job executor in the platform MBean server */
+  protected boolean registerMBean = false;
+  protected transient volatile JobExecutorStatistics statistics;
+  protected transient ObjectName mbeanName;
 
   protected Map threads = new HashMap();
   protected LockMonitorThread lockMonitorThread;
+  protected HeartbeatThread heartbeatThread;
+  protected TimerWheelThread timerWheelThread;
   protected Map monitoredJobIds = Collections.synchronizedMap(new HashMap());
 
   protected boolean isStarted = false;
+  /** 
+   * idle threads wait on this monitor to be woken up for new or due jobs.
+   * It is separate from the job executor monitor, which acquisition
+   * strategies may hold for a whole acquisition transaction. 
+   */
+  protected final Object wakeUpMonitor = new WakeUpMonitor();
 
   protected static String hostName;
+  /** distinguishes the lock owners of job executors with the same name on the same host */
+  protected static String processId;
 
   public synchronized void start() {
     if (! isStarted) {
       log.debug("starting thread group '"+name+"'...");
+      startStatistics();
       for (int i=0; i<nbrOfThreads; i++) {
         startThread();
       }
-      lockMonitorThread = new LockMonitorThread(jbpmConfiguration, lockMonitorInterval, maxLockTime, lockBufferTime);
+      startLockMonitor();
+      startTimerWheel();
       isStarted = true;
     } else {
       log.debug("ignoring start: thread group '"+name+"' is already started'");
@@ -67,7 +137,9 @@ public class JobExecutor implements Serializable {
       for (int i=0; i<nbrOfThreads; i++) {
         stoppedThreads.add(stopThread());
       }
-      lockMonitorThread.deactivate();
+      stopLockMonitor();
+      stopTimerWheel();
+      stopStatistics();
       isStarted = false;
     } else {
       log.debug("ignoring stop: thread group '"+name+"' not started");
@@ -81,7 +153,178 @@ public class JobExecutor implements Serializable {
       Thread thread = (Thread) iter.next();
       thread.join();
     }
-    lockMonitorThread.join();
+    if (lockMonitorThread!=null) {
+      lockMonitorThread.join();
+    }
+    if (heartbeatThread!=null) {
+      heartbeatThread.join();
+    }
+    if (timerWheelThread!=null) {
+      timerWheelThread.join();
+    }
+  }
+
+  protected void startStatistics() {
+    JobExecutorStatistics liveStatistics = getLiveStatistics();
+    if (registerMBean) {
+      try {
+        mbeanName = new ObjectName("org.jbpm:type=JobExecutor,name="+ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(liveStatistics, mbeanName);
+        log.debug("registered statistics of '"+name+"' as "+mbeanName);
+      } catch (Exception e) {
+        log.warn("couldn't register statistics of '"+name+"' as mbean", e);
+        mbeanName = null;
+      }
+    }
+  }
+
+  protected void stopStatistics() {
+    if (mbeanName!=null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+      } catch (Exception e) {
+        log.warn("couldn't unregister mbean "+mbeanName, e);
+      }
+      mbeanName = null;
+    }
+  }
+
+  /**
+   * the statistics that the threads of this job executor record into. 
+   */
+  public JobExecutorStatistics getLiveStatistics() {
+    JobExecutorStatistics liveStatistics = statistics;
+    if (liveStatistics==null) {
+      synchronized (this) {
+        liveStatistics = statistics;
+        if (liveStatistics==null) {
+          liveStatistics = new JobExecutorStatistics(historyMaxSize);
+          statistics = liveStatistics;
+        }
+      }
+    }
+    return liveStatistics;
+  }
+
+  /**
+   * a snapshot of the statistics of this job executor, including its most 
+   * recent executions.
+   */
+  public JobExecutorStatistics getStatistics() {
+    return new JobExecutorStatistics(getLiveStatistics());
+  }
+
+  protected void startLockMonitor() {
+    if (heartbeatInterval>0) {
+      heartbeatThread = new HeartbeatThread(this);
+      log.debug("starting heartbeat of '"+name+"' as '"+getLockOwnerPrefix()+"'");
+      heartbeatThread.start();
+    }
+    lockMonitorThread = new LockMonitorThread(this);
+    log.debug("starting lock monitor of '"+name+"'");
+    lockMonitorThread.start();
+  }
+
+  protected void stopLockMonitor() {
+    if (lockMonitorThread!=null) {
+      lockMonitorThread.deactivate();
+    }
+    if (heartbeatThread!=null) {
+      heartbeatThread.deactivate();
+    }
+  }
+
+  protected void startTimerWheel() {
+    if (timerLookAhead>0) {
+      int tickDuration = Math.max(timerWheelTickDuration, 1);
+      TimerWheel timerWheel = new TimerWheel(tickDuration, timerLookAhead/tickDuration+1, System.currentTimeMillis());
+      timerWheelThread = new TimerWheelThread(this, timerWheel, timerLookAhead);
+      log.debug("starting timer wheel of '"+name+"' with a look-ahead of "+timerLookAhead+" milliseconds");
+      timerWheelThread.start();
+    }
+  }
+
+  protected void stopTimerWheel() {
+    if (timerWheelThread!=null) {
+      timerWheelThread.deactivate();
+    }
+  }
+
+  public boolean isTimerWheelActive() {
+    return (timerWheelThread!=null) && timerWheelThread.isActive;
+  }
+
+  /**
+   * makes sure the threads of this job executor wake up when the given job
+   * becomes due.  This is a no-op unless the timer wheel is active.
+   */
+  public void scheduleWakeUp(Job job) {
+    TimerWheelThread wheelThread = timerWheelThread;
+    if ( (wheelThread!=null)
+         && (wheelThread.isActive)
+         && (job.getDueDate()!=null)
+       ) {
+      long dueTime = job.getDueDate().getTime();
+      if (dueTime <= System.currentTimeMillis()+timerLookAhead) {
+        if (wheelThread.timerWheel.schedule(job.getId(), dueTime)) {
+          signalDueJobs(1);
+        }
+      }
+    }
+  }
+
+  /**
+   * wakes up as many waiting threads as there are due jobs.
+   */
+  public void signalDueJobs(int dueJobCount) {
+    int signalCount = Math.min(dueJobCount, Math.max(nbrOfThreads, 1));
+    synchronized (wakeUpMonitor) {
+      for (int i=0; i<signalCount; i++) {
+        wakeUpMonitor.notify();
+      }
+    }
+  }
+
+  /**
+   * makes the calling thread wait until it is signalled or the given time
+   * has passed.
+   * @see #signalDueJobs(int)
+   */
+  public void awaitWakeUp(long timeout) throws InterruptedException {
+    synchronized (wakeUpMonitor) {
+      wakeUpMonitor.wait(timeout);
+    }
+  }
+
+  static class WakeUpMonitor implements Serializable {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * the due date of the next retry of a job that failed the given number 
+   * of times in a row.
+   */
+  public Date getRetryDueDate(int failures) {
+    long now = System.currentTimeMillis();
+    if (retryInterval<=0 || failures<1) {
+      return new Date(now);
+    }
+    double delay = retryInterval * Math.pow(retryIntervalMultiplier, failures-1);
+    delay = Math.min(delay, maxRetryInterval);
+    if (retryJitter>0) {
+      delay *= 1 + retryJitter * (2*Math.random() - 1);
+    }
+    return new Date(now + (long) Math.max(delay, 0));
+  }
+
+  /**
+   * the common prefix of the names of the threads of this job executor,
+   * which are used as lock owners.  Besides the name and the host, the 
+   * prefix contains an id of this JVM, so two JVMs on the same host never 
+   * share lock owners.
+   */
+  public String getLockOwnerPrefix() {
+    return name + ":" + getHostName() + ":" + getProcessId() + ":";
   }
 
   protected synchronized void startThread() {
@@ -104,7 +347,16 @@ public class JobExecutor implements Serializable {
   }
   
   private String getThreadName(int index) {
-    return name + ":" + getHostName() + ":" + index;
+    return getLockOwnerPrefix() + index;
+  }
+
+  private static synchronized String getProcessId() {
+    if (processId == null) {
+      // random, so that a restarted JVM doesn't reuse the lock owners of 
+      // its predecessor either
+      processId = Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36);
+    }
+    return processId;
   }
 
   private static String getHostName() {
@@ -150,6 +402,98 @@ public class JobExecutor implements Serializable {
     return historyMaxSize;
   }
   
+  public void setRegisterMBean(boolean registerMBean) {
+    this.registerMBean = registerMBean;
+  }
+
+  public boolean isRegisterMBean() {
+    return registerMBean;
+  }
+
+  public void setJobAcquisitionBatchSize(int jobAcquisitionBatchSize) {
+    this.jobAcquisitionBatchSize = jobAcquisitionBatchSize;
+  }
+
+  public int getJobAcquisitionBatchSize() {
+    return jobAcquisitionBatchSize;
+  }
+
+  public void setJobAcquisitionStrategy(JobAcquisitionStrategy jobAcquisitionStrategy) {
+    this.jobAcquisitionStrategy = jobAcquisitionStrategy;
+  }
+
+  /**
+   * the configured job acquisition strategy.  If none was configured, 
+   * {@link OptimisticJobAcquisitionStrategy optimistic acquisition} is used 
+   * for a batch size of 1 and {@link BatchJobAcquisitionStrategy batch 
+   * acquisition} otherwise.
+   */
+  public JobAcquisitionStrategy getJobAcquisitionStrategy() {
+    JobAcquisitionStrategy strategy = jobAcquisitionStrategy;
+    if (strategy==null) {
+      synchronized (this) {
+        strategy = jobAcquisitionStrategy;
+        if (strategy==null) {
+          if (jobAcquisitionBatchSize>1) {
+            strategy = new BatchJobAcquisitionStrategy();
+          } else {
+            strategy = new OptimisticJobAcquisitionStrategy();
+          }
+          jobAcquisitionStrategy = strategy;
+        }
+      }
+    }
+    return strategy;
+  }
+
+  public void setRetryInterval(int retryInterval) {
+    this.retryInterval = retryInterval;
+  }
+
+  public int getRetryInterval() {
+    return retryInterval;
+  }
+
+  public void setRetryIntervalMultiplier(double retryIntervalMultiplier) {
+    this.retryIntervalMultiplier = retryIntervalMultiplier;
+  }
+
+  public double getRetryIntervalMultiplier() {
+    return retryIntervalMultiplier;
+  }
+
+  public void setMaxRetryInterval(int maxRetryInterval) {
+    this.maxRetryInterval = maxRetryInterval;
+  }
+
+  public int getMaxRetryInterval() {
+    return maxRetryInterval;
+  }
+
+  public void setRetryJitter(double retryJitter) {
+    this.retryJitter = retryJitter;
+  }
+
+  public double getRetryJitter() {
+    return retryJitter;
+  }
+
+  public void setTimerLookAhead(int timerLookAhead) {
+    this.timerLookAhead = timerLookAhead;
+  }
+
+  public int getTimerLookAhead() {
+    return timerLookAhead;
+  }
+
+  public void setTimerWheelTickDuration(int timerWheelTickDuration) {
+    this.timerWheelTickDuration = timerWheelTickDuration;
+  }
+
+  public int getTimerWheelTickDuration() {
+    return timerWheelTickDuration;
+  }
+
   public void setIdleInterval(int idleInterval) {
   	this.idleInterval = idleInterval;
   }
@@ -230,6 +574,30 @@ public class JobExecutor implements Serializable {
     return lockMonitorInterval;
   }
   
+  public void setLockMonitorChunkSize(int lockMonitorChunkSize) {
+    this.lockMonitorChunkSize = lockMonitorChunkSize;
+  }
+
+  public int getLockMonitorChunkSize() {
+    return lockMonitorChunkSize;
+  }
+
+  public void setHeartbeatInterval(int heartbeatInterval) {
+    this.heartbeatInterval = heartbeatInterval;
+  }
+
+  public int getHeartbeatInterval() {
+    return heartbeatInterval;
+  }
+
+  public void setHeartbeatTimeout(int heartbeatTimeout) {
+    this.heartbeatTimeout = heartbeatTimeout;
+  }
+
+  public int getHeartbeatTimeout() {
+    return heartbeatTimeout;
+  }
+
   public void setNbrOfThreads(int nbrOfThreads) {
   	this.nbrOfThreads = nbrOfThreads;
   }
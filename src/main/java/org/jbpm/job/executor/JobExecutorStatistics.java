@@ -0,0 +1,319 @@
+package org.jbpm.job.executor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * counters and latency histograms of a job executor.  The job executor 
+ * threads and the lock monitor record into one live instance, which can be 
+ * registered as an MBean.  {@link JobExecutor#getStatistics()} returns a 
+ * snapshot copy.
+ * 
+ * <p>The most recent executions are kept in a lock-free ring buffer of 
+ * {@link JobHistoryEntry history entries}, sized by the 
+ * <code>historyMaxSize</code> of the job executor.</p>
+ */
+public class JobExecutorStatistics implements JobExecutorStatisticsMBean, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  final Histogram acquisitionTime = new Histogram();
+  final Histogram jobsPerAcquisition = new Histogram();
+  final AtomicLong staleAcquisitionCount = new AtomicLong();
+
+  final Histogram executionTime = new Histogram();
+  final Map executionTimeByJobType = new ConcurrentHashMap();
+  final Map executionTimeByProcessDefinition = new ConcurrentHashMap();
+  final AtomicLong failedJobCount = new AtomicLong();
+  final AtomicLong retryCount = new AtomicLong();
+  final AtomicLong deadLetterCount = new AtomicLong();
+
+  final Histogram queueLag = new Histogram();
+  final Histogram idleTime = new Histogram();
+  final AtomicLong unlockedJobCount = new AtomicLong();
+
+  final AtomicReferenceArray history;
+  final AtomicLong historyCount = new AtomicLong();
+
+  public JobExecutorStatistics(int historyMaxSize) {
+    history = new AtomicReferenceArray(Math.max(historyMaxSize, 0));
+  }
+
+  /**
+   * copies the given statistics.
+   */
+  public JobExecutorStatistics(JobExecutorStatistics statistics) {
+    copy(statistics.acquisitionTime, acquisitionTime);
+    copy(statistics.jobsPerAcquisition, jobsPerAcquisition);
+    staleAcquisitionCount.set(statistics.staleAcquisitionCount.get());
+    copy(statistics.executionTime, executionTime);
+    copy(statistics.executionTimeByJobType, executionTimeByJobType);
+    copy(statistics.executionTimeByProcessDefinition, executionTimeByProcessDefinition);
+    failedJobCount.set(statistics.failedJobCount.get());
+    retryCount.set(statistics.retryCount.get());
+    deadLetterCount.set(statistics.deadLetterCount.get());
+    copy(statistics.queueLag, queueLag);
+    copy(statistics.idleTime, idleTime);
+    unlockedJobCount.set(statistics.unlockedJobCount.get());
+    history = new AtomicReferenceArray(statistics.history.length());
+    for (int i=0; i<history.length(); i++) {
+      history.set(i, statistics.history.get(i));
+    }
+    historyCount.set(statistics.historyCount.get());
+  }
+
+  // recording ////////////////////////////////////////////////////////////////
+
+  public void acquisitionCompleted(long duration, int jobCount) {
+    acquisitionTime.record(duration);
+    jobsPerAcquisition.record(jobCount);
+  }
+
+  public void acquisitionFailedOnStaleState() {
+    staleAcquisitionCount.incrementAndGet();
+  }
+
+  public void idled(long duration) {
+    idleTime.record(duration);
+  }
+
+  public void jobStarted(Date dueDate) {
+    if (dueDate!=null) {
+      queueLag.record(System.currentTimeMillis()-dueDate.getTime());
+    }
+  }
+
+  /**
+   * @param jobType the class name of the job.
+   * @param processDefinitionName the name of the process definition of the
+   *   job, or <code>null</code> if it is unknown.
+   * @param exception the exception the job failed with, or <code>null</code>
+   *   if the job succeeded.
+   */
+  public void jobExecuted(String jobDescription, String jobType, String processDefinitionName, long duration, Throwable exception) {
+    executionTime.record(duration);
+    getHistogram(executionTimeByJobType, jobType).record(duration);
+    if (processDefinitionName!=null) {
+      getHistogram(executionTimeByProcessDefinition, processDefinitionName).record(duration);
+    }
+    if (exception!=null) {
+      failedJobCount.incrementAndGet();
+    }
+    if (history.length()>0) {
+      JobHistoryEntry entry = new JobHistoryEntry(new Date(), jobDescription, duration, (exception!=null ? exception.toString() : null));
+      long index = historyCount.getAndIncrement();
+      history.set((int) (index % history.length()), entry);
+    }
+  }
+
+  public void jobRetryScheduled() {
+    retryCount.incrementAndGet();
+  }
+
+  public void jobDeadLettered() {
+    deadLetterCount.incrementAndGet();
+  }
+
+  public void jobsUnlocked(int jobCount) {
+    unlockedJobCount.addAndGet(jobCount);
+  }
+
+  static Histogram getHistogram(Map histograms, String key) {
+    Histogram histogram = (Histogram) histograms.get(key);
+    if (histogram==null) {
+      histogram = new Histogram();
+      Histogram existing = (Histogram) ((ConcurrentHashMap)histograms).putIfAbsent(key, histogram);
+      if (existing!=null) {
+        histogram = existing;
+      }
+    }
+    return histogram;
+  }
+
+  static void copy(Histogram source, Histogram target) {
+    target.copy(source);
+  }
+
+  static void copy(Map source, Map target) {
+    for (Iterator iter = source.entrySet().iterator(); iter.hasNext();) {
+      Map.Entry entry = (Map.Entry) iter.next();
+      target.put(entry.getKey(), new Histogram((Histogram) entry.getValue()));
+    }
+  }
+
+  // snapshot api /////////////////////////////////////////////////////////////
+
+  public Histogram getAcquisitionTime() {
+    return acquisitionTime;
+  }
+
+  public Histogram getJobsPerAcquisition() {
+    return jobsPerAcquisition;
+  }
+
+  public Histogram getExecutionTime() {
+    return executionTime;
+  }
+
+  /** maps job class names to their execution time {@link Histogram histograms} */
+  public Map getExecutionTimeByJobType() {
+    return new HashMap(executionTimeByJobType);
+  }
+
+  /** maps process definition names to their execution time {@link Histogram histograms} */
+  public Map getExecutionTimeByProcessDefinition() {
+    return new HashMap(executionTimeByProcessDefinition);
+  }
+
+  public Histogram getQueueLag() {
+    return queueLag;
+  }
+
+  public Histogram getIdleTime() {
+    return idleTime;
+  }
+
+  /**
+   * the most recent job executions, the latest first.
+   * @return a list of {@link JobHistoryEntry}s.
+   */
+  public List getHistory() {
+    List entries = new ArrayList();
+    int size = history.length();
+    long last = historyCount.get();
+    for (long i=last-1; i>=0 && i>=last-size; i--) {
+      Object entry = history.get((int) (i % size));
+      if (entry!=null) {
+        entries.add(entry);
+      }
+    }
+    return entries;
+  }
+
+  // mbean ////////////////////////////////////////////////////////////////////
+
+  public long getAcquisitionCount() {
+    return acquisitionTime.getCount();
+  }
+
+  public long getStaleAcquisitionCount() {
+    return staleAcquisitionCount.get();
+  }
+
+  public double getMeanAcquisitionTime() {
+    return acquisitionTime.getMean();
+  }
+
+  public long getMaxAcquisitionTime() {
+    return acquisitionTime.getMax();
+  }
+
+  public double getMeanJobsPerAcquisition() {
+    return jobsPerAcquisition.getMean();
+  }
+
+  public long getExecutedJobCount() {
+    return executionTime.getCount();
+  }
+
+  public long getFailedJobCount() {
+    return failedJobCount.get();
+  }
+
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  public long getDeadLetterCount() {
+    return deadLetterCount.get();
+  }
+
+  public double getMeanExecutionTime() {
+    return executionTime.getMean();
+  }
+
+  public long getExecutionTime95thPercentile() {
+    return executionTime.getPercentile(95);
+  }
+
+  public String[] getExecutionTimesByJobType() {
+    return describe(executionTimeByJobType);
+  }
+
+  public String[] getExecutionTimesByProcessDefinition() {
+    return describe(executionTimeByProcessDefinition);
+  }
+
+  public double getMeanQueueLag() {
+    return queueLag.getMean();
+  }
+
+  public long getMaxQueueLag() {
+    return queueLag.getMax();
+  }
+
+  public double getMeanIdleTime() {
+    return idleTime.getMean();
+  }
+
+  public long getUnlockedJobCount() {
+    return unlockedJobCount.get();
+  }
+
+  public String[] getRecentExecutions() {
+    List entries = getHistory();
+    String[] descriptions = new String[entries.size()];
+    for (int i=0; i<descriptions.length; i++) {
+      descriptions[i] = entries.get(i).toString();
+    }
+    return descriptions;
+  }
+
+  public void reset() {
+    acquisitionTime.reset();
+    jobsPerAcquisition.reset();
+    staleAcquisitionCount.set(0);
+    executionTime.reset();
+    executionTimeByJobType.clear();
+    executionTimeByProcessDefinition.clear();
+    failedJobCount.set(0);
+    retryCount.set(0);
+    deadLetterCount.set(0);
+    queueLag.reset();
+    idleTime.reset();
+    unlockedJobCount.set(0);
+  }
+
+  static String[] describe(Map histograms) {
+    Map sortedHistograms = new TreeMap(histograms);
+    String[] descriptions = new String[sortedHistograms.size()];
+    int i = 0;
+    for (Iterator iter = sortedHistograms.entrySet().iterator(); iter.hasNext();) {
+      Map.Entry entry = (Map.Entry) iter.next();
+      descriptions[i++] = entry.getKey()+": "+entry.getValue();
+    }
+    return descriptions;
+  }
+
+  public String toString() {
+    return "acquisitions: "+acquisitionTime
+       + ", jobs per acquisition: "+jobsPerAcquisition
+       + ", stale acquisitions: "+staleAcquisitionCount
+       + ", executions: "+executionTime
+       + ", failures: "+failedJobCount
+       + ", retries: "+retryCount
+       + ", dead letters: "+deadLetterCount
+       + ", queue lag: "+queueLag
+       + ", idle time: "+idleTime
+       + ", unlocked jobs: "+unlockedJobCount;
+  }
+}
@@ -0,0 +1,32 @@
+package org.jbpm.job.executor;
+
+/**
+ * management interface of the {@link JobExecutorStatistics}.  Times are in
+ * milliseconds.
+ */
+public interface JobExecutorStatisticsMBean {
+
+  long getAcquisitionCount();
+  long getStaleAcquisitionCount();
+  double getMeanAcquisitionTime();
+  long getMaxAcquisitionTime();
+  double getMeanJobsPerAcquisition();
+
+  long getExecutedJobCount();
+  long getFailedJobCount();
+  long getRetryCount();
+  long getDeadLetterCount();
+  double getMeanExecutionTime();
+  long getExecutionTime95thPercentile();
+  String[] getExecutionTimesByJobType();
+  String[] getExecutionTimesByProcessDefinition();
+
+  double getMeanQueueLag();
+  long getMaxQueueLag();
+  double getMeanIdleTime();
+  long getUnlockedJobCount();
+
+  String[] getRecentExecutions();
+
+  void reset();
+}
@@ -3,18 +3,18 @@ package org.jbpm.job.executor;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 
 import org.jbpm.JbpmConfiguration;
 import org.jbpm.JbpmContext;
 import org.jbpm.db.JobSession;
+import org.jbpm.graph.def.ProcessDefinition;
 import org.jbpm.graph.exe.ProcessInstance;
 import org.jbpm.job.Job;
 import org.jbpm.persistence.JbpmPersistenceException;
@@ -54,19 +54,15 @@ public class JobExecutorThread extends Thread {
         Collection acquiredJobs = acquireJobs();
 
         if (! acquiredJobs.isEmpty()) {
-          Iterator iter = acquiredJobs.iterator();
-          while (iter.hasNext() && isActive) {
-            Job job = (Job) iter.next();
-            executeJob(job);
-          }
+          executeJobs(acquiredJobs);
 
         } else { // no jobs acquired
           if (isActive) {
             long waitPeriod = getWaitPeriod();
             if (waitPeriod>0) {
-              synchronized(jobExecutor) {
-                jobExecutor.wait(waitPeriod);
-              }
+              long idleStart = System.currentTimeMillis();
+              jobExecutor.awaitWakeUp(waitPeriod);
+              jobExecutor.getLiveStatistics().idled(System.currentTimeMillis()-idleStart);
             }
           }
         }
@@ -79,9 +75,7 @@ public class JobExecutorThread extends Thread {
       } catch (Exception e) {
         log.error("exception in job executor thread. waiting "+currentIdleInterval+" milliseconds", e);
         try {
-          synchronized(jobExecutor) {
-            jobExecutor.wait(currentIdleInterval);
-          }
+          jobExecutor.awaitWakeUp(currentIdleInterval);
         } catch (InterruptedException e2) {
           log.debug("delay after exception got interrupted", e2);
         }
@@ -97,82 +91,86 @@ public class JobExecutorThread extends Thread {
   }
 
   protected Collection acquireJobs() {
-    Collection acquiredJobs;
-    synchronized (jobExecutor) {
-      log.debug("acquiring jobs for execution...");
-      List jobsToLock = Collections.EMPTY_LIST;
-      JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
-      try {
-        JobSession jobSession = jbpmContext.getJobSession();
-        String lockOwner = getName();
-        log.debug("querying for acquirable job...");
-        Job job = jobSession.getFirstAcquirableJob(lockOwner);
-        if (job!=null) {
-          if (job.isExclusive()) {
-            log.debug("found exclusive " + job);
-            ProcessInstance processInstance = job.getProcessInstance();
-            log.debug("finding other exclusive jobs for " + processInstance);
-            jobsToLock = jobSession.findExclusiveJobs(lockOwner, processInstance);
-            log.debug("trying to obtain exclusive locks on " + jobsToLock + " for " + processInstance);
-          } else {
-            log.debug("trying to obtain lock on " + job);
-            jobsToLock = Collections.singletonList(job);
-          }
-          
-          Date lockTime = new Date();
-          for (Iterator iter = jobsToLock.iterator(); iter.hasNext();) {
-            job = (Job) iter.next();
-            job.setLockOwner(lockOwner);
-            job.setLockTime(lockTime);
-            // jbpmContext.getSession().update(job);
-          }
+    return acquireJobs(getName());
+  }
 
-          // HACKY HACK : this is a workaround for a hibernate problem that is fixed in hibernate 3.2.1
-          // TODO remove this hack already?
-          // if (job instanceof Timer) {
-          //   Hibernate.initialize(((Timer)job).getGraphElement());
-          // }
-        } else {
-          log.debug("no acquirable jobs in job table");
-        }
-      } finally {
-        try {
-          jbpmContext.close();
-          acquiredJobs = jobsToLock;
-          log.debug("obtained lock on jobs: "+acquiredJobs);
-        }
-        catch (JbpmPersistenceException e) {
-          // if this is a stale object exception, keep it quiet
-          if (Services.isCausedByStaleState(e)) {
-            log.debug("optimistic locking failed, couldn't obtain lock on jobs "+jobsToLock);
-            acquiredJobs = Collections.EMPTY_LIST;
-          } else {
-            throw e;
-          }
-        }
-      }
-    }
+  /**
+   * acquires jobs with the acquisition strategy of the job executor and 
+   * records the acquisition in its statistics.
+   */
+  protected Collection acquireJobs(String lockOwner) {
+    long acquisitionStart = System.currentTimeMillis();
+    Collection acquiredJobs = jobExecutor.getJobAcquisitionStrategy().acquireJobs(jobExecutor, lockOwner);
+    jobExecutor.getLiveStatistics().acquisitionCompleted(System.currentTimeMillis()-acquisitionStart, acquiredJobs.size());
     return acquiredJobs;
   }
 
+  /**
+   * executes the acquired jobs one after the other, as long as this thread 
+   * is active.
+   */
+  protected void executeJobs(Collection acquiredJobs) {
+    Iterator iter = acquiredJobs.iterator();
+    while (iter.hasNext() && isActive) {
+      Job job = (Job) iter.next();
+      executeJob(job);
+    }
+  }
+
   protected void executeJob(Job job) {
+    executeJob(job, false);
+  }
+
+  /**
+   * executes the given job in a transaction of its own.
+   * @param unlockRemainingJob if <code>true</code>, a job that still exists 
+   *   after execution, such as a failed job or a repeating timer, is unlocked 
+   *   so that it can be acquired again by any thread.  Otherwise the job 
+   *   stays locked by its current owner.
+   */
+  protected void executeJob(Job job, boolean unlockRemainingJob) {
+    JobExecutorStatistics statistics = jobExecutor.getLiveStatistics();
+    String jobType = null;
+    String processDefinitionName = null;
+    Exception jobException = null;
+    long executionStart = System.currentTimeMillis();
     JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
     try {
       JobSession jobSession = jbpmContext.getJobSession();
       job = jobSession.loadJob(job.getId());
+      statistics.jobStarted(job.getDueDate());
+      jobType = Hibernate.getClass(job).getName();
 
+      boolean isRemaining = true;
+      boolean isDeadLettered = false;
       try {
         log.debug("executing " + job);
         if (job.execute(jbpmContext)) {
           jobSession.deleteJob(job);
+          isRemaining = false;
+        } else {
+          // failures counts the failures in a row, a repeating timer 
+          // that succeeded starts over
+          job.setFailures(0);
         }
       } catch (Exception e) {
         log.debug("exception while executing " + job, e);
+        jobException = e;
         if (!isPersistenceException(e)) {
           StringWriter memoryWriter = new StringWriter();
           e.printStackTrace(new PrintWriter(memoryWriter));
           job.setException(memoryWriter.toString());
-          job.setRetries(job.getRetries()-1);          
+          job.setRetries(job.getRetries()-1);
+          job.setFailures(job.getFailures()+1);
+          if (job.getRetries()>0) {
+            // back off, so that a broken resource is not hammered with retries
+            job.setDueDate(jobExecutor.getRetryDueDate(job.getFailures()));
+            statistics.jobRetryScheduled();
+          } else {
+            jobSession.deadLetterJob(job);
+            statistics.jobDeadLettered();
+            isDeadLettered = true;
+          }
         }
         else {
           // allowing a transaction to proceed after a persistence exception is unsafe
@@ -184,21 +182,59 @@ public class JobExecutorThread extends Thread {
       long totalLockTimeInMillis = System.currentTimeMillis() - job.getLockTime().getTime(); 
       if (totalLockTimeInMillis>maxLockTime) {
         jbpmContext.setRollbackOnly();
+      } else if (isRemaining && !isDeadLettered) {
+        if (unlockRemainingJob) {
+          job.setLockOwner(null);
+          job.setLockTime(null);
+        }
+        // a repeating timer or a failed job will be due again 
+        jobExecutor.scheduleWakeUp(job);
       }
     } finally {
+      if (jobType!=null) {
+        // after the execution, the process instance is usually loaded already
+        processDefinitionName = getProcessDefinitionName(job);
+      }
       try {
         jbpmContext.close();
       } catch (JbpmPersistenceException e) {
         // if this is a stale state exception, keep it quiet
         if (Services.isCausedByStaleState(e)) {
           log.debug("optimistic locking failed, couldn't complete job "+job);
+          jobException = e;
         } else {
           throw e;
         }
+      } finally {
+        if (jobType!=null) {
+          statistics.jobExecuted(job.toString(), jobType, processDefinitionName, System.currentTimeMillis()-executionStart, jobException);
+        }
       }
     }
   }
 
+  /**
+   * the name of the process definition of the given job, or 
+   * <code>null</code> if the job has no process instance or if the process 
+   * instance or its definition are not loaded.  Statistics never cause 
+   * extra queries.
+   */
+  private static String getProcessDefinitionName(Job job) {
+    ProcessInstance processInstance = job.getProcessInstance();
+    if ( (processInstance==null)
+         || (! Hibernate.isInitialized(processInstance))
+       ) {
+      return null;
+    }
+    ProcessDefinition processDefinition = processInstance.getProcessDefinition();
+    if ( (processDefinition==null)
+         || (! Hibernate.isInitialized(processDefinition))
+       ) {
+      return null;
+    }
+    return processDefinition.getName();
+  }
+
   private static boolean isPersistenceException(Throwable throwable) {
     do {
       if (throwable instanceof HibernateException)
@@ -236,6 +272,10 @@ public class JobExecutorThread extends Thread {
   }
 
   protected long getWaitPeriod() {
+    if (jobExecutor.isTimerWheelActive()) {
+      // the timer wheel wakes this thread up when the next job becomes due
+      return currentIdleInterval;
+    }
     long interval = currentIdleInterval;
     Date nextDueDate = getNextDueDate();
     if (nextDueDate!=null) {
@@ -3,6 +3,10 @@ package org.jbpm.job.executor;
 import java.io.Serializable;
 import java.util.Date;
 
+/**
+ * record of a single job execution, kept in the recent execution history of
+ * the {@link JobExecutorStatistics}.
+ */
 public class JobHistoryEntry implements Serializable {
 
   private static final long serialVersionUID = 1L;
@@ -10,4 +14,30 @@ public class JobHistoryEntry implements Serializable {
   Date executionTime;
   String jobDescription;
   String exception;
+  long duration;
+
+  public JobHistoryEntry(Date executionTime, String jobDescription, long duration, String exception) {
+    this.executionTime = executionTime;
+    this.jobDescription = jobDescription;
+    this.duration = duration;
+    this.exception = exception;
+  }
+
+  public String toString() {
+    return jobDescription+" executed at "+executionTime+" in "+duration+" ms"
+       + (exception!=null ? ", failed with "+exception : "");
+  }
+
+  public Date getExecutionTime() {
+    return executionTime;
+  }
+  public String getJobDescription() {
+    return jobDescription;
+  }
+  public long getDuration() {
+    return duration;
+  }
+  public String getException() {
+    return exception;
+  }
 }
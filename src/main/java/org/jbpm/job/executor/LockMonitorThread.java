@@ -9,18 +9,33 @@ import org.apache.commons.logging.LogFactory;
 import org.jbpm.JbpmConfiguration;
 import org.jbpm.JbpmContext;
 import org.jbpm.db.JobSession;
-import org.jbpm.job.Job;
 import org.jbpm.persistence.JbpmPersistenceException;
 import org.jbpm.svc.Services;
 
+/**
+ * releases the locks of jobs whose owner is gone.  Locks older than the
+ * maximum lock time are released with chunked bulk updates, without loading
+ * the jobs.
+ *
+ * <p>If a heartbeat interval is configured, this thread also releases all 
+ * locks of job executors whose heartbeat stopped.  A crashed node is then 
+ * recovered within a few heartbeat intervals instead of after the maximum 
+ * lock time.  The heartbeat of the own job executor is recorded by a
+ * {@link HeartbeatThread} that does not wait for the unlock work.</p>
+ */
 public class LockMonitorThread extends Thread {
-  
+
   JbpmConfiguration jbpmConfiguration;
   int lockMonitorInterval;
   int maxLockTime;
   int lockBufferTime;
 
-  boolean isActive = true;
+  JobExecutor jobExecutor;
+  int chunkSize = 1000;
+  int heartbeatInterval = 0;
+  int heartbeatTimeout = 0;
+
+  volatile boolean isActive = true;
 
   public LockMonitorThread(JbpmConfiguration jbpmConfiguration, int lockMonitorInterval, int maxLockTime, int lockBufferTime) {
     this.jbpmConfiguration = jbpmConfiguration;
@@ -29,15 +44,34 @@ public class LockMonitorThread extends Thread {
     this.lockBufferTime = lockBufferTime;
   }
 
+  public LockMonitorThread(JobExecutor jobExecutor) {
+    this(jobExecutor.getJbpmConfiguration(), jobExecutor.getLockMonitorInterval(), jobExecutor.getMaxLockTime(), jobExecutor.getLockBufferTime());
+    setName(jobExecutor.getName()+":lockMonitor");
+    setDaemon(true);
+    this.jobExecutor = jobExecutor;
+    this.chunkSize = jobExecutor.getLockMonitorChunkSize();
+    this.heartbeatInterval = jobExecutor.getHeartbeatInterval();
+    this.heartbeatTimeout = jobExecutor.getHeartbeatTimeout();
+  }
+
   public void run() {
     try {
+      long nextOverdueCheck = 0;
       while (isActive) {
         try {
-          unlockOverdueJobs();
-          if ( (isActive) 
-               && (lockMonitorInterval>0)
+          if (isHeartbeatEnabled()) {
+            unlockJobsOfDeadOwners();
+          }
+          long now = System.currentTimeMillis();
+          if (now>=nextOverdueCheck) {
+            unlockOverdueJobs();
+            nextOverdueCheck = now+lockMonitorInterval;
+          }
+          long sleepTime = (isHeartbeatEnabled() ? Math.min(heartbeatInterval, lockMonitorInterval) : lockMonitorInterval);
+          if ( (isActive)
+               && (sleepTime>0)
              ) {
-            sleep(lockMonitorInterval);
+            sleep(sleepTime);
           }
         } catch (InterruptedException e) {
           log.info("lock monitor thread '"+getName()+"' got interrupted");
@@ -57,35 +91,98 @@ public class LockMonitorThread extends Thread {
     }
   }
 
-    
+  /**
+   * releases the locks that are held longer than the maximum lock time, in
+   * chunks of bulk updates with a transaction each.
+   */
   protected void unlockOverdueJobs() {
-    JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
-    try {
-      JobSession jobSession = jbpmContext.getJobSession();
-      
-      Date treshold = new Date(System.currentTimeMillis()-maxLockTime-lockBufferTime);
-      List jobsWithOverdueLockTime = jobSession.findJobsWithOverdueLockTime(treshold);
-      Iterator iter = jobsWithOverdueLockTime.iterator();
-      while (iter.hasNext()) {
-        Job job = (Job) iter.next();
-        // unlock
-        log.debug("unlocking "+job+ " owned by thread "+job.getLockOwner());
-        job.setLockOwner(null);
-        job.setLockTime(null);
-        jobSession.saveJob(job);
+    Date treshold = new Date(System.currentTimeMillis()-maxLockTime-lockBufferTime);
+    int unlockedCount = 0;
+    int chunkCount;
+    do {
+      chunkCount = 0;
+      JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
+      try {
+        JobSession jobSession = jbpmContext.getJobSession();
+        List jobIds = jobSession.findJobIdsWithOverdueLockTime(treshold, chunkSize);
+        if (! jobIds.isEmpty()) {
+          log.debug("unlocking overdue jobs "+jobIds);
+          unlockedCount += jobSession.unlockJobs(jobIds, treshold);
+          chunkCount = jobIds.size();
+        }
+      } finally {
+        if (! closeQuietly(jbpmContext, "couldn't unlock overdue jobs")) {
+          chunkCount = 0;
+        }
       }
+    } while (isActive && chunkSize>0 && chunkCount==chunkSize);
 
+    if (unlockedCount>0) {
+      log.info("unlocked "+unlockedCount+" jobs with overdue locks");
+      signalUnlockedJobs(unlockedCount);
+    }
+  }
+
+  /**
+   * releases all locks of the job executors that missed their heartbeats.
+   * Each dead job executor is recovered with a single bulk update.
+   */
+  protected void unlockJobsOfDeadOwners() {
+    int timeout = (heartbeatTimeout>0 ? heartbeatTimeout : 3*heartbeatInterval);
+    Date treshold = new Date(System.currentTimeMillis()-timeout);
+    List deadOwnerPrefixes;
+    JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
+    try {
+      deadOwnerPrefixes = jbpmContext.getJobSession().findDeadLockOwnerPrefixes(treshold);
     } finally {
+      jbpmContext.close();
+    }
+
+    for (Iterator iter = deadOwnerPrefixes.iterator(); iter.hasNext();) {
+      String lockOwnerPrefix = (String) iter.next();
+      int unlockedCount = 0;
+      jbpmContext = jbpmConfiguration.createJbpmContext();
       try {
-        jbpmContext.close();
-      } catch (JbpmPersistenceException e) {
-        // if this is a stale object exception, keep it quiet
-        if (Services.isCausedByStaleState(e)) {
-          log.debug("optimistic locking failed, couldn't unlock overdue jobs");
-        } else {
-          throw e;
+        unlockedCount = jbpmContext.getJobSession().unlockJobsOfDeadOwner(lockOwnerPrefix, treshold);
+      } finally {
+        if (! closeQuietly(jbpmContext, "couldn't unlock jobs of dead job executor '"+lockOwnerPrefix+"'")) {
+          unlockedCount = 0;
         }
       }
+      if (unlockedCount>0) {
+        log.info("unlocked "+unlockedCount+" jobs of dead job executor '"+lockOwnerPrefix+"'");
+        signalUnlockedJobs(unlockedCount);
+      }
+    }
+  }
+
+  boolean isHeartbeatEnabled() {
+    return (jobExecutor!=null) && (heartbeatInterval>0);
+  }
+
+  void signalUnlockedJobs(int unlockedCount) {
+    if (jobExecutor!=null) {
+      jobExecutor.getLiveStatistics().jobsUnlocked(unlockedCount);
+      jobExecutor.signalDueJobs(unlockedCount);
+    }
+  }
+
+  /**
+   * closes the given context, keeping stale state exceptions quiet.
+   * @return <code>false</code> if optimistic locking failed.
+   */
+  boolean closeQuietly(JbpmContext jbpmContext, String staleStateMessage) {
+    try {
+      jbpmContext.close();
+      return true;
+    } catch (JbpmPersistenceException e) {
+      // if this is a stale object exception, keep it quiet
+      if (Services.isCausedByStaleState(e)) {
+        log.debug("optimistic locking failed, "+staleStateMessage);
+        return false;
+      } else {
+        throw e;
+      }
     }
   }
 
@@ -93,7 +190,7 @@ public class LockMonitorThread extends Thread {
    * @deprecated As of jBPM 3.2.3, replaced by {@link #deactivate()}
    */
   public void setActive(boolean isActive) {
-    if (isActive == false) 
+    if (isActive == false)
       deactivate();
   }
 
@@ -104,7 +201,7 @@ public class LockMonitorThread extends Thread {
   public void deactivate() {
     if (isActive) {
       isActive = false;
-      interrupt();      
+      interrupt();
     }
   }
 
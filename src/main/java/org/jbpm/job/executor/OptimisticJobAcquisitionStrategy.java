@@ -0,0 +1,82 @@
+package org.jbpm.job.executor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.JbpmContext;
+import org.jbpm.db.JobSession;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.job.Job;
+import org.jbpm.persistence.JbpmPersistenceException;
+import org.jbpm.svc.Services;
+
+/**
+ * locks the first acquirable job by setting its lock owner and lock time, 
+ * relying on optimistic locking to detect competing threads.  Threads of the
+ * same job executor are serialized on the job executor monitor.  Threads of 
+ * other nodes are not, so in a cluster the acquiring transaction may fail
+ * with a stale state exception, in which case no jobs are acquired. 
+ */
+public class OptimisticJobAcquisitionStrategy implements JobAcquisitionStrategy {
+
+  private static final long serialVersionUID = 1L;
+
+  public Collection acquireJobs(JobExecutor jobExecutor, String lockOwner) {
+    Collection acquiredJobs;
+    synchronized (jobExecutor) {
+      log.debug("acquiring jobs for execution...");
+      List jobsToLock = Collections.EMPTY_LIST;
+      JbpmContext jbpmContext = jobExecutor.getJbpmConfiguration().createJbpmContext();
+      try {
+        JobSession jobSession = jbpmContext.getJobSession();
+        log.debug("querying for acquirable job...");
+        Job job = jobSession.getFirstAcquirableJob(lockOwner);
+        if (job!=null) {
+          if (job.isExclusive()) {
+            log.debug("found exclusive " + job);
+            ProcessInstance processInstance = job.getProcessInstance();
+            log.debug("finding other exclusive jobs for " + processInstance);
+            jobsToLock = jobSession.findExclusiveJobs(lockOwner, processInstance);
+            log.debug("trying to obtain exclusive locks on " + jobsToLock + " for " + processInstance);
+          } else {
+            log.debug("trying to obtain lock on " + job);
+            jobsToLock = Collections.singletonList(job);
+          }
+          
+          Date lockTime = new Date();
+          for (Iterator iter = jobsToLock.iterator(); iter.hasNext();) {
+            job = (Job) iter.next();
+            job.setLockOwner(lockOwner);
+            job.setLockTime(lockTime);
+          }
+        } else {
+          log.debug("no acquirable jobs in job table");
+        }
+      } finally {
+        try {
+          jbpmContext.close();
+          acquiredJobs = jobsToLock;
+          log.debug("obtained lock on jobs: "+acquiredJobs);
+        }
+        catch (JbpmPersistenceException e) {
+          // if this is a stale object exception, keep it quiet
+          if (Services.isCausedByStaleState(e)) {
+            log.debug("optimistic locking failed, couldn't obtain lock on jobs "+jobsToLock);
+            acquiredJobs = Collections.EMPTY_LIST;
+          jobExecutor.getLiveStatistics().acquisitionFailedOnStaleState();
+          } else {
+            throw e;
+          }
+        }
+      }
+    }
+    return acquiredJobs;
+  }
+
+  private static Log log = LogFactory.getLog(OptimisticJobAcquisitionStrategy.class);
+}
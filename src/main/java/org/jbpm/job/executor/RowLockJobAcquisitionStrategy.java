@@ -0,0 +1,49 @@
+package org.jbpm.job.executor;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.db.JobSession;
+
+/**
+ * locks batches of jobs using <code>select ... for update skip locked</code>.
+ * Rows that are locked by a competing transaction are skipped by the 
+ * database, so contending nodes claim disjoint sets of jobs without waiting
+ * for each other.
+ * 
+ * <p>The skip locked syntax is detected for PostgreSQL, MySQL and Oracle 
+ * dialects.  Other databases that support it can be enabled with the
+ * <code>skipLocked</code> field.  On databases without row lock support, 
+ * such as HSQLDB, this strategy falls back to the conditional bulk updates 
+ * of its superclass.</p>
+ */
+public class RowLockJobAcquisitionStrategy extends BatchJobAcquisitionStrategy {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * forces the use of skip locked on or off.  When <code>null</code>,
+   * support is derived from the hibernate dialect.
+   */
+  Boolean skipLocked;
+
+  protected List findCandidates(JobSession jobSession, String lockOwner, int batchSize) {
+    boolean useSkipLocked = (skipLocked!=null ? skipLocked.booleanValue() : jobSession.isSkipLockedSupported());
+    if (useSkipLocked) {
+      log.debug("selecting acquirable jobs for update, skipping locked rows");
+      return jobSession.findAcquirableJobIdsForUpdate(lockOwner, batchSize);
+    }
+    return super.findCandidates(jobSession, lockOwner, batchSize);
+  }
+
+  public Boolean getSkipLocked() {
+    return skipLocked;
+  }
+
+  public void setSkipLocked(Boolean skipLocked) {
+    this.skipLocked = skipLocked;
+  }
+
+  private static Log log = LogFactory.getLog(RowLockJobAcquisitionStrategy.class);
+}
@@ -0,0 +1,110 @@
+package org.jbpm.job.executor;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * hashed wheel of job due times.  The wheel is an array of buckets, each
+ * covering one tick.  A job goes into the bucket of the tick in which it 
+ * becomes due; jobs that are due more than one revolution ahead share the 
+ * bucket and are skipped until their tick comes.  Scheduling and firing a
+ * job are constant time operations, regardless of the number of jobs.
+ * 
+ * <p>The wheel only holds job ids and due times.  It tells when jobs 
+ * become due, acquiring them still goes through the job table.</p>
+ */
+public class TimerWheel {
+
+  final long tickDuration;
+  final Map[] buckets;
+  final int mask;
+  /** maps job ids to the tick in which they are due */
+  final Map jobTicks = new HashMap();
+  long currentTick;
+
+  /**
+   * @param tickDuration the resolution of the wheel in milliseconds.
+   * @param size the number of buckets, rounded up to a power of two.
+   */
+  public TimerWheel(long tickDuration, int size, long now) {
+    this.tickDuration = Math.max(tickDuration, 1);
+    int bucketCount = 1;
+    while (bucketCount<size) {
+      bucketCount <<= 1;
+    }
+    this.buckets = new Map[bucketCount];
+    for (int i=0; i<bucketCount; i++) {
+      buckets[i] = new HashMap();
+    }
+    this.mask = bucketCount-1;
+    this.currentTick = now / this.tickDuration;
+  }
+
+  /**
+   * adds a job to the wheel or moves it to its new due time.
+   * @return <code>true</code> if the job is due already, in which case it is
+   *   not added to the wheel.
+   */
+  public synchronized boolean schedule(long jobId, long dueTime) {
+    Long key = new Long(jobId);
+    unschedule(key);
+    // round up, a job must never fire before its due time
+    long tick = (dueTime + tickDuration - 1) / tickDuration;
+    if (tick<=currentTick) {
+      return true;
+    }
+    Long tickValue = new Long(tick);
+    buckets[(int) (tick & mask)].put(key, tickValue);
+    jobTicks.put(key, tickValue);
+    return false;
+  }
+
+  public synchronized void unschedule(long jobId) {
+    unschedule(new Long(jobId));
+  }
+
+  void unschedule(Long key) {
+    Long tick = (Long) jobTicks.remove(key);
+    if (tick!=null) {
+      buckets[(int) (tick.longValue() & mask)].remove(key);
+    }
+  }
+
+  /**
+   * moves the wheel forward to the given time and removes the jobs that
+   * became due on the way.
+   * @return the number of jobs that became due.
+   */
+  public synchronized int advance(long now) {
+    long targetTick = now / tickDuration;
+    if (targetTick<=currentTick) {
+      return 0;
+    }
+    int dueCount = 0;
+    // after a full revolution every bucket has been visited
+    long steps = Math.min(targetTick-currentTick, buckets.length);
+    for (long step=1; step<=steps; step++) {
+      Map bucket = buckets[(int) ((currentTick+step) & mask)];
+      for (Iterator iter = bucket.entrySet().iterator(); iter.hasNext();) {
+        Map.Entry entry = (Map.Entry) iter.next();
+        long tick = ((Long) entry.getValue()).longValue();
+        if (tick<=targetTick) {
+          iter.remove();
+          jobTicks.remove(entry.getKey());
+          dueCount++;
+        }
+      }
+    }
+    currentTick = targetTick;
+    return dueCount;
+  }
+
+  public synchronized int size() {
+    return jobTicks.size();
+  }
+
+  public long getTickDuration() {
+    return tickDuration;
+  }
+}
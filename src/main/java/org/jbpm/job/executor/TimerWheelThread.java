@@ -0,0 +1,114 @@
+package org.jbpm.job.executor;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.JbpmContext;
+import org.jbpm.db.JobSession;
+
+/**
+ * keeps a {@link TimerWheel} filled with the jobs that become due within 
+ * the look-ahead window and wakes up the job executor threads when they do.
+ * The window is loaded with one range query at start-up and extended with
+ * another range query whenever half of it has passed.  Jobs scheduled on 
+ * this node are added as they are created, see 
+ * {@link JobExecutor#scheduleWakeUp(org.jbpm.job.Job)}.  Jobs created on
+ * other nodes inside the already loaded window are found by the idle 
+ * polling of the job executor threads.
+ */
+public class TimerWheelThread extends Thread {
+
+  final JobExecutor jobExecutor;
+  final TimerWheel timerWheel;
+  final long lookAhead;
+
+  /** jobs that are due up to this time have been loaded in the wheel */
+  volatile long loadedUntil;
+  volatile boolean isActive = true;
+
+  public TimerWheelThread(JobExecutor jobExecutor, TimerWheel timerWheel, long lookAhead) {
+    super(jobExecutor.getName()+":timer-wheel");
+    this.jobExecutor = jobExecutor;
+    this.timerWheel = timerWheel;
+    this.lookAhead = lookAhead;
+  }
+
+  public void run() {
+    try {
+      while (isActive) {
+        try {
+          long now = System.currentTimeMillis();
+          if (now+lookAhead/2 >= loadedUntil) {
+            loadDueJobs(now);
+          }
+          int dueCount = timerWheel.advance(now);
+          if (dueCount>0) {
+            log.debug(dueCount+" jobs became due");
+            jobExecutor.signalDueJobs(dueCount);
+          }
+          if (isActive) {
+            sleep(timerWheel.getTickDuration());
+          }
+        } catch (InterruptedException e) {
+          log.info("timer wheel thread '"+getName()+"' got interrupted");
+        } catch (Exception e) {
+          log.error("exception in timer wheel thread. waiting "+lookAhead+" milliseconds", e);
+          try {
+            sleep(lookAhead);
+          } catch (InterruptedException e2) {
+            log.debug("delay after exception got interrupted", e2);
+          }
+        }
+      }
+    } finally {
+      log.info(getName()+" leaves cyberspace");
+    }
+  }
+
+  protected void loadDueJobs(long now) {
+    // continue where the previous load stopped, even if that is in the past.
+    // jobs that are already due are due at once, see below
+    Date from = new Date(loadedUntil>0 ? loadedUntil : now);
+    Date until = new Date(now+lookAhead);
+    int jobCount = 0;
+    int dueCount = 0;
+    JbpmContext jbpmContext = jobExecutor.getJbpmConfiguration().createJbpmContext();
+    try {
+      JobSession jobSession = jbpmContext.getJobSession();
+      List dueJobs = jobSession.findJobDueDates(jobExecutor.getLockOwnerPrefix(), from, until);
+      for (Iterator iter = dueJobs.iterator(); iter.hasNext();) {
+        Object[] dueJob = (Object[]) iter.next();
+        long jobId = ((Long) dueJob[0]).longValue();
+        long dueTime = ((Date) dueJob[1]).getTime();
+        if (timerWheel.schedule(jobId, dueTime)) {
+          dueCount++;
+        }
+        jobCount++;
+      }
+    } finally {
+      jbpmContext.close();
+    }
+    loadedUntil = until.getTime();
+    if (dueCount>0) {
+      log.debug(dueCount+" loaded jobs are due already");
+      jobExecutor.signalDueJobs(dueCount);
+    }
+    log.debug("loaded "+jobCount+" jobs due until "+until+", timer wheel holds "+timerWheel.size()+" jobs");
+  }
+
+  /**
+   * Indicates that this thread should stop running.
+   * Execution will cease shortly afterwards.
+   */
+  public void deactivate() {
+    if (isActive) {
+      isActive = false;
+      interrupt();      
+    }
+  }
+
+  private static Log log = LogFactory.getLog(TimerWheelThread.class);
+}
@@ -0,0 +1,175 @@
+package org.jbpm.job.executor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.job.Job;
+
+/**
+ * dispatching job executor that runs every job on a virtual thread of its
+ * own.  This suits action handlers that spend most of their time in blocking
+ * calls.  On JVMs without virtual threads, it falls back to the platform 
+ * worker pool of its superclass.  Select it in the <code>jbpm.cfg.xml</code>
+ * like this:
+ * 
+ * <pre>
+ * &lt;bean name="jbpm.job.executor" class="org.jbpm.job.executor.VirtualThreadJobExecutor">
+ *   ...
+ *   &lt;field name="nbrOfThreads">&lt;int value="2000" />&lt;/field>
+ *   &lt;field name="maxConcurrentTransactions">&lt;int value="40" />&lt;/field>
+ * &lt;/bean>
+ * </pre>
+ * 
+ * <p>Here <code>nbrOfThreads</code> bounds the number of jobs in flight.
+ * Every job executes in a transaction that holds a database connection from
+ * the moment it is first used until the job completes.  The
+ * <code>maxConcurrentTransactions</code> limiter therefore bounds the number
+ * of jobs that execute at the same time.  Keep it below the size of the
+ * connection pool.  Jobs beyond the limit park their virtual thread until a
+ * permit is released, which costs little.</p>
+ * 
+ * <p>With <code>processInstanceAffinity</code>, every lane runs on a 
+ * virtual thread of its own.</p>
+ */
+public class VirtualThreadJobExecutor extends DispatchingJobExecutor {
+
+  private static final long serialVersionUID = 1L;
+
+  /** 
+   * maximum number of jobs executing at the same time.  A value of 0 or
+   * less means <code>nbrOfThreads</code>. 
+   */
+  protected int maxConcurrentTransactions = 0;
+
+  protected transient Semaphore transactionPermits;
+
+  public synchronized void start() {
+    if (! isStarted) {
+      int permits = (maxConcurrentTransactions>0 ? maxConcurrentTransactions : Math.max(nbrOfThreads, 1));
+      transactionPermits = new Semaphore(permits, true);
+    }
+    super.start();
+  }
+
+  protected ExecutorService createWorkerPool() {
+    ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+    if (virtualThreadExecutor!=null) {
+      log.info("job executor '"+name+"' runs jobs on virtual threads");
+      return virtualThreadExecutor;
+    }
+    // without virtual threads, more workers than transaction permits would only wait
+    int poolSize = transactionPermits.availablePermits();
+    log.info("virtual threads not available, job executor '"+name+"' falls back to "+poolSize+" platform threads");
+    return createThreadPool(poolSize);
+  }
+
+  /**
+   * with process instance affinity, every lane is a single virtual thread
+   * that runs the jobs of its process instances one after the other.
+   */
+  protected ExecutorService[] createWorkerLanes() {
+    ThreadFactory virtualThreadFactory = createVirtualThreadFactory(name+":lane:");
+    if (virtualThreadFactory==null) {
+      // without virtual threads, more lanes than transaction permits would only wait
+      int laneCount = transactionPermits.availablePermits();
+      log.info("virtual threads not available, job executor '"+name+"' falls back to "+laneCount+" platform lanes");
+      ExecutorService[] lanes = new ExecutorService[laneCount];
+      for (int i=0; i<lanes.length; i++) {
+        lanes[i] = createThreadPool(1);
+      }
+      return lanes;
+    }
+    log.info("job executor '"+name+"' runs process instance lanes on virtual threads");
+    ExecutorService[] lanes = new ExecutorService[Math.max(nbrOfThreads, 1)];
+    for (int i=0; i<lanes.length; i++) {
+      // the lane thread is created on the first job, not prestarted
+      lanes[i] = new ThreadPoolExecutor(
+          1, 
+          1, 
+          0L, TimeUnit.MILLISECONDS, 
+          new ArrayBlockingQueue(Math.max(queueSize, 1)),
+          virtualThreadFactory,
+          new BlockingSubmitPolicy());
+    }
+    return lanes;
+  }
+
+  /**
+   * creates a thread-per-task executor with named virtual threads.
+   * @return the executor or <code>null</code> if the JVM has no virtual 
+   *   threads.
+   */
+  protected ExecutorService createVirtualThreadExecutor() {
+    ThreadFactory threadFactory = createVirtualThreadFactory(name+":virtual:");
+    if (threadFactory==null) {
+      return null;
+    }
+    try {
+      Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", new Class[]{ThreadFactory.class});
+      return (ExecutorService) newThreadPerTaskExecutor.invoke(null, new Object[]{threadFactory});
+    } catch (Exception e) {
+      log.debug("couldn't create virtual thread executor", e);
+      return null;
+    }
+  }
+
+  /**
+   * creates a factory of virtual threads named with the given prefix and a
+   * counter.  The virtual thread API is looked up reflectively, so that this
+   * class also loads on JVMs that predate it.
+   * @return the factory or <code>null</code> if the JVM has no virtual 
+   *   threads.
+   */
+  protected ThreadFactory createVirtualThreadFactory(String threadNamePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual", new Class[0]).invoke(null, new Object[0]);
+      Class ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      Method nameMethod = ofVirtualClass.getMethod("name", new Class[]{String.class, long.class});
+      builder = nameMethod.invoke(builder, new Object[]{threadNamePrefix, new Long(1)});
+      Class builderClass = Class.forName("java.lang.Thread$Builder");
+      return (ThreadFactory) builderClass.getMethod("factory", new Class[0]).invoke(builder, new Object[0]);
+    } catch (Exception e) {
+      log.debug("couldn't create virtual thread factory", e);
+      return null;
+    }
+  }
+
+  /**
+   * runs the task once a transaction permit is available.
+   */
+  protected void dispatch(final Runnable task, Job job) {
+    super.dispatch(new Runnable() {
+      public void run() {
+        try {
+          transactionPermits.acquire();
+        } catch (InterruptedException e) {
+          log.warn("job executor worker got interrupted while waiting for a transaction permit, the locks of its jobs will be released by the lock monitor");
+          return;
+        }
+        try {
+          task.run();
+        } finally {
+          transactionPermits.release();
+        }
+      }
+    }, job);
+  }
+
+  public int getMaxConcurrentTransactions() {
+    return maxConcurrentTransactions;
+  }
+
+  public void setMaxConcurrentTransactions(int maxConcurrentTransactions) {
+    this.maxConcurrentTransactions = maxConcurrentTransactions;
+  }
+
+  private static Log log = LogFactory.getLog(VirtualThreadJobExecutor.class);
+}
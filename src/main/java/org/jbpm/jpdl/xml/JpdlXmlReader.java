@@ -524,6 +524,15 @@ public class JpdlXmlReader implements ProblemListener {
       node.setAsyncExclusive(true);
     }
 
+    String asyncPriorityText = nodeElement.attributeValue("async-priority");
+    if (asyncPriorityText!=null) {
+      try {
+        node.setAsyncPriority(Integer.parseInt(asyncPriorityText.trim()));
+      } catch (NumberFormatException e) {
+        addWarning("invalid async-priority '"+asyncPriorityText+"' in "+nodeElement.asXML());
+      }
+    }
+
     // parse common subelements
     readNodeTimers(nodeElement, node);
     readEvents(nodeElement, node);
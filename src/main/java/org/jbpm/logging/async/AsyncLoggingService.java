@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.async;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.jbpm.JbpmContext;
+import org.jbpm.JbpmException;
+import org.jbpm.context.log.variableinstance.ByteArrayUpdateLog;
+import org.jbpm.logging.LoggingService;
+import org.jbpm.logging.log.ProcessLog;
+
+/**
+ * logging service that writes the process logs behind the business
+ * transaction.
+ *
+ * <p>The logs of a transaction are collected in memory.  When the
+ * transaction commits, they are detached from the hibernate session and
+ * handed to the {@link LogWriterThread} of the
+ * {@link AsyncLoggingServiceFactory}, which inserts them with a stateless
+ * session.  When the transaction rolls back, the logs are discarded.</p>
+ *
+ * <p>Logs that own other entities, like the byte arrays of a
+ * {@link ByteArrayUpdateLog}, can't be written by a stateless session.
+ * These logs and the composite logs they belong to are saved in the
+ * business transaction, like the {@link org.jbpm.logging.db.DbLoggingService}
+ * does.  The same goes for all logs if the session has no active
+ * hibernate transaction, since then there is no commit to wait for.</p>
+ *
+ * <p>Logs written behind are not visible to the
+ * {@link org.jbpm.db.LoggingSession} until the log writer inserted them.</p>
+ */
+public class AsyncLoggingService implements LoggingService {
+
+  private static final long serialVersionUID = 1L;
+
+  AsyncLoggingServiceFactory asyncLoggingServiceFactory;
+  Session session = null;
+
+  /** logs that are written after the commit, in order of creation */
+  List pendingLogs = new ArrayList();
+  /** identity set of all logs passed to this service */
+  Map loggedLogs = new IdentityHashMap();
+  /** identity set of the root logs that are saved in the business transaction */
+  Map savedRootLogs = new IdentityHashMap();
+  boolean isSynchronizationRegistered = false;
+
+  public AsyncLoggingService(AsyncLoggingServiceFactory asyncLoggingServiceFactory) {
+    JbpmContext currentJbpmContext = JbpmContext.getCurrentJbpmContext();
+    if (currentJbpmContext==null) {
+      throw new JbpmException("instantiation of the AsyncLoggingService requires a current JbpmContext");
+    }
+    this.asyncLoggingServiceFactory = asyncLoggingServiceFactory;
+    this.session = currentJbpmContext.getSession();
+  }
+
+  public void log(ProcessLog processLog) {
+    if (session==null) {
+      return;
+    }
+    // the same process instance can be saved more then once in a context
+    if (loggedLogs.put(processLog, processLog)!=null) {
+      return;
+    }
+
+    ProcessLog rootLog = getRootLog(processLog);
+    if (savedRootLogs.containsKey(rootLog)) {
+      // the children of a saved composite log are saved by cascade
+      session.save(processLog);
+
+    } else if ( (processLog instanceof ByteArrayUpdateLog)
+                || (! isTransactionActive())
+              ) {
+      saveInTransaction(rootLog);
+      session.save(processLog);
+
+    } else {
+      registerSynchronization();
+      pendingLogs.add(processLog);
+    }
+  }
+
+  /**
+   * saves the given root log and all its descendants through the session,
+   * and takes them out of the pending logs.
+   */
+  void saveInTransaction(ProcessLog rootLog) {
+    savedRootLogs.put(rootLog, rootLog);
+    Iterator iter = pendingLogs.iterator();
+    while (iter.hasNext()) {
+      ProcessLog pendingLog = (ProcessLog) iter.next();
+      if (getRootLog(pendingLog)==rootLog) {
+        iter.remove();
+      }
+    }
+    session.save(rootLog);
+  }
+
+  static ProcessLog getRootLog(ProcessLog processLog) {
+    ProcessLog rootLog = processLog;
+    while (rootLog.getParent()!=null) {
+      rootLog = rootLog.getParent();
+    }
+    return rootLog;
+  }
+
+  boolean isTransactionActive() {
+    Transaction transaction = session.getTransaction();
+    return (transaction!=null) && (transaction.isActive());
+  }
+
+  void registerSynchronization() {
+    if (! isSynchronizationRegistered) {
+      session.getTransaction().registerSynchronization(new Synchronization() {
+        public void beforeCompletion() {
+        }
+        public void afterCompletion(int status) {
+          if (status==Status.STATUS_COMMITTED) {
+            transactionCommitted();
+          } else {
+            log.debug("discarding "+pendingLogs.size()+" process logs of rolled back transaction");
+          }
+          pendingLogs = new ArrayList();
+        }
+      });
+      isSynchronizationRegistered = true;
+    }
+  }
+
+  void transactionCommitted() {
+    if (! pendingLogs.isEmpty()) {
+      List detachedLogs = ProcessLogDetacher.detach(pendingLogs, session.getSessionFactory());
+      asyncLoggingServiceFactory.getLogWriter(session.getSessionFactory()).write(detachedLogs);
+    }
+  }
+
+  public void close() {
+  }
+
+  private static Log log = LogFactory.getLog(AsyncLoggingService.class);
+}
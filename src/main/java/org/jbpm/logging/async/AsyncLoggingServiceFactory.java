@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.async;
+
+import org.hibernate.SessionFactory;
+import org.jbpm.svc.Service;
+import org.jbpm.svc.ServiceFactory;
+
+/**
+ * creates {@link AsyncLoggingService}s that share one
+ * {@link LogWriterThread}.  Configure it as the logging service in
+ * jbpm.cfg.xml:
+ *
+ * <pre>
+ * &lt;service name="logging"&gt;
+ *   &lt;factory&gt;
+ *     &lt;bean class="org.jbpm.logging.async.AsyncLoggingServiceFactory"&gt;
+ *       &lt;field name="queueCapacity"&gt;&lt;int value="10000" /&gt;&lt;/field&gt;
+ *       &lt;field name="batchSize"&gt;&lt;int value="500" /&gt;&lt;/field&gt;
+ *       &lt;field name="overflowPolicy"&gt;&lt;string value="spill" /&gt;&lt;/field&gt;
+ *       &lt;field name="spillDirectory"&gt;&lt;string value="/var/spool/jbpm" /&gt;&lt;/field&gt;
+ *     &lt;/bean&gt;
+ *   &lt;/factory&gt;
+ * &lt;/service&gt;
+ * </pre>
+ *
+ * <p>The log writer is started with the first committed transaction that
+ * has logs, and stopped when the jbpm configuration is closed.</p>
+ */
+public class AsyncLoggingServiceFactory implements ServiceFactory {
+
+  private static final long serialVersionUID = 1L;
+
+  String name = "JbpmLogWriter";
+  int queueCapacity = 10000;
+  int batchSize = 500;
+  int flushInterval = 1000;
+  String overflowPolicy = LogWriterThread.OVERFLOW_BLOCK;
+  String spillDirectory = null;
+
+  transient LogWriterThread logWriter = null;
+
+  public Service openService() {
+    return new AsyncLoggingService(this);
+  }
+
+  /**
+   * the log writer for the given session factory, started on first use.
+   */
+  public synchronized LogWriterThread getLogWriter(SessionFactory sessionFactory) {
+    if (logWriter==null) {
+      logWriter = new LogWriterThread(this, sessionFactory);
+      logWriter.start();
+    }
+    return logWriter;
+  }
+
+  /**
+   * the running log writer, or <code>null</code> if none was started.
+   */
+  public synchronized LogWriterThread getLogWriter() {
+    return logWriter;
+  }
+
+  /**
+   * stops the log writer and waits for it to write the queued logs.
+   */
+  public void close() {
+    LogWriterThread stoppedLogWriter;
+    synchronized (this) {
+      stoppedLogWriter = logWriter;
+      logWriter = null;
+    }
+    if (stoppedLogWriter!=null) {
+      stoppedLogWriter.deactivate();
+      try {
+        stoppedLogWriter.join();
+      } catch (InterruptedException e) {
+        // reassert interruption
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+  public void setName(String name) {
+    this.name = name;
+  }
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+  public int getBatchSize() {
+    return batchSize;
+  }
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+  public int getFlushInterval() {
+    return flushInterval;
+  }
+  public void setFlushInterval(int flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+  public String getOverflowPolicy() {
+    return overflowPolicy;
+  }
+  public void setOverflowPolicy(String overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+  public String getSpillDirectory() {
+    return spillDirectory;
+  }
+  public void setSpillDirectory(String spillDirectory) {
+    this.spillDirectory = spillDirectory;
+  }
+}
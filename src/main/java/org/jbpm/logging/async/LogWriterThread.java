@@ -0,0 +1,334 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.async;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.jbpm.JbpmException;
+
+/**
+ * inserts detached process logs from a bounded queue with a stateless
+ * session.  The logs of several business transactions are combined into
+ * one database transaction of up to <code>batchSize</code> logs.
+ *
+ * <p>What happens when the logs of a transaction don't fit in the queue
+ * depends on the overflow policy:</p>
+ * <ul>
+ *   <li>{@link #OVERFLOW_BLOCK}: the committing thread waits for the
+ *   writer.  No logs are lost, but a slow database slows down the
+ *   business transactions again.</li>
+ *   <li>{@link #OVERFLOW_DROP}: the logs of the transaction are dropped
+ *   and counted.</li>
+ *   <li>{@link #OVERFLOW_SPILL}: the logs of the transaction are
+ *   serialized to a file in the spill directory.  The writer inserts the
+ *   spilled logs when the queue runs empty.  Batches that fail to insert
+ *   are spilled as well, so they can be retried later.</li>
+ * </ul>
+ *
+ * <p>The logs of one business transaction always go to the queue, to a
+ * database transaction and to a spill file as a whole, so that composite
+ * logs are never separated from their children.</p>
+ */
+public class LogWriterThread extends Thread {
+
+  public static final String OVERFLOW_BLOCK = "block";
+  public static final String OVERFLOW_DROP = "drop";
+  public static final String OVERFLOW_SPILL = "spill";
+
+  static final String SPILL_FILE_PREFIX = "jbpm-logs-";
+  static final String SPILL_FILE_SUFFIX = ".spill";
+
+  SessionFactory sessionFactory;
+  /** queue of log lists, one per committed transaction */
+  BlockingQueue queue = new LinkedBlockingQueue();
+  /** free queue capacity, counted in logs */
+  Semaphore freeCapacity;
+  int queueCapacity;
+  int batchSize;
+  int flushInterval;
+  String overflowPolicy;
+  File spillDirectory;
+
+  final AtomicLong spillSequence = new AtomicLong();
+
+  final AtomicLong writtenCount = new AtomicLong();
+  final AtomicLong droppedCount = new AtomicLong();
+  final AtomicLong spilledCount = new AtomicLong();
+  final AtomicLong failedCount = new AtomicLong();
+
+  volatile boolean isActive = true;
+
+  public LogWriterThread(AsyncLoggingServiceFactory factory, SessionFactory sessionFactory) {
+    super(factory.getName());
+    setDaemon(true);
+    this.sessionFactory = sessionFactory;
+    this.queueCapacity = factory.getQueueCapacity();
+    this.freeCapacity = new Semaphore(queueCapacity);
+    this.batchSize = factory.getBatchSize();
+    this.flushInterval = factory.getFlushInterval();
+    this.overflowPolicy = factory.getOverflowPolicy();
+    if (OVERFLOW_SPILL.equals(overflowPolicy)) {
+      if (factory.getSpillDirectory()==null) {
+        throw new JbpmException("overflow policy '"+OVERFLOW_SPILL+"' requires a spill directory");
+      }
+      spillDirectory = new File(factory.getSpillDirectory());
+      if ( (! spillDirectory.isDirectory())
+           && (! spillDirectory.mkdirs())
+         ) {
+        throw new JbpmException("couldn't create spill directory '"+spillDirectory+"'");
+      }
+    } else if ( (! OVERFLOW_BLOCK.equals(overflowPolicy))
+                && (! OVERFLOW_DROP.equals(overflowPolicy))
+              ) {
+      throw new JbpmException("unknown overflow policy '"+overflowPolicy+"'");
+    }
+  }
+
+  // producer side ////////////////////////////////////////////////////////////
+
+  /**
+   * hands over the detached logs of one committed transaction.
+   */
+  public void write(List processLogs) {
+    int size = processLogs.size();
+    if (freeCapacity.tryAcquire(size)) {
+      queue.add(processLogs);
+      return;
+    }
+    if (OVERFLOW_BLOCK.equals(overflowPolicy)) {
+      try {
+        // a transaction that is larger than the queue waits for an empty queue
+        freeCapacity.acquire(Math.min(size, queueCapacity));
+        queue.add(processLogs);
+      } catch (InterruptedException e) {
+        // reassert interruption
+        Thread.currentThread().interrupt();
+        throw new JbpmException("interrupted while waiting for the log writer", e);
+      }
+    } else if (OVERFLOW_SPILL.equals(overflowPolicy)) {
+      spill(processLogs);
+    } else {
+      log.warn("log queue is full, dropping "+size+" process logs");
+      droppedCount.addAndGet(size);
+    }
+  }
+
+  // writer side //////////////////////////////////////////////////////////////
+
+  public void run() {
+    try {
+      while (isActive) {
+        try {
+          List batch = takeBatch();
+          if (! batch.isEmpty()) {
+            insert(batch);
+          } else if (spillDirectory!=null) {
+            insertSpilledLogs();
+          }
+        } catch (InterruptedException e) {
+          log.info("log writer thread '"+getName()+"' got interrupted");
+        } catch (Exception e) {
+          log.error("exception in log writer thread. waiting "+flushInterval+" milliseconds", e);
+          try {
+            sleep(flushInterval);
+          } catch (InterruptedException e2) {
+            log.debug("delay after exception got interrupted", e2);
+          }
+        }
+      }
+      // write what is left
+      List batch;
+      while (! (batch = drainBatch(null)).isEmpty()) {
+        insert(batch);
+      }
+    } catch (Exception e) {
+      log.error("exception in log writer thread", e);
+    } finally {
+      log.info(getName()+" leaves cyberspace");
+    }
+  }
+
+  /**
+   * waits at most the flush interval for the first transaction, then takes
+   * whole transactions while the batch stays within the batch size.
+   */
+  List takeBatch() throws InterruptedException {
+    return drainBatch((List) queue.poll(flushInterval, TimeUnit.MILLISECONDS));
+  }
+
+  List drainBatch(List first) {
+    List batch = new ArrayList(batchSize);
+    List transactionLogs = (first!=null ? first : (List) queue.poll());
+    while (transactionLogs!=null) {
+      batch.addAll(transactionLogs);
+      freeCapacity.release(Math.min(transactionLogs.size(), queueCapacity));
+      List next = (List) queue.peek();
+      if ( (next==null)
+           || (batch.size()+next.size()>batchSize)
+         ) {
+        break;
+      }
+      // only this thread takes from the queue
+      transactionLogs = (List) queue.poll();
+    }
+    return batch;
+  }
+
+  void insert(List batch) {
+    StatelessSession statelessSession = sessionFactory.openStatelessSession();
+    try {
+      Transaction transaction = statelessSession.beginTransaction();
+      try {
+        Iterator iter = batch.iterator();
+        while (iter.hasNext()) {
+          // the stateless session generates a new identifier, also for 
+          // logs that were spilled after a failed insert
+          statelessSession.insert(iter.next());
+        }
+        transaction.commit();
+        writtenCount.addAndGet(batch.size());
+      } catch (RuntimeException e) {
+        transaction.rollback();
+        throw e;
+      }
+    } catch (RuntimeException e) {
+      failedCount.addAndGet(batch.size());
+      if (spillDirectory!=null) {
+        log.error("couldn't insert "+batch.size()+" process logs, spilling them", e);
+        spill(batch);
+      } else {
+        log.error("couldn't insert "+batch.size()+" process logs, dropping them", e);
+        droppedCount.addAndGet(batch.size());
+      }
+    } finally {
+      statelessSession.close();
+    }
+  }
+
+  // spilling /////////////////////////////////////////////////////////////////
+
+  void spill(List processLogs) {
+    File spillFile = new File(spillDirectory, SPILL_FILE_PREFIX+System.currentTimeMillis()+"-"+spillSequence.getAndIncrement()+SPILL_FILE_SUFFIX);
+    File tempFile = new File(spillDirectory, spillFile.getName()+".tmp");
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeObject(new ArrayList(processLogs));
+      } finally {
+        out.close();
+      }
+      // the writer only picks up complete files
+      if (! tempFile.renameTo(spillFile)) {
+        throw new IOException("couldn't rename "+tempFile+" to "+spillFile);
+      }
+      spilledCount.addAndGet(processLogs.size());
+    } catch (IOException e) {
+      log.error("couldn't spill "+processLogs.size()+" process logs to "+spillFile+", dropping them", e);
+      droppedCount.addAndGet(processLogs.size());
+      tempFile.delete();
+    }
+  }
+
+  void insertSpilledLogs() throws IOException, ClassNotFoundException {
+    String[] fileNames = spillDirectory.list();
+    if (fileNames==null) {
+      return;
+    }
+    Arrays.sort(fileNames);
+    for (int i=0; (i<fileNames.length) && (isActive) && (queue.isEmpty()); i++) {
+      if ( (fileNames[i].startsWith(SPILL_FILE_PREFIX))
+           && (fileNames[i].endsWith(SPILL_FILE_SUFFIX))
+         ) {
+        File spillFile = new File(spillDirectory, fileNames[i]);
+        List processLogs;
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+        try {
+          processLogs = (List) in.readObject();
+        } finally {
+          in.close();
+        }
+        // a failing insert spills the logs again under a new name
+        if (! spillFile.delete()) {
+          log.warn("couldn't delete spill file "+spillFile);
+        }
+        spilledCount.addAndGet(-processLogs.size());
+        log.debug("inserting "+processLogs.size()+" spilled process logs from "+spillFile);
+        insert(processLogs);
+      }
+    }
+  }
+
+  // lifecycle ////////////////////////////////////////////////////////////////
+
+  /**
+   * stops the writer after it has written the queued logs.
+   */
+  public void deactivate() {
+    if (isActive) {
+      isActive = false;
+      interrupt();
+    }
+  }
+
+  // statistics ///////////////////////////////////////////////////////////////
+
+  /** number of logs waiting in the queue */
+  public int getQueueSize() {
+    return queueCapacity-freeCapacity.availablePermits();
+  }
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+  /** number of logs currently waiting in spill files */
+  public long getSpilledCount() {
+    return spilledCount.get();
+  }
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  private static Log log = LogFactory.getLog(LogWriterThread.class);
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.async;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.EntityMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.Type;
+import org.jbpm.JbpmException;
+import org.jbpm.logging.log.ProcessLog;
+
+/**
+ * copies process logs so that they no longer reference the object graph
+ * of the session they were created in.
+ *
+ * <p>References to other entities, like tokens, nodes and variable
+ * instances, are replaced by stubs that only carry the identifier.  That
+ * is all a stateless insert needs, it keeps the queued logs small and it
+ * makes them cheap to serialize.  Parent references point to the copy of
+ * the parent.  Collections, like the children of a composite log, are
+ * left out.</p>
+ */
+public class ProcessLogDetacher {
+
+  private ProcessLogDetacher() {
+    // hide default constructor to prevent instantiation
+  }
+
+  /**
+   * @param processLogs logs in order of creation, parents before children.
+   * @return the detached copies, in the same order.
+   */
+  public static List detach(List processLogs, SessionFactory sessionFactory) {
+    List detachedLogs = new ArrayList(processLogs.size());
+    Map copies = new IdentityHashMap();
+    Iterator iter = processLogs.iterator();
+    while (iter.hasNext()) {
+      ProcessLog processLog = (ProcessLog) iter.next();
+      ProcessLog copy = detach(processLog, copies, sessionFactory);
+      copies.put(processLog, copy);
+      detachedLogs.add(copy);
+    }
+    return detachedLogs;
+  }
+
+  static ProcessLog detach(ProcessLog processLog, Map copies, SessionFactory sessionFactory) {
+    ClassMetadata classMetadata = sessionFactory.getClassMetadata(processLog.getClass());
+    if (classMetadata==null) {
+      throw new JbpmException("process log class '"+processLog.getClass().getName()+"' is not mapped");
+    }
+    Object[] values = classMetadata.getPropertyValues(processLog, EntityMode.POJO);
+    Type[] types = classMetadata.getPropertyTypes();
+    for (int i=0; i<values.length; i++) {
+      if (values[i]==null) {
+        continue;
+      }
+      if (types[i].isCollectionType()) {
+        values[i] = null;
+      } else if (values[i] instanceof ProcessLog) {
+        Object parentCopy = copies.get(values[i]);
+        values[i] = (parentCopy!=null ? parentCopy : createStub(values[i], sessionFactory));
+      } else if ( (types[i].isEntityType())
+                  || (types[i].isAnyType())
+                ) {
+        values[i] = createStub(values[i], sessionFactory);
+      }
+    }
+
+    ProcessLog copy;
+    try {
+      copy = (ProcessLog) processLog.getClass().newInstance();
+    } catch (Exception e) {
+      throw new JbpmException("couldn't copy process log '"+processLog+"'", e);
+    }
+    classMetadata.setPropertyValues(copy, values, EntityMode.POJO);
+    return copy;
+  }
+
+  /**
+   * creates an instance of the entity's class that only carries the
+   * identifier.  Uninitialized proxies are kept as they are, they
+   * serialize without their session.
+   */
+  static Object createStub(Object entity, SessionFactory sessionFactory) {
+    if (entity instanceof HibernateProxy) {
+      return entity;
+    }
+    ClassMetadata classMetadata = sessionFactory.getClassMetadata(entity.getClass());
+    if (classMetadata==null) {
+      return entity;
+    }
+    Serializable id = classMetadata.getIdentifier(entity, EntityMode.POJO);
+    return classMetadata.instantiate(id, EntityMode.POJO);
+  }
+}
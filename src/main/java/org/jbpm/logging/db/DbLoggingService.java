@@ -43,10 +43,10 @@ public class DbLoggingService implements LoggingService {
 
   public void log(ProcessLog processLog) {
     if (session!=null) {
-      // Improvement suggestions by Max :
-      // db-level: use some hilo based id strategy to avoid repetitive insert. (dependent on db-lock)
-      // sessionwise: use statelesssession or at least different session
-      // can we borrow connection safely. Nag Steve. (open ontop of another session)
+      // logs are inserted when the session flushes.  with the pooled id 
+      // generator (jbpm.id.generator) and hibernate.jdbc.batch_size set, 
+      // the logs of a transaction go to the database in a few jdbc batches.
+      // see HibernateHelper.configureIdentifierGenerators
       session.save(processLog);
     }
   }
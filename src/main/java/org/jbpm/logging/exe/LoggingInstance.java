@@ -40,9 +40,30 @@ public class LoggingInstance extends ModuleInstance {
   
   List logs = new ArrayList();
   transient LinkedList compositeLogStack = new LinkedList();
+  transient ProcessLogFilter filter = null;
+  transient boolean isFilterResolved = false;
   
   public LoggingInstance() {
   }
+
+  /**
+   * tells if logs of the given type must be created for this process 
+   * instance.  For sampled log types, each call makes a new choice.
+   * @see ProcessLogFilter
+   */
+  public boolean isLogEnabled(Class logType) {
+    if (! isFilterResolved) {
+      String processDefinitionName = null;
+      if ( (processInstance!=null)
+           && (processInstance.getProcessDefinition()!=null)
+         ) {
+        processDefinitionName = processInstance.getProcessDefinition().getName();
+      }
+      filter = ProcessLogFilter.getInstance(processDefinitionName);
+      isFilterResolved = true;
+    }
+    return (filter==null) || (filter.isEnabled(logType));
+  }
   
   public void startCompositeLog(CompositeLog compositeLog) {
     addLog(compositeLog);
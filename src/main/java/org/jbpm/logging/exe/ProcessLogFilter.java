@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.exe;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jbpm.JbpmConfiguration;
+
+/**
+ * decides which {@link org.jbpm.logging.log.ProcessLog} types are created
+ * at all.  The code that creates a process log asks
+ * {@link org.jbpm.graph.exe.Token#isLogEnabled(Class)} first, so filtered
+ * logs cost neither the object creation nor the insert.
+ *
+ * <p>A log type is matched against the configured class names with
+ * <code>isAssignableFrom</code>, so excluding
+ * <code>org.jbpm.context.log.VariableLog</code> also excludes the create,
+ * update and delete logs.  Sample rates between 0 and 1 keep that fraction
+ * of the logs of a type, chosen at random.  The most specific configured
+ * class wins.</p>
+ *
+ * <p>The global filter is the <code>jbpm.process.log.filter</code> bean
+ * in jbpm.cfg.xml.  Filters for individual process definitions go in its
+ * <code>processDefinitionFilters</code> map, keyed by process definition
+ * name:</p>
+ *
+ * <pre>
+ * &lt;bean name="jbpm.process.log.filter" class="org.jbpm.logging.exe.ProcessLogFilter" singleton="true"&gt;
+ *   &lt;field name="sampleRates"&gt;
+ *     &lt;map&gt;
+ *       &lt;entry&gt;&lt;key&gt;&lt;string value="org.jbpm.graph.log.ActionLog" /&gt;&lt;/key&gt;&lt;value&gt;&lt;double value="0.01" /&gt;&lt;/value&gt;&lt;/entry&gt;
+ *     &lt;/map&gt;
+ *   &lt;/field&gt;
+ *   &lt;field name="processDefinitionFilters"&gt;
+ *     &lt;map&gt;
+ *       &lt;entry&gt;
+ *         &lt;key&gt;&lt;string value="order" /&gt;&lt;/key&gt;
+ *         &lt;value&gt;
+ *           &lt;bean class="org.jbpm.logging.exe.ProcessLogFilter"&gt;
+ *             &lt;field name="excludedLogTypes"&gt;
+ *               &lt;list&gt;&lt;string value="org.jbpm.context.log.VariableLog" /&gt;&lt;/list&gt;
+ *             &lt;/field&gt;
+ *           &lt;/bean&gt;
+ *         &lt;/value&gt;
+ *       &lt;/entry&gt;
+ *     &lt;/map&gt;
+ *   &lt;/field&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ *
+ * <p>Note that the {@link org.jbpm.db.LoggingSession} and the log based
+ * features, like the task and process instance history, only see the
+ * logs that were created.</p>
+ */
+public class ProcessLogFilter implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String CONFIG_NAME = "jbpm.process.log.filter";
+
+  static final Double ALWAYS = new Double(1.0);
+
+  /** one random generator per thread, so sampling threads don't contend on a shared seed */
+  static final ThreadLocal random = new ThreadLocal() {
+    protected Object initialValue() {
+      return new Random();
+    }
+  };
+
+  /** class names of log types that are never created */
+  List excludedLogTypes = null;
+  /** class name of log type to the fraction of logs that is created */
+  Map sampleRates = null;
+  /** process definition name to the filter for its instances */
+  Map processDefinitionFilters = null;
+
+  /** resolved sample rate per log class */
+  transient Map resolvedSampleRates = new ConcurrentHashMap();
+
+  /**
+   * the configured filter for instances of the given process definition,
+   * or <code>null</code> if no filter is configured.
+   */
+  public static ProcessLogFilter getInstance(String processDefinitionName) {
+    if (! JbpmConfiguration.Configs.hasObject(CONFIG_NAME)) {
+      return null;
+    }
+    ProcessLogFilter filter = (ProcessLogFilter) JbpmConfiguration.Configs.getObject(CONFIG_NAME);
+    return filter.getProcessDefinitionFilter(processDefinitionName);
+  }
+
+  public ProcessLogFilter getProcessDefinitionFilter(String processDefinitionName) {
+    if ( (processDefinitionFilters!=null)
+         && (processDefinitionName!=null)
+       ) {
+      ProcessLogFilter filter = (ProcessLogFilter) processDefinitionFilters.get(processDefinitionName);
+      if (filter!=null) {
+        return filter;
+      }
+    }
+    return this;
+  }
+
+  public boolean isEnabled(Class logType) {
+    double sampleRate = getSampleRate(logType);
+    if (sampleRate>=1.0) {
+      return true;
+    }
+    if (sampleRate<=0.0) {
+      return false;
+    }
+    return ((Random) random.get()).nextDouble()<sampleRate;
+  }
+
+  public double getSampleRate(Class logType) {
+    Double sampleRate = (Double) resolvedSampleRates.get(logType);
+    if (sampleRate==null) {
+      sampleRate = resolveSampleRate(logType);
+      resolvedSampleRates.put(logType, sampleRate);
+    }
+    return sampleRate.doubleValue();
+  }
+
+  Double resolveSampleRate(Class logType) {
+    Double sampleRate = ALWAYS;
+    Class matchedType = null;
+    if (sampleRates!=null) {
+      Iterator iter = sampleRates.entrySet().iterator();
+      while (iter.hasNext()) {
+        Map.Entry entry = (Map.Entry) iter.next();
+        Class type = findMoreSpecificType(logType, (String) entry.getKey(), matchedType);
+        if (type!=null) {
+          matchedType = type;
+          sampleRate = new Double(((Number) entry.getValue()).doubleValue());
+        }
+      }
+    }
+    if (excludedLogTypes!=null) {
+      Iterator iter = excludedLogTypes.iterator();
+      while (iter.hasNext()) {
+        Class type = findMoreSpecificType(logType, (String) iter.next(), matchedType);
+        if (type!=null) {
+          matchedType = type;
+          sampleRate = new Double(0.0);
+        }
+      }
+    }
+    return sampleRate;
+  }
+
+  /**
+   * the superclass of the log type with the given name, if it is more
+   * specific than the matched type.
+   */
+  static Class findMoreSpecificType(Class logType, String typeName, Class matchedType) {
+    for (Class type = logType; type!=null; type = type.getSuperclass()) {
+      if (type.getName().equals(typeName)) {
+        if ( (matchedType==null)
+             || (matchedType.isAssignableFrom(type))
+           ) {
+          return type;
+        }
+        return null;
+      }
+    }
+    return null;
+  }
+
+  Object readResolve() {
+    resolvedSampleRates = new ConcurrentHashMap();
+    return this;
+  }
+
+  public List getExcludedLogTypes() {
+    return excludedLogTypes;
+  }
+  public void setExcludedLogTypes(List excludedLogTypes) {
+    this.excludedLogTypes = excludedLogTypes;
+    resolvedSampleRates.clear();
+  }
+  public Map getSampleRates() {
+    return sampleRates;
+  }
+  public void setSampleRates(Map sampleRates) {
+    this.sampleRates = sampleRates;
+    resolvedSampleRates.clear();
+  }
+  public Map getProcessDefinitionFilters() {
+    return processDefinitionFilters;
+  }
+  public void setProcessDefinitionFilters(Map processDefinitionFilters) {
+    this.processDefinitionFilters = processDefinitionFilters;
+  }
+}
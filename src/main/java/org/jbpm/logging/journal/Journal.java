@@ -0,0 +1,337 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.journal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.JbpmException;
+import org.jbpm.logging.journal.ProcessLogCodec.EncodedLog;
+
+/**
+ * append-only journal of binary frames in a directory of fixed size,
+ * memory-mapped segment files.
+ *
+ * <p>A segment starts with a header of a magic number, a format version
+ * and the base sequence: all sequence numbers reserved before the segment
+ * was created are lower.  Frames follow as length, CRC-32 and payload.
+ * The mapped file is zero filled, so a zero length marks the end of the
+ * segment.  A torn frame at the end of a crashed segment fails the CRC
+ * check and ends the segment as well.</p>
+ *
+ * <p>Appending copies the encoded frames into the mapped buffer under the
+ * journal lock.  The buffer is forced to disk by the sync thread every
+ * <code>syncInterval</code> milliseconds, or after every append if the
+ * interval is 0.  When the journal is opened again, it recovers the
+ * sequence from the last segment and starts a new one.</p>
+ */
+public class Journal {
+
+  static final int MAGIC = 0x4A42504C; // JBPL
+  static final int VERSION = 1;
+  static final int SEGMENT_HEADER_SIZE = 16;
+  static final int FRAME_HEADER_SIZE = 8;
+
+  static final String SEGMENT_PREFIX = "journal-";
+  static final String SEGMENT_SUFFIX = ".seg";
+
+  File directory;
+  int segmentSize;
+  int syncInterval;
+  ProcessLogCodec codec;
+
+  final AtomicLong sequence = new AtomicLong(1);
+
+  long segmentNumber = -1;
+  RandomAccessFile segmentFile = null;
+  MappedByteBuffer segmentBuffer = null;
+  BitSet segmentClassNumbers = new BitSet();
+  boolean isDirty = false;
+  final CRC32 crc = new CRC32();
+
+  JournalSyncThread syncThread = null;
+
+  public Journal(File directory, int segmentSize, int syncInterval, ProcessLogCodec codec) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.syncInterval = syncInterval;
+    this.codec = codec;
+    if ( (! directory.isDirectory())
+         && (! directory.mkdirs())
+       ) {
+      throw new JbpmException("couldn't create journal directory '"+directory+"'");
+    }
+    try {
+      recover();
+    } catch (IOException e) {
+      throw new JbpmException("couldn't open journal in '"+directory+"'", e);
+    }
+    if (syncInterval>0) {
+      syncThread = new JournalSyncThread(this);
+      syncThread.start();
+    }
+  }
+
+  // appending ////////////////////////////////////////////////////////////////
+
+  /**
+   * reserves consecutive sequence numbers for the logs of a transaction.
+   * @return the first reserved number.
+   */
+  public long reserveSequence(int count) {
+    return sequence.getAndAdd(count);
+  }
+
+  /**
+   * appends the frames of the given encoded logs, preceded by the class
+   * frames that the current segment doesn't contain yet.
+   */
+  public synchronized void append(List encodedLogs) {
+    if (segmentBuffer==null) {
+      throw new JbpmException("journal in '"+directory+"' is closed");
+    }
+    try {
+      Iterator iter = encodedLogs.iterator();
+      while (iter.hasNext()) {
+        EncodedLog encodedLog = (EncodedLog) iter.next();
+        ensureCapacity(encodedLog);
+        BitSet classNumbers = encodedLog.classNumbers;
+        for (int i=classNumbers.nextSetBit(0); i>=0; i=classNumbers.nextSetBit(i+1)) {
+          if (! segmentClassNumbers.get(i)) {
+            writeFrame(codec.getClassFrame(i));
+            segmentClassNumbers.set(i);
+          }
+        }
+        writeFrame(encodedLog.payload);
+      }
+      if (syncInterval<=0) {
+        segmentBuffer.force();
+      } else {
+        isDirty = true;
+      }
+    } catch (IOException e) {
+      throw new JbpmException("couldn't append to journal in '"+directory+"'", e);
+    }
+  }
+
+  /**
+   * starts a new segment if the log and all class frames it might need
+   * don't fit in the current one.
+   */
+  void ensureCapacity(EncodedLog encodedLog) throws IOException {
+    int required = FRAME_HEADER_SIZE+encodedLog.payload.length;
+    BitSet classNumbers = encodedLog.classNumbers;
+    for (int i=classNumbers.nextSetBit(0); i>=0; i=classNumbers.nextSetBit(i+1)) {
+      required += FRAME_HEADER_SIZE+codec.getClassFrame(i).length;
+    }
+    if (required>segmentSize-SEGMENT_HEADER_SIZE) {
+      throw new JbpmException("journal frame of "+required+" bytes doesn't fit in a segment of "+segmentSize+" bytes");
+    }
+    if (segmentBuffer.remaining()<required) {
+      startSegment(segmentNumber+1);
+    }
+  }
+
+  void writeFrame(byte[] payload) {
+    crc.reset();
+    crc.update(payload, 0, payload.length);
+    segmentBuffer.putInt(payload.length);
+    segmentBuffer.putInt((int) crc.getValue());
+    segmentBuffer.put(payload);
+  }
+
+  // segments /////////////////////////////////////////////////////////////////
+
+  void startSegment(long number) throws IOException {
+    closeSegment();
+    segmentNumber = number;
+    File file = getSegmentFile(directory, number);
+    log.debug("starting journal segment "+file);
+    segmentFile = new RandomAccessFile(file, "rw");
+    segmentBuffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    segmentBuffer.putInt(MAGIC);
+    segmentBuffer.putInt(VERSION);
+    segmentBuffer.putLong(sequence.get());
+    segmentBuffer.force();
+    segmentClassNumbers.clear();
+  }
+
+  void closeSegment() throws IOException {
+    if (segmentBuffer!=null) {
+      segmentBuffer.force();
+      segmentBuffer = null;
+      isDirty = false;
+    }
+    if (segmentFile!=null) {
+      // the mapping itself is released when the buffer is garbage collected
+      segmentFile.close();
+      segmentFile = null;
+    }
+  }
+
+  /**
+   * recovers the sequence from the last segment and starts a new one.
+   */
+  void recover() throws IOException {
+    long[] segmentNumbers = getSegmentNumbers(directory);
+    long nextSegmentNumber = 0;
+    if (segmentNumbers.length>0) {
+      long lastSegmentNumber = segmentNumbers[segmentNumbers.length-1];
+      long maxSequence = recoverSequence(getSegmentFile(directory, lastSegmentNumber));
+      sequence.set(maxSequence+1);
+      nextSegmentNumber = lastSegmentNumber+1;
+      log.info("recovered journal in '"+directory+"', next sequence is "+sequence.get());
+    }
+    startSegment(nextSegmentNumber);
+  }
+
+  static long recoverSequence(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+      if ( (buffer.remaining()<SEGMENT_HEADER_SIZE)
+           || (buffer.getInt()!=MAGIC)
+         ) {
+        throw new JbpmException("'"+file+"' is not a journal segment");
+      }
+      buffer.getInt(); // version
+      // all sequence numbers reserved before the segment was started are lower
+      long maxSequence = buffer.getLong()-1;
+      byte[] payload;
+      while ((payload = readFrame(buffer))!=null) {
+        if (payload[0]==ProcessLogCodec.FRAME_LOG) {
+          long frameSequence = ProcessLogCodec.createInput(payload, 1).readLong();
+          maxSequence = Math.max(maxSequence, frameSequence);
+        }
+      }
+      return maxSequence;
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * reads the next frame of a segment.
+   * @return the payload or <code>null</code> at the end of the segment.
+   */
+  static byte[] readFrame(ByteBuffer buffer) {
+    if (buffer.remaining()<FRAME_HEADER_SIZE) {
+      return null;
+    }
+    int length = buffer.getInt();
+    int checksum = buffer.getInt();
+    if ( (length<=0)
+         || (length>buffer.remaining())
+       ) {
+      return null;
+    }
+    byte[] payload = new byte[length];
+    buffer.get(payload);
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, length);
+    if ((int) crc.getValue()!=checksum) {
+      log.warn("journal frame with bad checksum, treating it as the end of the segment");
+      return null;
+    }
+    return payload;
+  }
+
+  static File getSegmentFile(File directory, long number) {
+    String digits = Long.toString(number);
+    StringBuffer name = new StringBuffer(SEGMENT_PREFIX);
+    for (int i=digits.length(); i<12; i++) {
+      name.append('0');
+    }
+    return new File(directory, name.append(digits).append(SEGMENT_SUFFIX).toString());
+  }
+
+  static long[] getSegmentNumbers(File directory) {
+    String[] names = directory.list(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (names==null) {
+      return new long[0];
+    }
+    long[] numbers = new long[names.length];
+    for (int i=0; i<names.length; i++) {
+      numbers[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(), names[i].length()-SEGMENT_SUFFIX.length()));
+    }
+    Arrays.sort(numbers);
+    return numbers;
+  }
+
+  // syncing //////////////////////////////////////////////////////////////////
+
+  /**
+   * forces the appended frames to disk.
+   */
+  public synchronized void sync() {
+    if (isDirty) {
+      segmentBuffer.force();
+      isDirty = false;
+    }
+  }
+
+  public void close() {
+    if (syncThread!=null) {
+      syncThread.deactivate();
+      try {
+        syncThread.join();
+      } catch (InterruptedException e) {
+        // reassert interruption
+        Thread.currentThread().interrupt();
+      }
+      syncThread = null;
+    }
+    synchronized (this) {
+      try {
+        closeSegment();
+      } catch (IOException e) {
+        throw new JbpmException("couldn't close journal in '"+directory+"'", e);
+      }
+    }
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+  public int getSyncInterval() {
+    return syncInterval;
+  }
+
+  private static Log log = LogFactory.getLog(Journal.class);
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.journal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.jbpm.JbpmContext;
+import org.jbpm.JbpmException;
+import org.jbpm.logging.LoggingService;
+import org.jbpm.logging.log.ProcessLog;
+
+/**
+ * logging service that appends the process logs to a {@link Journal}
+ * instead of inserting them in the database.
+ *
+ * <p>The logs of a transaction are encoded and appended when the
+ * transaction commits, so that the ids of new tokens and variable
+ * instances are known.  When the transaction rolls back, the logs are
+ * discarded.  If the session has no active hibernate transaction, logs
+ * are appended right away.</p>
+ */
+public class JournalLoggingService implements LoggingService {
+
+  private static final long serialVersionUID = 1L;
+
+  JournalLoggingServiceFactory journalLoggingServiceFactory;
+  Session session = null;
+
+  List pendingLogs = new ArrayList();
+  /** identity set of all logs passed to this service */
+  Map loggedLogs = new IdentityHashMap();
+  boolean isSynchronizationRegistered = false;
+
+  public JournalLoggingService(JournalLoggingServiceFactory journalLoggingServiceFactory) {
+    JbpmContext currentJbpmContext = JbpmContext.getCurrentJbpmContext();
+    if (currentJbpmContext==null) {
+      throw new JbpmException("instantiation of the JournalLoggingService requires a current JbpmContext");
+    }
+    this.journalLoggingServiceFactory = journalLoggingServiceFactory;
+    this.session = currentJbpmContext.getSession();
+  }
+
+  public void log(ProcessLog processLog) {
+    if (session==null) {
+      return;
+    }
+    // the same process instance can be saved more then once in a context
+    if (loggedLogs.put(processLog, processLog)!=null) {
+      return;
+    }
+    Transaction transaction = session.getTransaction();
+    if ( (transaction!=null)
+         && (transaction.isActive())
+       ) {
+      registerSynchronization(transaction);
+      pendingLogs.add(processLog);
+    } else {
+      append(Collections.singletonList(processLog));
+    }
+  }
+
+  void registerSynchronization(Transaction transaction) {
+    if (! isSynchronizationRegistered) {
+      transaction.registerSynchronization(new Synchronization() {
+        public void beforeCompletion() {
+        }
+        public void afterCompletion(int status) {
+          if (status==Status.STATUS_COMMITTED) {
+            append(pendingLogs);
+          } else {
+            log.debug("discarding "+pendingLogs.size()+" process logs of rolled back transaction");
+          }
+          pendingLogs = new ArrayList();
+        }
+      });
+      isSynchronizationRegistered = true;
+    }
+  }
+
+  void append(List processLogs) {
+    if (! processLogs.isEmpty()) {
+      Journal journal = journalLoggingServiceFactory.getJournal(session.getSessionFactory());
+      long firstSequence = journal.reserveSequence(processLogs.size());
+      List encodedLogs = journalLoggingServiceFactory.getCodec().encode(processLogs, firstSequence);
+      journal.append(encodedLogs);
+    }
+  }
+
+  public void close() {
+  }
+
+  private static Log log = LogFactory.getLog(JournalLoggingService.class);
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.journal;
+
+import java.io.File;
+
+import org.hibernate.SessionFactory;
+import org.jbpm.JbpmException;
+import org.jbpm.svc.Service;
+import org.jbpm.svc.ServiceFactory;
+
+/**
+ * creates {@link JournalLoggingService}s that append to one shared
+ * {@link Journal}.  Configure it as the logging service in jbpm.cfg.xml:
+ *
+ * <pre>
+ * &lt;service name="logging"&gt;
+ *   &lt;factory&gt;
+ *     &lt;bean class="org.jbpm.logging.journal.JournalLoggingServiceFactory"&gt;
+ *       &lt;field name="directory"&gt;&lt;string value="/var/lib/jbpm/journal" /&gt;&lt;/field&gt;
+ *       &lt;field name="segmentSize"&gt;&lt;int value="67108864" /&gt;&lt;/field&gt;
+ *       &lt;field name="syncInterval"&gt;&lt;int value="1000" /&gt;&lt;/field&gt;
+ *     &lt;/bean&gt;
+ *   &lt;/factory&gt;
+ * &lt;/service&gt;
+ * </pre>
+ *
+ * <p>The logs can be read back with the
+ * {@link #getJournalReader(SessionFactory) journal reader}.  Only one
+ * jbpm configuration at a time may write to a journal directory.</p>
+ */
+public class JournalLoggingServiceFactory implements ServiceFactory {
+
+  private static final long serialVersionUID = 1L;
+
+  String directory = null;
+  int segmentSize = 64*1024*1024;
+  int syncInterval = 1000;
+
+  transient ProcessLogCodec codec = null;
+  transient Journal journal = null;
+
+  public Service openService() {
+    return new JournalLoggingService(this);
+  }
+
+  /**
+   * the journal, opened on first use.
+   */
+  public synchronized Journal getJournal(SessionFactory sessionFactory) {
+    if (journal==null) {
+      if (directory==null) {
+        throw new JbpmException("journal logging service requires a directory");
+      }
+      codec = new ProcessLogCodec(sessionFactory);
+      journal = new Journal(new File(directory), segmentSize, syncInterval, codec);
+    }
+    return journal;
+  }
+
+  synchronized ProcessLogCodec getCodec() {
+    return codec;
+  }
+
+  /**
+   * a reader for the journal directory.  Reading doesn't require the
+   * journal to be open.
+   */
+  public synchronized JournalReader getJournalReader(SessionFactory sessionFactory) {
+    if (directory==null) {
+      throw new JbpmException("journal logging service requires a directory");
+    }
+    ProcessLogCodec readerCodec = (codec!=null ? codec : new ProcessLogCodec(sessionFactory));
+    return new JournalReader(new File(directory), readerCodec);
+  }
+
+  public void close() {
+    Journal closedJournal;
+    synchronized (this) {
+      closedJournal = journal;
+      journal = null;
+    }
+    if (closedJournal!=null) {
+      closedJournal.close();
+    }
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+  public void setSegmentSize(int segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+  public int getSyncInterval() {
+    return syncInterval;
+  }
+  public void setSyncInterval(int syncInterval) {
+    this.syncInterval = syncInterval;
+  }
+}
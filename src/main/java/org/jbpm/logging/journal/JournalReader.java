@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.journal;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.jbpm.JbpmException;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.logging.journal.ProcessLogCodec.ClassDictionary;
+import org.jbpm.logging.journal.ProcessLogCodec.LogHeader;
+import org.jbpm.logging.log.ProcessLog;
+
+/**
+ * reads process logs back from the segments of a {@link Journal}.
+ *
+ * <p>The finders scan all segments in order and only decode the frames of
+ * the requested process instance or token.  The logs are rebuilt as
+ * process log objects, with the journal sequence number as id and with
+ * proxies of the given session for the referenced tokens, nodes and
+ * other entities.  So they can be used like the results of the
+ * {@link org.jbpm.db.LoggingSession}.</p>
+ */
+public class JournalReader {
+
+  File directory;
+  ProcessLogCodec codec;
+
+  public JournalReader(File directory, ProcessLogCodec codec) {
+    this.directory = directory;
+    this.codec = codec;
+  }
+
+  /**
+   * returns a map that maps {@link Token}s to {@link List}s.  The lists
+   * contain the logs of the token, ordered by their index.
+   * @see org.jbpm.db.LoggingSession#findLogsByProcessInstance(long)
+   */
+  public Map findLogsByProcessInstance(long processInstanceId, Session session) {
+    List logs = findLogs(processInstanceId, 0, session);
+    Map tokenLogs = new HashMap();
+    Iterator iter = logs.iterator();
+    while (iter.hasNext()) {
+      ProcessLog processLog = (ProcessLog) iter.next();
+      Token token = processLog.getToken();
+      List logsOfToken = (List) tokenLogs.get(token);
+      if (logsOfToken==null) {
+        logsOfToken = new ArrayList();
+        tokenLogs.put(token, logsOfToken);
+      }
+      logsOfToken.add(processLog);
+    }
+    iter = tokenLogs.values().iterator();
+    while (iter.hasNext()) {
+      Collections.sort((List) iter.next(), INDEX_COMPARATOR);
+    }
+    return tokenLogs;
+  }
+
+  /**
+   * collects the logs for a given token, ordered by their index.
+   * @see org.jbpm.db.LoggingSession#findLogsByToken(long)
+   */
+  public List findLogsByToken(long tokenId, Session session) {
+    List logs = findLogs(0, tokenId, session);
+    Collections.sort(logs, INDEX_COMPARATOR);
+    return logs;
+  }
+
+  /**
+   * decodes the logs of the given process instance or token, in journal
+   * order.  An id of 0 matches all.
+   */
+  public List findLogs(long processInstanceId, long tokenId, Session session) {
+    List logs = new ArrayList();
+    Map logsBySequence = new HashMap();
+    long[] segmentNumbers = Journal.getSegmentNumbers(directory);
+    for (int i=0; i<segmentNumbers.length; i++) {
+      File segment = Journal.getSegmentFile(directory, segmentNumbers[i]);
+      try {
+        readSegment(segment, processInstanceId, tokenId, logs, logsBySequence, session);
+      } catch (IOException e) {
+        throw new JbpmException("couldn't read journal segment '"+segment+"'", e);
+      }
+    }
+    return logs;
+  }
+
+  void readSegment(File segment, long processInstanceId, long tokenId, List logs, Map logsBySequence, Session session) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(segment, "r");
+    try {
+      ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+      if ( (buffer.remaining()<Journal.SEGMENT_HEADER_SIZE)
+           || (buffer.getInt()!=Journal.MAGIC)
+         ) {
+        throw new JbpmException("'"+segment+"' is not a journal segment");
+      }
+      int version = buffer.getInt();
+      if (version!=Journal.VERSION) {
+        throw new JbpmException("journal segment '"+segment+"' has unsupported version "+version);
+      }
+      buffer.getLong(); // base sequence
+
+      ClassDictionary dictionary = new ClassDictionary();
+      LogHeader header = new LogHeader();
+      byte[] payload;
+      while ((payload = Journal.readFrame(buffer))!=null) {
+        DataInputStream in = ProcessLogCodec.createInput(payload, 1);
+        if (payload[0]==ProcessLogCodec.FRAME_CLASS) {
+          dictionary.readClassFrame(in);
+        } else if (payload[0]==ProcessLogCodec.FRAME_LOG) {
+          header.read(in);
+          if ( ( (processInstanceId==0) || (header.getProcessInstanceId()==processInstanceId) )
+               && ( (tokenId==0) || (header.getTokenId()==tokenId) )
+             ) {
+            ProcessLog processLog = codec.decode(in, header, dictionary, logsBySequence, session);
+            logsBySequence.put(new Long(header.getSequence()), processLog);
+            logs.add(processLog);
+          }
+        }
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  static final Comparator INDEX_COMPARATOR = new Comparator() {
+    public int compare(Object o1, Object o2) {
+      int index1 = ((ProcessLog) o1).getIndex();
+      int index2 = ((ProcessLog) o2).getIndex();
+      return (index1<index2 ? -1 : (index1==index2 ? 0 : 1));
+    }
+  };
+}
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.journal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * forces the appended frames of a {@link Journal} to disk every sync
+ * interval.
+ */
+public class JournalSyncThread extends Thread {
+
+  Journal journal;
+  volatile boolean isActive = true;
+
+  public JournalSyncThread(Journal journal) {
+    super("JbpmJournalSync:"+journal.getDirectory().getName());
+    setDaemon(true);
+    this.journal = journal;
+  }
+
+  public void run() {
+    try {
+      while (isActive) {
+        try {
+          sleep(journal.getSyncInterval());
+        } catch (InterruptedException e) {
+          log.debug("journal sync thread '"+getName()+"' got interrupted");
+        }
+        try {
+          journal.sync();
+        } catch (Exception e) {
+          log.error("couldn't sync journal", e);
+        }
+      }
+    } finally {
+      log.info(getName()+" leaves cyberspace");
+    }
+  }
+
+  public void deactivate() {
+    if (isActive) {
+      isActive = false;
+      interrupt();
+    }
+  }
+
+  private static Log log = LogFactory.getLog(JournalSyncThread.class);
+}
@@ -0,0 +1,440 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.logging.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.EntityMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.hibernate.type.Type;
+import org.jbpm.JbpmException;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.logging.log.ProcessLog;
+import org.jbpm.util.CustomLoaderObjectInputStream;
+
+/**
+ * encodes process logs into compact binary frames and back.
+ *
+ * <p>A log frame holds the journal sequence number of the log, the ids of
+ * its process instance and token, a class number and the values of the
+ * mapped properties of the log.  Class numbers refer to class frames,
+ * which hold the class name and the property names.  A segment always
+ * contains the class frame before the first log frame that uses it, so
+ * each segment can be decoded on its own.</p>
+ *
+ * <p>References to other entities are stored as entity name and
+ * identifier.  Entities without an identifier, like the byte arrays of a
+ * new variable value, are stored inline in serialized form.  The parent
+ * of a log is stored as the sequence number of the parent log.</p>
+ */
+public class ProcessLogCodec {
+
+  static final byte FRAME_CLASS = 1;
+  static final byte FRAME_LOG = 2;
+
+  static final byte VALUE_NULL = 0;
+  static final byte VALUE_STRING = 1;
+  static final byte VALUE_INT = 2;
+  static final byte VALUE_LONG = 3;
+  static final byte VALUE_DOUBLE = 4;
+  static final byte VALUE_DATE = 5;
+  static final byte VALUE_BOOLEAN = 6;
+  static final byte VALUE_CHAR = 7;
+  static final byte VALUE_ENTITY = 8;
+  static final byte VALUE_LOG = 9;
+  static final byte VALUE_SERIALIZED = 10;
+
+  SessionFactory sessionFactory;
+  Map classNumbers = new ConcurrentHashMap();
+  List classFrames = new ArrayList();
+
+  public ProcessLogCodec(SessionFactory sessionFactory) {
+    this.sessionFactory = sessionFactory;
+  }
+
+  /**
+   * a log frame together with the classes it refers to.
+   */
+  public static class EncodedLog {
+    byte[] payload;
+    BitSet classNumbers = new BitSet();
+  }
+
+  // encoding /////////////////////////////////////////////////////////////////
+
+  /**
+   * encodes the logs of one transaction.
+   * @param firstSequence the sequence number of the first log, the
+   *   others follow in order.
+   */
+  public List encode(List processLogs, long firstSequence) {
+    List encodedLogs = new ArrayList(processLogs.size());
+    Map sequences = new IdentityHashMap();
+    long sequence = firstSequence;
+    Iterator iter = processLogs.iterator();
+    while (iter.hasNext()) {
+      ProcessLog processLog = (ProcessLog) iter.next();
+      sequences.put(processLog, new Long(sequence));
+      try {
+        encodedLogs.add(encode(processLog, sequence, sequences));
+      } catch (IOException e) {
+        throw new JbpmException("couldn't encode process log '"+processLog+"'", e);
+      }
+      sequence++;
+    }
+    return encodedLogs;
+  }
+
+  EncodedLog encode(ProcessLog processLog, long sequence, Map sequences) throws IOException {
+    EncodedLog encodedLog = new EncodedLog();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    ClassMetadata classMetadata = getClassMetadata(processLog.getClass().getName());
+    int classNumber = getClassNumber(processLog.getClass().getName(), classMetadata);
+    encodedLog.classNumbers.set(classNumber);
+
+    Token token = processLog.getToken();
+    out.writeByte(FRAME_LOG);
+    out.writeLong(sequence);
+    out.writeLong( (token!=null && token.getProcessInstance()!=null) ? token.getProcessInstance().getId() : 0);
+    out.writeLong( (token!=null) ? token.getId() : 0);
+    out.writeInt(classNumber);
+
+    Object[] values = classMetadata.getPropertyValues(processLog, EntityMode.POJO);
+    Type[] types = classMetadata.getPropertyTypes();
+    for (int i=0; i<values.length; i++) {
+      if (! types[i].isCollectionType()) {
+        writeValue(out, values[i], types[i], sequences, encodedLog);
+      }
+    }
+    out.flush();
+    encodedLog.payload = bytes.toByteArray();
+    return encodedLog;
+  }
+
+  void writeValue(DataOutputStream out, Object value, Type type, Map sequences, EncodedLog encodedLog) throws IOException {
+    if (value==null) {
+      out.writeByte(VALUE_NULL);
+    } else if (value instanceof ProcessLog) {
+      Long parentSequence = (Long) sequences.get(value);
+      if (parentSequence!=null) {
+        out.writeByte(VALUE_LOG);
+        out.writeLong(parentSequence.longValue());
+      } else {
+        out.writeByte(VALUE_NULL);
+      }
+    } else if ( (type!=null)
+                && (type.isEntityType() || type.isAnyType())
+              ) {
+      writeEntity(out, value, sequences, encodedLog);
+    } else if (value instanceof String) {
+      out.writeByte(VALUE_STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof Integer) {
+      out.writeByte(VALUE_INT);
+      out.writeInt(((Integer) value).intValue());
+    } else if (value instanceof Long) {
+      out.writeByte(VALUE_LONG);
+      out.writeLong(((Long) value).longValue());
+    } else if (value instanceof Double) {
+      out.writeByte(VALUE_DOUBLE);
+      out.writeDouble(((Double) value).doubleValue());
+    } else if (value instanceof Date) {
+      out.writeByte(VALUE_DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (value instanceof Boolean) {
+      out.writeByte(VALUE_BOOLEAN);
+      out.writeBoolean(((Boolean) value).booleanValue());
+    } else if (value instanceof Character) {
+      out.writeByte(VALUE_CHAR);
+      out.writeChar(((Character) value).charValue());
+    } else {
+      writeSerialized(out, value);
+    }
+  }
+
+  void writeEntity(DataOutputStream out, Object entity, Map sequences, EncodedLog encodedLog) throws IOException {
+    String entityName;
+    Serializable id;
+    if (entity instanceof HibernateProxy) {
+      LazyInitializer lazyInitializer = ((HibernateProxy) entity).getHibernateLazyInitializer();
+      entityName = lazyInitializer.getEntityName();
+      id = lazyInitializer.getIdentifier();
+    } else {
+      ClassMetadata classMetadata = sessionFactory.getClassMetadata(entity.getClass());
+      if (classMetadata==null) {
+        writeSerialized(out, entity);
+        return;
+      }
+      entityName = classMetadata.getEntityName();
+      id = classMetadata.getIdentifier(entity, EntityMode.POJO);
+    }
+    if ( (id==null)
+         || ( (id instanceof Long) && (((Long) id).longValue()==0) )
+       ) {
+      // not persisted, e.g. the new value of a byte array update
+      writeSerialized(out, entity);
+      return;
+    }
+    int classNumber = getClassNumber(entityName, null);
+    encodedLog.classNumbers.set(classNumber);
+    out.writeByte(VALUE_ENTITY);
+    out.writeInt(classNumber);
+    writeValue(out, id, null, sequences, encodedLog);
+  }
+
+  void writeSerialized(DataOutputStream out, Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+    objectOut.writeObject(value);
+    objectOut.flush();
+    out.writeByte(VALUE_SERIALIZED);
+    out.writeInt(bytes.size());
+    bytes.writeTo(out);
+  }
+
+  static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  // class frames /////////////////////////////////////////////////////////////
+
+  /**
+   * the class frame for the given class number.
+   */
+  public synchronized byte[] getClassFrame(int classNumber) {
+    return (byte[]) classFrames.get(classNumber);
+  }
+
+  /**
+   * numbers classes in order of first use.  The class frame of an entity
+   * class that is only referenced has no property names.
+   */
+  int getClassNumber(String className, ClassMetadata classMetadata) throws IOException {
+    // log classes and referenced entity classes are numbered separately
+    String key = (classMetadata!=null ? className : "@"+className);
+    Integer classNumber = (Integer) classNumbers.get(key);
+    if (classNumber==null) {
+      synchronized (this) {
+        classNumber = (Integer) classNumbers.get(key);
+        if (classNumber==null) {
+          classNumber = new Integer(classFrames.size());
+          classFrames.add(createClassFrame(classNumber.intValue(), className, classMetadata));
+          classNumbers.put(key, classNumber);
+        }
+      }
+    }
+    return classNumber.intValue();
+  }
+
+  static byte[] createClassFrame(int classNumber, String className, ClassMetadata classMetadata) throws IOException {
+    List propertyNames = new ArrayList();
+    if (classMetadata!=null) {
+      String[] names = classMetadata.getPropertyNames();
+      Type[] types = classMetadata.getPropertyTypes();
+      for (int i=0; i<names.length; i++) {
+        if (! types[i].isCollectionType()) {
+          propertyNames.add(names[i]);
+        }
+      }
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(FRAME_CLASS);
+    out.writeInt(classNumber);
+    writeString(out, className);
+    out.writeInt(propertyNames.size());
+    for (int i=0; i<propertyNames.size(); i++) {
+      writeString(out, (String) propertyNames.get(i));
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  ClassMetadata getClassMetadata(String className) {
+    ClassMetadata classMetadata = sessionFactory.getClassMetadata(className);
+    if (classMetadata==null) {
+      throw new JbpmException("process log class '"+className+"' is not mapped");
+    }
+    return classMetadata;
+  }
+
+  // decoding /////////////////////////////////////////////////////////////////
+
+  /**
+   * the class names and property names of the class frames read so far in
+   * a segment, indexed by class number.
+   */
+  public static class ClassDictionary {
+    Map classNames = new HashMap();
+    Map propertyNames = new HashMap();
+
+    void readClassFrame(DataInput in) throws IOException {
+      Integer classNumber = new Integer(in.readInt());
+      classNames.put(classNumber, readString(in));
+      String[] names = new String[in.readInt()];
+      for (int i=0; i<names.length; i++) {
+        names[i] = readString(in);
+      }
+      propertyNames.put(classNumber, names);
+    }
+  }
+
+  /**
+   * the fixed fields at the start of a log frame.
+   */
+  public static class LogHeader {
+    long sequence;
+    long processInstanceId;
+    long tokenId;
+    int classNumber;
+
+    void read(DataInput in) throws IOException {
+      sequence = in.readLong();
+      processInstanceId = in.readLong();
+      tokenId = in.readLong();
+      classNumber = in.readInt();
+    }
+    public long getSequence() {
+      return sequence;
+    }
+    public long getProcessInstanceId() {
+      return processInstanceId;
+    }
+    public long getTokenId() {
+      return tokenId;
+    }
+  }
+
+  /**
+   * decodes the property values of a log frame, after its header.
+   * Entity references become proxies of the given session.
+   * @param logs the logs decoded so far, by sequence number, to resolve
+   *   parent references.
+   */
+  public ProcessLog decode(DataInput in, LogHeader header, ClassDictionary dictionary, Map logs, Session session) throws IOException {
+    Integer classNumber = new Integer(header.classNumber);
+    String className = (String) dictionary.classNames.get(classNumber);
+    String[] propertyNames = (String[]) dictionary.propertyNames.get(classNumber);
+    if (className==null) {
+      throw new JbpmException("journal frame "+header.sequence+" refers to undefined class "+classNumber);
+    }
+    ClassMetadata classMetadata = getClassMetadata(className);
+    String[] mappedNames = classMetadata.getPropertyNames();
+    Object[] values = new Object[mappedNames.length];
+    for (int i=0; i<propertyNames.length; i++) {
+      Object value = readValue(in, dictionary, logs, session);
+      int index = indexOf(mappedNames, propertyNames[i]);
+      // properties that were removed from the mapping are skipped
+      if (index!=-1) {
+        values[index] = value;
+      }
+    }
+    ProcessLog processLog = (ProcessLog) classMetadata.instantiate(new Long(header.sequence), EntityMode.POJO);
+    classMetadata.setPropertyValues(processLog, values, EntityMode.POJO);
+    return processLog;
+  }
+
+  Object readValue(DataInput in, ClassDictionary dictionary, Map logs, Session session) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case VALUE_NULL:
+        return null;
+      case VALUE_STRING:
+        return readString(in);
+      case VALUE_INT:
+        return new Integer(in.readInt());
+      case VALUE_LONG:
+        return new Long(in.readLong());
+      case VALUE_DOUBLE:
+        return new Double(in.readDouble());
+      case VALUE_DATE:
+        return new Date(in.readLong());
+      case VALUE_BOOLEAN:
+        return Boolean.valueOf(in.readBoolean());
+      case VALUE_CHAR:
+        return new Character(in.readChar());
+      case VALUE_LOG:
+        return logs.get(new Long(in.readLong()));
+      case VALUE_ENTITY: {
+        String entityName = (String) dictionary.classNames.get(new Integer(in.readInt()));
+        Serializable id = (Serializable) readValue(in, dictionary, logs, session);
+        return session.load(entityName, id);
+      }
+      case VALUE_SERIALIZED: {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        ObjectInputStream objectIn = new CustomLoaderObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+          return objectIn.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new JbpmException("couldn't deserialize journal value", e);
+        }
+      }
+      default:
+        throw new JbpmException("unknown journal value tag "+tag);
+    }
+  }
+
+  static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  static int indexOf(String[] names, String name) {
+    for (int i=0; i<names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  static DataInputStream createInput(byte[] payload, int offset) {
+    return new DataInputStream(new ByteArrayInputStream(payload, offset, payload.length-offset));
+  }
+}
@@ -58,9 +58,7 @@ public class DbMessageService implements MessageService {
          && (jobExecutor!=null)
        ) {
       log.debug("messages were produced, job executor will be signalled");
-      synchronized(jobExecutor) {
-        jobExecutor.notify();
-      }
+      jobExecutor.signalDueJobs(1);
     }
   }
   
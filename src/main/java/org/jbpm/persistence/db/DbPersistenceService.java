@@ -27,6 +27,7 @@ import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.FlushMode;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.StaleStateException;
@@ -62,6 +63,7 @@ public class DbPersistenceService implements Service, PersistenceService {
   protected Session session;
   protected boolean mustSessionBeFlushed = false;
   protected boolean mustSessionBeClosed = false;
+  protected boolean isReadOnly = false;
 
   protected Services services = null;
 
@@ -119,6 +121,10 @@ public class DbPersistenceService implements Service, PersistenceService {
         mustSessionBeFlushed = true;
         mustConnectionBeClosed = false;
       }
+
+      if (isReadOnly) {
+        applyReadOnly();
+      }
       
       if (isTransactionEnabled) {
         beginTransaction();
@@ -173,11 +179,16 @@ public class DbPersistenceService implements Service, PersistenceService {
 
   public Connection getConnection(boolean resolveSession) {
     if (connection==null) {
-      if (persistenceServiceFactory.getDataSource()!=null) { 
+      DataSource dataSource = getConnectionDataSource();
+      if (dataSource!=null) { 
         try {
           log.debug("fetching jdbc connection from datasource");
-          connection = persistenceServiceFactory.getDataSource().getConnection();
+          connection = dataSource.getConnection();
           mustConnectionBeClosed = true;
+          if (isReadOnly) {
+            // a hint for the driver, which may route the connection to a replica
+            connection.setReadOnly(true);
+          }
         } catch (Exception e) {
           // NOTE that Error's are not caught because that might halt the JVM and mask the original Error.
           throw new JbpmException("couldn't obtain connection from datasource", e);
@@ -196,6 +207,31 @@ public class DbPersistenceService implements Service, PersistenceService {
     }
     return connection;
   }
+
+  DataSource getConnectionDataSource() {
+    if ( (isReadOnly)
+         && (persistenceServiceFactory.getReadOnlyDataSource()!=null)
+       ) {
+      return persistenceServiceFactory.getReadOnlyDataSource();
+    }
+    return persistenceServiceFactory.getDataSource();
+  }
+
+  /**
+   * a read-only session is never flushed, so hibernate doesn't dirty check
+   * the loaded objects on commit.  sessions that are not opened by this 
+   * persistence service are left untouched, their owner decides when they 
+   * are flushed.
+   */
+  void applyReadOnly() {
+    if (mustSessionBeClosed) {
+      log.debug("setting manual flush mode on read-only hibernate session");
+      session.setFlushMode(FlushMode.MANUAL);
+      mustSessionBeFlushed = false;
+    } else {
+      log.debug("read-only mode doesn't change the flush mode of a session that is managed externally");
+    }
+  }
   
   public boolean isTransactionActive() {
     return transaction != null && transaction.isActive();
@@ -299,6 +335,9 @@ public class DbPersistenceService implements Service, PersistenceService {
             && (! connection.isClosed())
            ) {
           log.debug("closing jdbc connection");
+          if (isReadOnly) {
+            connection.setReadOnly(false);
+          }
           connection.close();
         } else {
           log.warn("jdbc connection was already closed");
@@ -427,6 +466,32 @@ public class DbPersistenceService implements Service, PersistenceService {
     txService.setRollbackOnly();
   }
 
+  public boolean isReadOnly() {
+    return isReadOnly;
+  }
+
+  /**
+   * puts this persistence service in read-only mode, for work that only 
+   * queries.  the hibernate session is not flushed, connections are taken 
+   * from the read-only datasource of the factory if one is configured and 
+   * they are marked read-only.  read-only mode must be set before the 
+   * session is opened to take effect on the connection.
+   */
+  public void setReadOnly(boolean isReadOnly) {
+    if ( (session!=null)
+         && (this.isReadOnly)
+         && (! isReadOnly)
+       ) {
+      throw new JbpmException("couldn't leave read-only mode, the hibernate session was opened read-only");
+    }
+    this.isReadOnly = isReadOnly;
+    if ( (session!=null)
+         && (isReadOnly)
+       ) {
+      applyReadOnly();
+    }
+  }
+
   public void setSession(Session session) {
     this.session = session;
     log.debug("injecting a session disables transaction");
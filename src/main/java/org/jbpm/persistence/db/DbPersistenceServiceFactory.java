@@ -48,6 +48,9 @@ public class DbPersistenceServiceFactory implements ServiceFactory
   String dataSourceJndiName = null;
   DataSource dataSource = null;
 
+  String readOnlyDataSourceJndiName = null;
+  DataSource readOnlyDataSource = null;
+
   boolean isTransactionEnabled = true;
   boolean isCurrentSessionEnabled = false;
 
@@ -118,6 +121,20 @@ public class DbPersistenceServiceFactory implements ServiceFactory
     return dataSource;
   }
 
+  /**
+   * the datasource that read-only persistence services take their connections from, typically a read replica of the
+   * database. If none is configured, read-only persistence services use the regular datasource.
+   */
+  public DataSource getReadOnlyDataSource()
+  {
+    if ((readOnlyDataSource == null) && (readOnlyDataSourceJndiName != null))
+    {
+      log.debug("looking up read-only datasource from jndi location '" + readOnlyDataSourceJndiName + "'");
+      readOnlyDataSource = (DataSource)JndiUtil.lookup(readOnlyDataSourceJndiName, DataSource.class);
+    }
+    return readOnlyDataSource;
+  }
+
   public void cleanSchema()
   {
     new JbpmSchema(getConfiguration()).cleanSchema();
@@ -191,6 +208,21 @@ public class DbPersistenceServiceFactory implements ServiceFactory
     this.dataSource = dataSource;
   }
 
+  public String getReadOnlyDataSourceJndiName()
+  {
+    return readOnlyDataSourceJndiName;
+  }
+
+  public void setReadOnlyDataSourceJndiName(String readOnlyDataSourceJndiName)
+  {
+    this.readOnlyDataSourceJndiName = readOnlyDataSourceJndiName;
+  }
+
+  public void setReadOnlyDataSource(DataSource readOnlyDataSource)
+  {
+    this.readOnlyDataSource = readOnlyDataSource;
+  }
+
   public void setSchemaExport(SchemaExport schemaExport)
   {
     this.schemaExport = schemaExport;
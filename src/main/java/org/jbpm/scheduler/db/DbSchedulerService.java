@@ -21,8 +21,17 @@
  */
 package org.jbpm.scheduler.db;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.jbpm.JbpmContext;
 import org.jbpm.JbpmException;
 import org.jbpm.db.JobSession;
@@ -39,8 +48,11 @@ public class DbSchedulerService implements SchedulerService {
   private static final Log log = LogFactory.getLog(DbSchedulerService.class);
   
   JobSession jobSession = null;
+  Session session = null;
   JobExecutor jobExecutor = null;
   boolean hasProducedJobs = false;
+  /** timers created in the current transaction, scheduled on the timer wheel after commit */
+  List pendingWakeUps = null;
 
   public DbSchedulerService() {
     JbpmContext jbpmContext = JbpmContext.getCurrentJbpmContext();
@@ -48,12 +60,50 @@ public class DbSchedulerService implements SchedulerService {
       throw new JbpmException("instantiation of the DbSchedulerService requires a current JbpmContext");
     }
     this.jobSession = jbpmContext.getJobSession();
+    this.session = jbpmContext.getSession();
     this.jobExecutor = jbpmContext.getJbpmConfiguration().getJobExecutor();
   }
   
   public void createTimer(Timer timerJob) {
     jobSession.saveJob(timerJob);
     hasProducedJobs = true;
+    if ( (jobExecutor != null)
+         && (jobExecutor.isTimerWheelActive())
+       ) {
+      scheduleWakeUpAfterCommit(timerJob);
+    }
+  }
+
+  /**
+   * schedules the wake-up for the timer once the transaction has committed,
+   * so that no job executor thread looks for the timer before it is 
+   * visible.  Without an active hibernate transaction, the wake-up is 
+   * scheduled right away.
+   */
+  void scheduleWakeUpAfterCommit(Timer timer) {
+    Transaction transaction = (session!=null ? session.getTransaction() : null);
+    if ( (transaction==null)
+         || (! transaction.isActive())
+       ) {
+      jobExecutor.scheduleWakeUp(timer);
+      return;
+    }
+    if (pendingWakeUps==null) {
+      pendingWakeUps = new ArrayList();
+      transaction.registerSynchronization(new Synchronization() {
+        public void beforeCompletion() {
+        }
+        public void afterCompletion(int status) {
+          if (status==Status.STATUS_COMMITTED) {
+            for (Iterator iter = pendingWakeUps.iterator(); iter.hasNext();) {
+              jobExecutor.scheduleWakeUp((Timer) iter.next());
+            }
+          }
+          pendingWakeUps = null;
+        }
+      });
+    }
+    pendingWakeUps.add(timer);
   }
 
   public void deleteTimer(Timer timer) {
@@ -71,9 +121,7 @@ public class DbSchedulerService implements SchedulerService {
   public void close() {
     if (hasProducedJobs && jobExecutor != null) {
       log.debug("timers were produced, job executor will be signalled");
-      synchronized (jobExecutor) {
-        jobExecutor.notify();
-      }
+      jobExecutor.signalDueJobs(1);
     }
   }
 }
@@ -49,6 +49,7 @@ public class CreateTimerAction extends Action {
   String dueDate = null;
   String repeat = null;
   String transitionName = null;
+  int priority = 0;
   Action timerAction = null;
 
   public void read(Element actionElement, JpdlXmlReader jpdlReader) {
@@ -65,6 +66,15 @@ public class CreateTimerAction extends Action {
       repeat = dueDate;
     }
     transitionName = actionElement.attributeValue("transition");
+
+    String priorityText = actionElement.attributeValue("priority");
+    if (priorityText!=null) {
+      try {
+        priority = Integer.parseInt(priorityText.trim());
+      } catch (NumberFormatException e) {
+        jpdlReader.addWarning("invalid priority '"+priorityText+"' in create timer action '"+actionElement+"'");
+      }
+    }
     
     if ( (transitionName!=null)
          && (repeat!=null) 
@@ -89,6 +99,7 @@ public class CreateTimerAction extends Action {
     Timer timer = new Timer(executionContext.getToken());
     timer.setName(timerName);
     timer.setRepeat(repeat);
+    timer.setPriority(priority);
     if (dueDate!=null) {
       if (dueDate.startsWith("#")) {
         String baseDateEL = dueDate.substring(0,dueDate.indexOf("}")+1);
@@ -161,6 +172,12 @@ public class CreateTimerAction extends Action {
   public void setTransitionName(String transitionName) {
     this.transitionName = transitionName;
   }
+  public int getPriority() {
+    return priority;
+  }
+  public void setPriority(int priority) {
+    this.priority = priority;
+  }
   public String getTimerName() {
     return timerName;
   }
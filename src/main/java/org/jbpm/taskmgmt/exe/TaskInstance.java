@@ -302,7 +302,7 @@ public class TaskInstance extends VariableContainer implements Identifiable, Ass
     }
 
     // add the log
-    if (token != null)
+    if ((token != null) && (token.isLogEnabled(TaskAssignLog.class)))
     {
       // log this assignment
       token.addLog(new TaskAssignLog(this, previousActorId, actorId));
@@ -467,7 +467,7 @@ public class TaskInstance extends VariableContainer implements Identifiable, Ass
     }
 
     // log this assignment
-    if (token != null)
+    if ((token != null) && (token.isLogEnabled(TaskEndLog.class)))
     {
       token.addLog(new TaskEndLog(this));
     }
@@ -235,7 +235,9 @@ public class TaskMgmtInstance extends ModuleInstance
       // log this creation
       // WARNING: The events create and assign are fired in the right order, but
       // the logs are still not ordered properly.
-      token.addLog(new TaskCreateLog(taskInstance, taskInstance.getActorId()));
+      if (token.isLogEnabled(TaskCreateLog.class)) {
+        token.addLog(new TaskCreateLog(taskInstance, taskInstance.getActorId()));
+      }
 
     }
     else
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.bytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.jbpm.AbstractJbpmTestCase;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+
+/**
+ * serializes byte arrays stored as blob, whose contents are transient.
+ */
+public class ByteArraySerializationTest extends AbstractJbpmTestCase
+{
+  JbpmConfiguration jbpmConfiguration;
+  JbpmContext jbpmContext;
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    jbpmConfiguration = JbpmConfiguration.parseXmlString(
+        "<jbpm-configuration>" +
+        "  <jbpm-context />" +
+        "  <int name='jbpm.byte.block.size' value='16' singleton='true' />" +
+        "  <string name='jbpm.byte.array.storage' value='blob' />" +
+        "</jbpm-configuration>");
+    jbpmContext = jbpmConfiguration.createJbpmContext();
+  }
+
+  protected void tearDown() throws Exception
+  {
+    jbpmContext.close();
+    jbpmConfiguration.close();
+    super.tearDown();
+  }
+
+  public void testBlobContentsAreSerialized() throws Exception
+  {
+    byte[] bytes = ByteBlockChopperTest.createBytes(40);
+    ByteArray byteArray = new ByteArray("document", bytes);
+    assertTrue(byteArray.isStoredAsBlob());
+
+    ByteArray copy = serializeAndDeserialize(byteArray);
+    assertFalse(copy.isStoredAsBlob());
+    assertEquals("document", copy.name);
+    assertEquals(40, copy.getLength());
+    assertTrue(Arrays.equals(bytes, copy.getBytes()));
+
+    // the original keeps its blob and gets no blocks
+    assertTrue(byteArray.isStoredAsBlob());
+    assertNull(byteArray.getByteBlocks());
+  }
+
+  public void testEmptyBlob() throws Exception
+  {
+    ByteArray copy = serializeAndDeserialize(new ByteArray("empty", new byte[0]));
+    assertNull(copy.getByteBlocks());
+    assertEquals(0, copy.getLength());
+  }
+
+  public void testNullBytes() throws Exception
+  {
+    ByteArray copy = serializeAndDeserialize(new ByteArray("null", null));
+    assertFalse(copy.isStoredAsBlob());
+    assertNull(copy.getBytes());
+  }
+
+  static ByteArray serializeAndDeserialize(ByteArray byteArray) throws Exception
+  {
+    ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
+    ObjectOutputStream objectStream = new ObjectOutputStream(memoryStream);
+    objectStream.writeObject(byteArray);
+    objectStream.close();
+    ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(memoryStream.toByteArray()));
+    return (ByteArray)objectInputStream.readObject();
+  }
+}
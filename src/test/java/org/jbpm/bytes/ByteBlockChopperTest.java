@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jbpm.AbstractJbpmTestCase;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+
+/**
+ * checks that streaming and counting the byte blocks gives the same bytes 
+ * as gluing them back together.
+ */
+public class ByteBlockChopperTest extends AbstractJbpmTestCase
+{
+  static final int BLOCK_SIZE = 16;
+
+  JbpmConfiguration jbpmConfiguration;
+  JbpmContext jbpmContext;
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    jbpmConfiguration = JbpmConfiguration.parseXmlString(
+        "<jbpm-configuration>" +
+        "  <jbpm-context />" +
+        "  <int name='jbpm.byte.block.size' value='" + BLOCK_SIZE + "' singleton='true' />" +
+        "</jbpm-configuration>");
+    jbpmContext = jbpmConfiguration.createJbpmContext();
+  }
+
+  protected void tearDown() throws Exception
+  {
+    jbpmContext.close();
+    jbpmConfiguration.close();
+    super.tearDown();
+  }
+
+  public void testEmptyArray() throws Exception
+  {
+    assertNull(ByteBlockChopper.chopItUp(new byte[0]));
+    List byteBlocks = new ArrayList();
+    assertNull(ByteBlockChopper.glueChopsBackTogether(byteBlocks));
+    assertEquals(0, ByteBlockChopper.countChoppedBytes(byteBlocks));
+    assertEquals(0, readStream(byteBlocks).length);
+  }
+
+  public void testOneBlock() throws Exception
+  {
+    assertChops(createBytes(BLOCK_SIZE / 2), 1);
+    assertChops(createBytes(BLOCK_SIZE), 1);
+  }
+
+  public void testSeveralBlocks() throws Exception
+  {
+    assertChops(createBytes(BLOCK_SIZE * 2 + 5), 3);
+  }
+
+  public void testExactMultipleOfBlockSize() throws Exception
+  {
+    assertChops(createBytes(BLOCK_SIZE * 3), 3);
+  }
+
+  /**
+   * JBPM-702 sybase truncates trailing zeros of the blocks it stores.
+   */
+  public void testTruncatedBlocks() throws Exception
+  {
+    byte[] bytes = createBytes(BLOCK_SIZE * 3 + 2);
+    Arrays.fill(bytes, BLOCK_SIZE - 4, BLOCK_SIZE, (byte)0);
+    Arrays.fill(bytes, BLOCK_SIZE * 2, BLOCK_SIZE * 3, (byte)0);
+    List byteBlocks = new ArrayList();
+    byteBlocks.add(subArray(bytes, 0, BLOCK_SIZE - 4));
+    byteBlocks.add(subArray(bytes, BLOCK_SIZE, BLOCK_SIZE));
+    byteBlocks.add(new byte[0]);
+    byteBlocks.add(subArray(bytes, BLOCK_SIZE * 3, 2));
+
+    assertTrue(Arrays.equals(bytes, ByteBlockChopper.glueChopsBackTogether(byteBlocks)));
+    assertTrue(Arrays.equals(bytes, readStream(byteBlocks)));
+    assertTrue(Arrays.equals(bytes, readStreamByteByByte(byteBlocks)));
+    assertEquals(bytes.length, ByteBlockChopper.countChoppedBytes(byteBlocks));
+  }
+
+  public void testByteArrayLength() throws Exception
+  {
+    byte[] bytes = createBytes(BLOCK_SIZE * 2 + 3);
+    ByteArray byteArray = new ByteArray("bytes", bytes);
+    assertFalse(byteArray.isStoredAsBlob());
+    assertEquals(bytes.length, byteArray.getLength());
+    assertEquals(0, new ByteArray("empty", new byte[0]).getLength());
+    assertEquals(0, new ByteArray("null", null).getLength());
+  }
+
+  void assertChops(byte[] bytes, int blockCount) throws Exception
+  {
+    List byteBlocks = ByteBlockChopper.chopItUp(bytes);
+    assertEquals(blockCount, byteBlocks.size());
+    byte[] gluedBytes = ByteBlockChopper.glueChopsBackTogether(byteBlocks);
+    assertTrue(Arrays.equals(bytes, gluedBytes));
+    assertTrue(Arrays.equals(gluedBytes, readStream(byteBlocks)));
+    assertTrue(Arrays.equals(gluedBytes, readStreamByteByByte(byteBlocks)));
+    assertEquals(gluedBytes.length, ByteBlockChopper.countChoppedBytes(byteBlocks));
+  }
+
+  /**
+   * reads with a buffer that doesn't line up with the blocks.
+   */
+  static byte[] readStream(List byteBlocks) throws Exception
+  {
+    InputStream stream = ByteBlockChopper.streamChops(byteBlocks);
+    ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[BLOCK_SIZE / 2 + 3];
+    int count;
+    while ((count = stream.read(buffer, 0, buffer.length)) != -1)
+    {
+      memoryStream.write(buffer, 0, count);
+    }
+    return memoryStream.toByteArray();
+  }
+
+  static byte[] readStreamByteByByte(List byteBlocks) throws Exception
+  {
+    InputStream stream = ByteBlockChopper.streamChops(byteBlocks);
+    ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
+    int b;
+    while ((b = stream.read()) != -1)
+    {
+      memoryStream.write(b);
+    }
+    return memoryStream.toByteArray();
+  }
+
+  static byte[] createBytes(int length)
+  {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      bytes[i] = (byte)(i + 1);
+    }
+    return bytes;
+  }
+
+  static byte[] subArray(byte[] bytes, int offset, int length)
+  {
+    byte[] subArray = new byte[length];
+    System.arraycopy(bytes, offset, subArray, 0, length);
+    return subArray;
+  }
+}
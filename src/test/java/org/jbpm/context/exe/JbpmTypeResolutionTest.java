@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jbpm.AbstractJbpmTestCase;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.context.exe.JbpmType.Resolution;
+import org.jbpm.context.exe.converter.SerializableToByteArrayConverter;
+import org.jbpm.context.exe.matcher.SerializableMatcher;
+import org.jbpm.context.exe.variableinstance.ByteArrayInstance;
+import org.jbpm.context.exe.variableinstance.LongInstance;
+import org.jbpm.context.exe.variableinstance.StringInstance;
+
+/**
+ * checks that the per class cache of {@link JbpmType#getJbpmType(Object)} 
+ * keeps running the matchers that depend on the value.
+ */
+public class JbpmTypeResolutionTest extends AbstractJbpmTestCase
+{
+  static int specialOrderMatches = 0;
+
+  public static class Order implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+    boolean special;
+
+    public Order(boolean special)
+    {
+      this.special = special;
+    }
+  }
+
+  /**
+   * a matcher that depends on the value, not only on its class.
+   */
+  public static class SpecialOrderMatcher implements JbpmTypeMatcher
+  {
+    private static final long serialVersionUID = 1L;
+
+    public boolean matches(Object value)
+    {
+      specialOrderMatches++;
+      return (value instanceof Order) && ((Order)value).special;
+    }
+  }
+
+  public static class StringMatcher implements JbpmTypeClassMatcher
+  {
+    private static final long serialVersionUID = 1L;
+
+    public boolean matches(Object value)
+    {
+      return value instanceof String;
+    }
+  }
+
+  JbpmType stringType = new JbpmType(new StringMatcher(), null, StringInstance.class);
+  JbpmType specialOrderType = new JbpmType(new SpecialOrderMatcher(), null, LongInstance.class);
+  JbpmType serializableType = new JbpmType(new SerializableMatcher(), new SerializableToByteArrayConverter(), ByteArrayInstance.class);
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    specialOrderMatches = 0;
+  }
+
+  public void testClassMatchBeforeValueMatcher()
+  {
+    List jbpmTypes = Arrays.asList(new JbpmType[] { stringType, specialOrderType, serializableType });
+    Resolution resolution = JbpmType.resolve(jbpmTypes, "text");
+    assertEquals(0, resolution.candidates.length);
+    assertSame(stringType, resolution.getJbpmType("other text"));
+    assertEquals(0, specialOrderMatches);
+  }
+
+  public void testValueMatcherRunsForEveryValue()
+  {
+    List jbpmTypes = Arrays.asList(new JbpmType[] { stringType, specialOrderType, serializableType });
+    Resolution resolution = JbpmType.resolve(jbpmTypes, new Order(false));
+    assertEquals(1, resolution.candidates.length);
+    assertSame(specialOrderType, resolution.candidates[0]);
+    assertSame(serializableType, resolution.classMatch);
+
+    assertSame(serializableType, resolution.getJbpmType(new Order(false)));
+    assertSame(specialOrderType, resolution.getJbpmType(new Order(true)));
+    assertSame(serializableType, resolution.getJbpmType(new Order(false)));
+    assertEquals(3, specialOrderMatches);
+  }
+
+  public void testNoMatch()
+  {
+    List jbpmTypes = Arrays.asList(new JbpmType[] { stringType, specialOrderType });
+    Resolution resolution = JbpmType.resolve(jbpmTypes, new Object());
+    assertNull(resolution.classMatch);
+    assertNull(resolution.getJbpmType(new Object()));
+    assertSame(specialOrderType, resolution.getJbpmType(new Order(true)));
+  }
+
+  public void testGetJbpmTypeWithConfiguredTypes()
+  {
+    JbpmConfiguration jbpmConfiguration = JbpmConfiguration.parseXmlString(
+        "<jbpm-configuration>" +
+        "  <jbpm-context />" +
+        "  <list name='jbpm.types' singleton='true'>" +
+        "    <jbpm-type>" +
+        "      <matcher>" +
+        "        <bean class='org.jbpm.context.exe.matcher.ClassNameMatcher'>" +
+        "          <field name='className'><string value='java.lang.String' /></field>" +
+        "        </bean>" +
+        "      </matcher>" +
+        "      <variable-instance class='org.jbpm.context.exe.variableinstance.StringInstance' />" +
+        "    </jbpm-type>" +
+        "    <jbpm-type>" +
+        "      <matcher><bean class='org.jbpm.context.exe.JbpmTypeResolutionTest$SpecialOrderMatcher' /></matcher>" +
+        "      <variable-instance class='org.jbpm.context.exe.variableinstance.LongInstance' />" +
+        "    </jbpm-type>" +
+        "    <jbpm-type>" +
+        "      <matcher><bean class='org.jbpm.context.exe.matcher.SerializableMatcher' /></matcher>" +
+        "      <converter class='org.jbpm.context.exe.converter.SerializableToByteArrayConverter' />" +
+        "      <variable-instance class='org.jbpm.context.exe.variableinstance.ByteArrayInstance' />" +
+        "    </jbpm-type>" +
+        "  </list>" +
+        "</jbpm-configuration>");
+    JbpmContext jbpmContext = jbpmConfiguration.createJbpmContext();
+    try
+    {
+      List jbpmTypes = JbpmType.getJbpmTypes();
+      assertSame(jbpmTypes.get(2), JbpmType.getJbpmType(new Order(false)));
+      assertSame(jbpmTypes.get(1), JbpmType.getJbpmType(new Order(true)));
+      assertSame(jbpmTypes.get(2), JbpmType.getJbpmType(new Order(false)));
+      assertEquals(3, specialOrderMatches);
+
+      assertSame(jbpmTypes.get(0), JbpmType.getJbpmType("text"));
+      assertEquals(3, specialOrderMatches);
+      assertTrue(VariableInstance.createVariableInstance(new Order(true)) instanceof LongInstance);
+      assertTrue(VariableInstance.createVariableInstance(new Order(false)) instanceof ByteArrayInstance);
+    }
+    finally
+    {
+      jbpmContext.close();
+    }
+  }
+
+  public void testResolvedClassesAreBounded()
+  {
+    Map resolvedTypes = new ConcurrentHashMap();
+    for (int i = 0; i < JbpmType.MAX_RESOLVED_CLASSES; i++)
+    {
+      resolvedTypes.put(new Integer(i), new Resolution(new JbpmType[0], null));
+    }
+    Resolution resolution = new Resolution(new JbpmType[0], stringType);
+    JbpmType.putResolvedType(resolvedTypes, String.class, resolution);
+    assertEquals(1, resolvedTypes.size());
+    assertSame(resolution, resolvedTypes.get(String.class));
+
+    JbpmType.putResolvedType(resolvedTypes, Order.class, resolution);
+    assertEquals(2, resolvedTypes.size());
+  }
+}
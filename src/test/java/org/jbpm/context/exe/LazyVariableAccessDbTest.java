@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe;
+
+import org.hibernate.Hibernate;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.Collection;
+import org.jbpm.db.AbstractDbTestCase;
+import org.jbpm.db.hibernate.HibernateHelper;
+import org.jbpm.graph.def.ProcessDefinition;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.persistence.db.DbPersistenceServiceFactory;
+import org.jbpm.svc.Services;
+
+/**
+ * runs variable lookups through a fork and a join with 
+ * <code>jbpm.variable.access</code> set to lazy.
+ */
+public class LazyVariableAccessDbTest extends AbstractDbTestCase
+{
+  static final String[] VARIABLE_COLLECTION_ROLES = {
+    "org.jbpm.context.exe.ContextInstance.tokenVariableMaps",
+    "org.jbpm.context.exe.TokenVariableMap.variableInstances"
+  };
+
+  protected void setUp() throws Exception
+  {
+    setVariableAccess("lazy");
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception
+  {
+    super.tearDown();
+    setVariableAccess("eager");
+  }
+
+  void setVariableAccess(String variableAccess)
+  {
+    DbPersistenceServiceFactory persistenceServiceFactory = (DbPersistenceServiceFactory)getJbpmConfiguration().getServiceFactory(Services.SERVICENAME_PERSISTENCE);
+    Configuration configuration = persistenceServiceFactory.getConfiguration();
+    configuration.setProperty(HibernateHelper.VARIABLE_ACCESS_PROPERTY, variableAccess);
+    for (int i = 0; i < VARIABLE_COLLECTION_ROLES.length; i++)
+    {
+      Collection collection = configuration.getCollectionMapping(VARIABLE_COLLECTION_ROLES[i]);
+      collection.setExtraLazy(false);
+    }
+    HibernateHelper.configureVariableAccess(configuration);
+    persistenceServiceFactory.getSessionFactory().close();
+    persistenceServiceFactory.setSessionFactory(configuration.buildSessionFactory());
+  }
+
+  public void testForkJoin()
+  {
+    ProcessDefinition processDefinition = ProcessDefinition.parseXmlString(
+        "<process-definition name='lazy variables'>" +
+        "  <start-state name='start'>" +
+        "    <transition to='fork' />" +
+        "  </start-state>" +
+        "  <fork name='fork'>" +
+        "    <transition name='a' to='a' />" +
+        "    <transition name='b' to='b' />" +
+        "  </fork>" +
+        "  <state name='a'>" +
+        "    <transition to='join' />" +
+        "  </state>" +
+        "  <state name='b'>" +
+        "    <transition to='join' />" +
+        "  </state>" +
+        "  <join name='join'>" +
+        "    <transition to='end' />" +
+        "  </join>" +
+        "  <end-state name='end' />" +
+        "</process-definition>");
+    jbpmContext.deployProcessDefinition(processDefinition);
+    try
+    {
+      newTransaction();
+      ProcessInstance processInstance = jbpmContext.newProcessInstance("lazy variables");
+      processInstance.getContextInstance().setVariable("customer", "acme");
+      jbpmContext.save(processInstance);
+
+      newTransaction();
+      processInstance = jbpmContext.loadProcessInstance(processInstance.getId());
+      ContextInstance contextInstance = processInstance.getContextInstance();
+      processInstance.signal();
+
+      // the child tokens of the fork are not saved yet
+      Token tokenA = processInstance.getRootToken().getChild("a");
+      Token tokenB = processInstance.getRootToken().getChild("b");
+      assertEquals(0, tokenA.getId());
+      assertEquals("acme", contextInstance.getVariable("customer", tokenA));
+      contextInstance.setVariableLocally("approval", "granted", tokenA);
+      assertEquals("granted", contextInstance.getVariable("approval", tokenA));
+      assertNull(contextInstance.getVariable("approval", tokenB));
+      contextInstance.setVariable("customer", "acme corp", tokenB);
+      jbpmContext.save(processInstance);
+
+      newTransaction();
+      processInstance = jbpmContext.loadProcessInstance(processInstance.getId());
+      contextInstance = processInstance.getContextInstance();
+      tokenA = processInstance.getRootToken().getChild("a");
+      tokenB = processInstance.getRootToken().getChild("b");
+      assertEquals("granted", contextInstance.getVariable("approval", tokenA));
+      assertEquals("acme corp", contextInstance.getVariable("customer", tokenA));
+      assertFalse(Hibernate.isInitialized(contextInstance.getTokenVariableMaps()));
+
+      tokenA.signal();
+      tokenB.signal();
+      assertTrue(processInstance.hasEnded());
+      assertEquals("acme corp", contextInstance.getVariable("customer"));
+      assertEquals("acme corp", contextInstance.getVariables().get("customer"));
+      jbpmContext.save(processInstance);
+    }
+    finally
+    {
+      newTransaction();
+      graphSession.deleteProcessDefinition(processDefinition.getId());
+    }
+  }
+}
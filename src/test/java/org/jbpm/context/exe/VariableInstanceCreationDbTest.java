@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbpm.context.exe.variableinstance.UnpersistableInstance;
+import org.jbpm.db.AbstractDbTestCase;
+
+/**
+ * compares the cached jbpm type resolution of 
+ * {@link VariableInstance#createVariableInstance(Object)} with the linear 
+ * scan over all matchers it replaces, for 50 variables per process instance 
+ * with the default variable mapping.  The hibernate id matchers need the 
+ * session of the current context, hence the database test.
+ */
+public class VariableInstanceCreationDbTest extends AbstractDbTestCase
+{
+  static final int VARIABLES = 50;
+  static final int INSTANCES = 2000;
+
+  public static class Address implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+    String street = "main street";
+  }
+
+  public void testSameVariableInstanceClasses()
+  {
+    List values = createVariableValues();
+    for (Iterator iter = values.iterator(); iter.hasNext();)
+    {
+      Object value = iter.next();
+      assertSame(value.getClass().getName(), 
+          createVariableInstanceByScan(value).getClass(), 
+          VariableInstance.createVariableInstance(value).getClass());
+    }
+  }
+
+  public void testCreateVariableInstanceBenchmark()
+  {
+    List values = createVariableValues();
+    // warm up both paths, which also fills the cache
+    runScan(values, 100);
+    runCached(values, 100);
+
+    long scanStart = System.currentTimeMillis();
+    runScan(values, INSTANCES);
+    long scanTime = System.currentTimeMillis() - scanStart;
+
+    long cachedStart = System.currentTimeMillis();
+    runCached(values, INSTANCES);
+    long cachedTime = System.currentTimeMillis() - cachedStart;
+
+    log.info(VARIABLES + " variables x " + INSTANCES + " instances: linear scan " + scanTime + " ms, cached resolution " + cachedTime + " ms");
+  }
+
+  void runScan(List values, int instances)
+  {
+    for (int i = 0; i < instances; i++)
+    {
+      for (Iterator iter = values.iterator(); iter.hasNext();)
+      {
+        createVariableInstanceByScan(iter.next());
+      }
+    }
+  }
+
+  void runCached(List values, int instances)
+  {
+    for (int i = 0; i < instances; i++)
+    {
+      for (Iterator iter = values.iterator(); iter.hasNext();)
+      {
+        VariableInstance.createVariableInstance(iter.next());
+      }
+    }
+  }
+
+  /**
+   * the resolution before the cache: every matcher in turn, for every value.
+   */
+  static VariableInstance createVariableInstanceByScan(Object value)
+  {
+    Iterator iter = JbpmType.getJbpmTypes().iterator();
+    while (iter.hasNext())
+    {
+      JbpmType jbpmType = (JbpmType)iter.next();
+      if (jbpmType.matches(value))
+      {
+        return jbpmType.newVariableInstance();
+      }
+    }
+    return new UnpersistableInstance();
+  }
+
+  /**
+   * a mix of the variable types a process typically carries, including 
+   * serializable domain classes that pass the hibernate id matchers.
+   */
+  static List createVariableValues()
+  {
+    List values = new ArrayList();
+    for (int i = 0; values.size() < VARIABLES; i++)
+    {
+      switch (i % 10)
+      {
+      case 0: values.add("value " + i); break;
+      case 1: values.add(new Long(i)); break;
+      case 2: values.add(new Integer(i)); break;
+      case 3: values.add(Boolean.valueOf(i % 20 == 3)); break;
+      case 4: values.add(new Date()); break;
+      case 5: values.add(new Double(i)); break;
+      case 6: values.add(new byte[] { (byte)i }); break;
+      case 7: values.add(new Character('c')); break;
+      case 8: values.add(new Address()); break;
+      default: values.add(new HashMap()); break;
+      }
+    }
+    return values;
+  }
+
+  private static Log log = LogFactory.getLog(VariableInstanceCreationDbTest.class);
+}
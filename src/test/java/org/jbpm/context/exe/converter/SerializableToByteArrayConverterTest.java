@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.context.exe.converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jbpm.AbstractJbpmTestCase;
+import org.jbpm.JbpmException;
+import org.jbpm.bytes.ByteArray;
+
+/**
+ * reads and writes serializable variables in plain java serialization and 
+ * in the compact format, with and without compression.  No database 
+ * involved, the byte arrays are chopped into blocks in memory.
+ */
+public class SerializableToByteArrayConverterTest extends AbstractJbpmTestCase
+{
+  public static enum Priority
+  {
+    LOW, NORMAL, URGENT
+  }
+
+  public static class Shipment implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+
+    String address = "main street 1";
+    Priority priority = Priority.URGENT;
+    long[] parcelIds = new long[] { 4, 8, 15 };
+    String[] notes = new String[] { "fragile", null, "this side up" };
+    Priority[] history = new Priority[] { Priority.LOW, Priority.NORMAL };
+    List items = new ArrayList();
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Shipment))
+        return false;
+      Shipment other = (Shipment)o;
+      return address.equals(other.address) 
+          && priority == other.priority 
+          && Arrays.equals(parcelIds, other.parcelIds) 
+          && Arrays.equals(notes, other.notes) 
+          && Arrays.equals(history, other.history) 
+          && items.equals(other.items);
+    }
+
+    public int hashCode()
+    {
+      return address.hashCode();
+    }
+  }
+
+  static class CompactConverter extends CompactSerializableToByteArrayConverter
+  {
+    private static final long serialVersionUID = 1L;
+    int compressionThreshold;
+
+    CompactConverter(int compressionThreshold)
+    {
+      this.compressionThreshold = compressionThreshold;
+    }
+
+    protected int getCompressionThreshold()
+    {
+      return compressionThreshold;
+    }
+  }
+
+  SerializableToByteArrayConverter converter = new SerializableToByteArrayConverter();
+
+  public void testPlainSerializationWithoutHeader() throws Exception
+  {
+    Shipment shipment = createShipment();
+    // the way values were stored before the format header
+    ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
+    ObjectOutputStream objectStream = new ObjectOutputStream(memoryStream);
+    objectStream.writeObject(shipment);
+    objectStream.flush();
+    byte[] bytes = memoryStream.toByteArray();
+    assertEquals((byte)0xAC, bytes[0]);
+    assertEquals((byte)0xED, bytes[1]);
+
+    assertEquals(shipment, converter.readObject(new ByteArray(bytes), null));
+  }
+
+  public void testDefaultConverterWritesPlainSerialization()
+  {
+    Shipment shipment = createShipment();
+    ByteArray byteArray = (ByteArray)converter.convert(shipment);
+    byte[] bytes = byteArray.getBytes();
+    assertEquals((byte)0xAC, bytes[0]);
+    assertEquals((byte)0xED, bytes[1]);
+    assertEquals(shipment, converter.revert(byteArray));
+  }
+
+  public void testCompactRoundTrip()
+  {
+    assertCompactRoundTrip(new CompactConverter(-1), false);
+  }
+
+  public void testCompactDeflatedRoundTrip()
+  {
+    assertCompactRoundTrip(new CompactConverter(0), true);
+  }
+
+  public void testCompactValueReadByDefaultConverter()
+  {
+    Shipment shipment = createShipment();
+    ByteArray byteArray = (ByteArray)new CompactConverter(0).convert(shipment);
+    // every serializable converter reads all formats
+    assertEquals(shipment, converter.revert(byteArray));
+  }
+
+  public void testMismatchedSerialVersionUID() throws Exception
+  {
+    byte[] bytes = writeCompact(createShipment());
+    // TC_OBJECT, TC_CLASSDESC, the class name in modified utf-8, the serialVersionUID
+    int serialVersionUIDIndex = 2 + 2 + Shipment.class.getName().length();
+    bytes[serialVersionUIDIndex + 7] ^= 1;
+
+    try
+    {
+      new CompactSerializer().readObject(new ByteArrayInputStream(bytes), null);
+      fail("expected InvalidClassException");
+    }
+    catch (InvalidClassException e)
+    {
+      assertEquals(Shipment.class.getName(), e.classname);
+    }
+
+    byte[] value = new byte[SerializableToByteArrayConverter.HEADER_LENGTH + bytes.length];
+    value[0] = SerializableToByteArrayConverter.MAGIC_0;
+    value[1] = SerializableToByteArrayConverter.MAGIC_1;
+    value[2] = (byte)CompactSerializer.FORMAT_ID;
+    System.arraycopy(bytes, 0, value, SerializableToByteArrayConverter.HEADER_LENGTH, bytes.length);
+    try
+    {
+      converter.readObject(new ByteArray(value), null);
+      fail("expected JbpmException");
+    }
+    catch (JbpmException e)
+    {
+      assertTrue(e.getCause() instanceof InvalidClassException);
+    }
+  }
+
+  public void testCompactArraysAndEnums() throws Exception
+  {
+    Object[] values = new Object[] { 
+        Priority.NORMAL, 
+        new Priority[] { Priority.URGENT, null, Priority.LOW }, 
+        new int[] { 1, 2, 3 }, 
+        new String[][] { { "a", "b" }, { "c" } }, 
+        new Shipment[] { createShipment(), createShipment() } };
+    for (int i = 0; i < values.length; i++)
+    {
+      Object value = new CompactSerializer().readObject(new ByteArrayInputStream(writeCompact(values[i])), null);
+      assertTrue(Arrays.deepEquals(new Object[] { values[i] }, new Object[] { value }));
+    }
+    // enum constants stay singletons
+    assertSame(Priority.NORMAL, new CompactSerializer().readObject(new ByteArrayInputStream(writeCompact(Priority.NORMAL)), null));
+  }
+
+  void assertCompactRoundTrip(SerializableToByteArrayConverter compactConverter, boolean isDeflated)
+  {
+    Shipment shipment = createShipment();
+    ByteArray byteArray = (ByteArray)compactConverter.convert(shipment);
+    byte[] bytes = byteArray.getBytes();
+    assertEquals(SerializableToByteArrayConverter.MAGIC_0, bytes[0]);
+    assertEquals(SerializableToByteArrayConverter.MAGIC_1, bytes[1]);
+    assertEquals(CompactSerializer.FORMAT_ID, bytes[2]);
+    assertEquals(isDeflated, (bytes[3] & SerializableToByteArrayConverter.FLAG_DEFLATE) != 0);
+    assertEquals(shipment, compactConverter.revert(byteArray));
+  }
+
+  static byte[] writeCompact(Object value) throws Exception
+  {
+    ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
+    new CompactSerializer().writeObject(value, memoryStream);
+    return memoryStream.toByteArray();
+  }
+
+  static Shipment createShipment()
+  {
+    Shipment shipment = new Shipment();
+    for (int i = 0; i < 100; i++)
+    {
+      shipment.items.add("item " + i);
+    }
+    return shipment;
+  }
+}
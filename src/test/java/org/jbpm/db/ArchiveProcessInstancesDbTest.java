@@ -0,0 +1,258 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.hibernate.Query;
+import org.jbpm.bytes.ByteArray;
+import org.jbpm.graph.def.ProcessDefinition;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.taskmgmt.exe.TaskInstance;
+
+/**
+ * archives and purges an ended process instance with a fork, a sub process, 
+ * pooled task instances, comments, byte array variables and logs.
+ */
+public class ArchiveProcessInstancesDbTest extends AbstractDbTestCase
+{
+  /** counts the runtime rows of the process instances */
+  static final String[] RUNTIME_COUNTS = new String[] {
+      "select count(*) from org.jbpm.graph.exe.ProcessInstance pi where pi.id in (:ids)",
+      "select count(*) from org.jbpm.graph.exe.Token t where t.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.module.exe.ModuleInstance mi where mi.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.context.exe.TokenVariableMap tvm where tvm.token.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.context.exe.VariableInstance v where v.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.taskmgmt.exe.TaskInstance ti where ti.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.taskmgmt.exe.SwimlaneInstance si where si.taskMgmtInstance.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.graph.exe.Comment c where c.token.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.graph.exe.Comment c where c.taskInstance.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.logging.log.ProcessLog l where l.token.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.job.Job j where j.processInstance.id in (:ids)" };
+
+  /** counts the history rows of the process instances */
+  static final String[] HISTORY_COUNTS = new String[] {
+      "select count(*) from org.jbpm.graph.exe.HistoricProcessInstance pi where pi.id in (:ids)",
+      "select count(*) from org.jbpm.graph.exe.HistoricToken t where t.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.context.exe.HistoricVariableInstance v where v.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.taskmgmt.exe.HistoricTaskInstance ti where ti.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.graph.exe.HistoricComment c where c.token.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.graph.exe.HistoricComment c where c.taskInstance.processInstance.id in (:ids)",
+      "select count(*) from org.jbpm.logging.log.HistoricProcessLog l where l.token.processInstance.id in (:ids)" };
+
+  static final List POOLED_ACTOR_IDS = Arrays.asList(new String[] { "archive-reviewers", "archive-packers" });
+
+  ProcessDefinition shipping;
+  ProcessDefinition order;
+  long processInstanceId;
+  long subProcessInstanceId;
+  List processInstanceIds = new ArrayList();
+  byte[] document = new byte[3000];
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    Arrays.fill(document, (byte)7);
+
+    shipping = ProcessDefinition.parseXmlString(
+        "<process-definition name='archive shipping'>" +
+        "  <start-state>" +
+        "    <transition to='pack' />" +
+        "  </start-state>" +
+        "  <task-node name='pack'>" +
+        "    <task name='pack'>" +
+        "      <assignment pooled-actors='archive-packers' />" +
+        "    </task>" +
+        "    <transition to='end' />" +
+        "  </task-node>" +
+        "  <end-state name='end' />" +
+        "</process-definition>");
+    jbpmContext.deployProcessDefinition(shipping);
+
+    order = ProcessDefinition.parseXmlString(
+        "<process-definition name='archive order'>" +
+        "  <swimlane name='reviewer'>" +
+        "    <assignment pooled-actors='archive-reviewers' />" +
+        "  </swimlane>" +
+        "  <start-state>" +
+        "    <transition to='fork' />" +
+        "  </start-state>" +
+        "  <fork name='fork'>" +
+        "    <transition name='review' to='review' />" +
+        "    <transition name='ship' to='ship' />" +
+        "  </fork>" +
+        "  <task-node name='review'>" +
+        "    <task name='check' swimlane='reviewer' />" +
+        "    <transition to='join' />" +
+        "  </task-node>" +
+        "  <process-state name='ship'>" +
+        "    <sub-process name='archive shipping' />" +
+        "    <transition to='join' />" +
+        "  </process-state>" +
+        "  <join name='join'>" +
+        "    <transition to='end' />" +
+        "  </join>" +
+        "  <end-state name='end' />" +
+        "</process-definition>");
+    jbpmContext.deployProcessDefinition(order);
+    newTransaction();
+
+    ProcessInstance processInstance = jbpmContext.newProcessInstanceForUpdate("archive order");
+    processInstance.getContextInstance().setVariable("customer", "acme");
+    processInstance.getContextInstance().setVariable("document", document);
+    processInstance.getRootToken().addComment("rush order");
+    processInstance.signal();
+    processInstanceId = processInstance.getId();
+    newTransaction();
+
+    // a second transaction, so that the tasks are pooled in the database
+    processInstance = jbpmContext.loadProcessInstanceForUpdate(processInstanceId);
+    processInstance.getContextInstance().setVariable("document", document);
+    ProcessInstance subProcessInstance = processInstance.getRootToken().getChild("ship").getSubProcessInstance();
+    subProcessInstanceId = subProcessInstance.getId();
+    endTasks(subProcessInstance, "packed");
+    endTasks(processInstance, "checked");
+    jbpmContext.save(subProcessInstance);
+    newTransaction();
+
+    processInstance = jbpmContext.loadProcessInstance(processInstanceId);
+    assertTrue(processInstance.hasEnded());
+    assertTrue(jbpmContext.loadProcessInstance(subProcessInstanceId).hasEnded());
+    processInstanceIds.add(new Long(processInstanceId));
+    processInstanceIds.add(new Long(subProcessInstanceId));
+
+    // every kind of runtime row is there to begin with, except for jobs
+    for (int i = 0; i < RUNTIME_COUNTS.length - 1; i++)
+    {
+      assertTrue(RUNTIME_COUNTS[i], count(RUNTIME_COUNTS[i]) > 0);
+    }
+    assertTrue(countPooledActors() > 0);
+    assertFalse(findByteArrayIds().isEmpty());
+  }
+
+  protected void tearDown() throws Exception
+  {
+    newTransaction();
+    graphSession.deleteProcessDefinition(order.getId());
+    graphSession.deleteProcessDefinition(shipping.getId());
+    super.tearDown();
+  }
+
+  public void testArchive()
+  {
+    List byteArrayIds = findByteArrayIds();
+    assertEquals(2, graphSession.archiveProcessInstances(processInstanceIds));
+    newTransaction();
+
+    assertRuntimeRowsDeleted();
+    for (int i = 0; i < HISTORY_COUNTS.length; i++)
+    {
+      assertTrue(HISTORY_COUNTS[i], count(HISTORY_COUNTS[i]) > 0);
+    }
+
+    // the archived variables and logs still reference their byte arrays
+    for (Iterator iter = byteArrayIds.iterator(); iter.hasNext();)
+    {
+      ByteArray byteArray = (ByteArray)session.get(ByteArray.class, (Long)iter.next());
+      assertNotNull(byteArray);
+      assertTrue(Arrays.equals(document, byteArray.getBytes()));
+    }
+    assertEquals(2, graphSession.findHistoricVariableInstances(processInstanceId).size());
+    assertFalse(graphSession.findHistoricLogs(processInstanceId).isEmpty());
+
+    ProcessInstance processInstance = graphSession.getProcessInstance(processInstanceId, true);
+    assertNotNull(processInstance);
+    assertTrue(graphSession.isHistoric(processInstance));
+    assertNull(graphSession.getProcessInstance(processInstanceId));
+  }
+
+  public void testPurge()
+  {
+    List byteArrayIds = findByteArrayIds();
+    assertEquals(2, graphSession.purgeProcessInstances(processInstanceIds));
+    newTransaction();
+
+    assertRuntimeRowsDeleted();
+    for (Iterator iter = byteArrayIds.iterator(); iter.hasNext();)
+    {
+      assertNull(session.get(ByteArray.class, (Long)iter.next()));
+    }
+    for (int i = 0; i < HISTORY_COUNTS.length; i++)
+    {
+      assertEquals(HISTORY_COUNTS[i], 0, count(HISTORY_COUNTS[i]));
+    }
+  }
+
+  void assertRuntimeRowsDeleted()
+  {
+    for (int i = 0; i < RUNTIME_COUNTS.length; i++)
+    {
+      assertEquals(RUNTIME_COUNTS[i], 0, count(RUNTIME_COUNTS[i]));
+    }
+    assertEquals(0, countPooledActors());
+  }
+
+  void endTasks(ProcessInstance processInstance, String comment)
+  {
+    Iterator iter = processInstance.getTaskMgmtInstance().getTaskInstances().iterator();
+    while (iter.hasNext())
+    {
+      TaskInstance taskInstance = (TaskInstance)iter.next();
+      assertFalse(taskInstance.getPooledActors().isEmpty());
+      taskInstance.addComment(comment);
+      taskInstance.end();
+    }
+  }
+
+  /**
+   * the byte arrays of the document variable and of its update logs.
+   */
+  List findByteArrayIds()
+  {
+    List byteArrayIds = new ArrayList();
+    Query query = session.createQuery("select v.value.id from org.jbpm.context.exe.variableinstance.ByteArrayInstance v where v.processInstance.id in (:ids)");
+    query.setParameterList("ids", processInstanceIds);
+    byteArrayIds.addAll(query.list());
+    query = session.createQuery("select l.newValue.id from org.jbpm.context.log.variableinstance.ByteArrayUpdateLog l where l.token.processInstance.id in (:ids)");
+    query.setParameterList("ids", processInstanceIds);
+    byteArrayIds.addAll(query.list());
+    return byteArrayIds;
+  }
+
+  long countPooledActors()
+  {
+    Query query = session.createQuery("select count(*) from org.jbpm.taskmgmt.exe.PooledActor pa where pa.actorId in (:actorIds)");
+    query.setParameterList("actorIds", POOLED_ACTOR_IDS);
+    return ((Number)query.uniqueResult()).longValue();
+  }
+
+  long count(String hql)
+  {
+    Query query = session.createQuery(hql);
+    query.setParameterList("ids", processInstanceIds);
+    return ((Number)query.uniqueResult()).longValue();
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.hibernate.Hibernate;
+import org.hibernate.stat.Statistics;
+import org.jbpm.command.GetTaskListCommand;
+import org.jbpm.context.exe.ContextInstance;
+import org.jbpm.graph.def.ProcessDefinition;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.taskmgmt.exe.TaskInstance;
+
+/**
+ * checks that a fetch plan loads the process instances it is given with one 
+ * select per query of the plan, however many instances it fetches.
+ */
+public class FetchPlanDbTest extends AbstractDbTestCase
+{
+  static final int INSTANCES = 5;
+
+  List processInstanceIds = new ArrayList();
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    ProcessDefinition processDefinition = ProcessDefinition.parseXmlString(
+        "<process-definition name='fetch plan'>" +
+        "  <start-state>" +
+        "    <transition to='review' />" +
+        "  </start-state>" +
+        "  <task-node name='review'>" +
+        "    <task name='check' />" +
+        "    <transition to='end' />" +
+        "  </task-node>" +
+        "  <end-state name='end' />" +
+        "</process-definition>");
+    graphSession.deployProcessDefinition(processDefinition);
+    for (int i = 0; i < INSTANCES; i++)
+    {
+      ProcessInstance processInstance = new ProcessInstance(processDefinition);
+      processInstance.getContextInstance().setVariable("customer", "customer " + i);
+      processInstance.getContextInstance().setVariable("document", new byte[] { (byte)i });
+      processInstance.getRootToken().addComment("started");
+      processInstance.signal();
+      TaskInstance taskInstance = (TaskInstance)processInstance.getTaskMgmtInstance().getTaskInstances().iterator().next();
+      taskInstance.setPooledActors(new String[] { "reviewers", "managers" });
+      taskInstance.setVariableLocally("note", "note " + i);
+      taskInstance.addComment("assigned");
+      jbpmContext.save(processInstance);
+      processInstanceIds.add(new Long(processInstance.getId()));
+    }
+    newTransaction();
+  }
+
+  public void testExecutionPlanStatements()
+  {
+    assertFetchStatements(FetchPlan.EXECUTION);
+  }
+
+  public void testTaskFormPlanStatements()
+  {
+    assertFetchStatements(FetchPlan.TASK_FORM);
+  }
+
+  public void testFullPlanStatements()
+  {
+    assertFetchStatements(FetchPlan.FULL);
+  }
+
+  public void testTaskFormPlanInitializesTasks()
+  {
+    graphSession.fetchProcessInstances(processInstanceIds, FetchPlan.TASK_FORM);
+    Iterator iter = processInstanceIds.iterator();
+    while (iter.hasNext())
+    {
+      ProcessInstance processInstance = graphSession.loadProcessInstance(((Long)iter.next()).longValue());
+      Token rootToken = processInstance.getRootToken();
+      assertTrue(Hibernate.isInitialized(rootToken));
+      ContextInstance contextInstance = processInstance.getContextInstance();
+      assertTrue(Hibernate.isInitialized(contextInstance.getTokenVariableMaps()));
+      TaskInstance taskInstance = (TaskInstance)processInstance.getTaskMgmtInstance().getTaskInstances().iterator().next();
+      assertTrue(Hibernate.isInitialized(taskInstance));
+      assertTrue(Hibernate.isInitialized(taskInstance.getVariableInstances()));
+    }
+  }
+
+  public void testTaskListWithStandAloneTask() throws Exception
+  {
+    // no process instance and no token
+    TaskInstance taskInstance = new TaskInstance("stand alone", "john");
+    session.save(taskInstance);
+    newTransaction();
+
+    GetTaskListCommand command = new GetTaskListCommand(new String[] { "john" });
+    command.setFetchPlan(FetchPlan.FULL);
+    List taskInstances = (List)command.execute(jbpmContext);
+    assertEquals(1, taskInstances.size());
+    assertEquals(taskInstance.getId(), ((TaskInstance)taskInstances.get(0)).getId());
+  }
+
+  /**
+   * the plan takes as many selects for one process instance as for all of them.
+   */
+  void assertFetchStatements(String fetchPlan)
+  {
+    int expected = FetchPlan.getFetchPlan(fetchPlan).getQueryNames().length;
+    assertEquals(expected, countFetchStatements(processInstanceIds.subList(0, 1), fetchPlan));
+    assertEquals(expected, countFetchStatements(processInstanceIds, fetchPlan));
+  }
+
+  long countFetchStatements(List ids, String fetchPlan)
+  {
+    newTransaction();
+    Statistics statistics = session.getSessionFactory().getStatistics();
+    statistics.setStatisticsEnabled(true);
+    statistics.clear();
+    try
+    {
+      graphSession.fetchProcessInstances(new ArrayList(ids), fetchPlan);
+      return statistics.getPrepareStatementCount();
+    }
+    finally
+    {
+      statistics.setStatisticsEnabled(false);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jbpm.db;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.jbpm.taskmgmt.exe.TaskInstance;
+
+/**
+ * pages through a task list of personal and pooled task instances, some 
+ * without due date and several with the same sort value.
+ */
+public class TaskListQueryDbTest extends AbstractDbTestCase
+{
+  static final int PAGE_SIZE = 3;
+  static final long BASE_TIME = 1200000000000L;
+
+  static final String[] ACTOR_IDS = new String[] { "john", "reviewers" };
+
+  /** ids of the task instances the actors should see */
+  Set expectedIds = new HashSet();
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    for (int i = 0; i < 16; i++)
+    {
+      TaskInstance taskInstance = new TaskInstance("task " + i);
+      if (i % 2 == 0)
+      {
+        taskInstance.setActorId("john");
+      }
+      else
+      {
+        taskInstance.setPooledActors(new String[] { "reviewers", "managers" });
+      }
+      // duplicate sort values, so that the id breaks the ties
+      taskInstance.setCreate(new Date(BASE_TIME + (i % 5) * 1000));
+      taskInstance.setPriority(i % 4);
+      taskInstance.setDueDate(i % 3 == 0 ? null : new Date(BASE_TIME + (i % 4) * 60000));
+      session.save(taskInstance);
+      expectedIds.add(new Long(taskInstance.getId()));
+    }
+
+    // task instances the actors must not see
+    session.save(new TaskInstance("other actor", "mary"));
+    TaskInstance otherPool = new TaskInstance("other pool");
+    otherPool.setPooledActors(new String[] { "managers" });
+    session.save(otherPool);
+    TaskInstance takenFromPool = new TaskInstance("taken from pool", "mary");
+    takenFromPool.setPooledActors(new String[] { "reviewers" });
+    session.save(takenFromPool);
+
+    newTransaction();
+  }
+
+  public void testCount()
+  {
+    TaskListQuery query = new TaskListQuery(ACTOR_IDS);
+    assertEquals(expectedIds.size(), taskMgmtSession.countTaskInstances(query));
+    assertEquals(8, taskMgmtSession.countTaskInstances(new TaskListQuery(ACTOR_IDS).includePooled(false)));
+    assertEquals(8, taskMgmtSession.countTaskInstances(new TaskListQuery(ACTOR_IDS).includePersonal(false)));
+  }
+
+  public void testPagesByCreate()
+  {
+    assertPages(TaskListQuery.ORDER_BY_CREATE, false);
+    assertPages(TaskListQuery.ORDER_BY_CREATE, true);
+  }
+
+  public void testPagesByPriority()
+  {
+    assertPages(TaskListQuery.ORDER_BY_PRIORITY, false);
+    assertPages(TaskListQuery.ORDER_BY_PRIORITY, true);
+  }
+
+  public void testPagesByDueDate()
+  {
+    assertPages(TaskListQuery.ORDER_BY_DUE_DATE, false);
+    assertPages(TaskListQuery.ORDER_BY_DUE_DATE, true);
+  }
+
+  /**
+   * reads all pages, each in its own transaction, and checks that every 
+   * task instance appears exactly once and in order.
+   */
+  void assertPages(String orderBy, boolean descending)
+  {
+    TaskListQuery query = new TaskListQuery(ACTOR_IDS).orderBy(orderBy).descending(descending).maxResults(PAGE_SIZE);
+    assertEquals(expectedIds.size(), taskMgmtSession.countTaskInstances(query));
+
+    List taskInstances = new ArrayList();
+    List page;
+    do
+    {
+      newTransaction();
+      page = taskMgmtSession.findTaskInstances(query);
+      assertTrue(page.size() <= PAGE_SIZE);
+      taskInstances.addAll(page);
+      if (!page.isEmpty())
+      {
+        query.after((TaskInstance)page.get(page.size() - 1));
+      }
+      // guards against a query that keeps returning the same page
+      assertTrue(taskInstances.size() <= expectedIds.size());
+    }
+    while (page.size() == PAGE_SIZE);
+
+    Set ids = new HashSet();
+    for (Iterator iter = taskInstances.iterator(); iter.hasNext();)
+    {
+      ids.add(new Long(((TaskInstance)iter.next()).getId()));
+    }
+    assertEquals(expectedIds.size(), taskInstances.size());
+    assertEquals(expectedIds, ids);
+
+    for (int i = 1; i < taskInstances.size(); i++)
+    {
+      TaskInstance previous = (TaskInstance)taskInstances.get(i - 1);
+      TaskInstance current = (TaskInstance)taskInstances.get(i);
+      assertTrue(orderBy + (descending ? " desc" : "") + ": " + previous.getId() + " before " + current.getId(), 
+          compare(orderBy, previous, current, descending) < 0);
+    }
+  }
+
+  /**
+   * compares like the task list query: by the sort value, then by id, in 
+   * the given direction.  Nulls come last in both directions.
+   */
+  static int compare(String orderBy, TaskInstance ti1, TaskInstance ti2, boolean descending)
+  {
+    Long value1 = getSortValue(orderBy, ti1);
+    Long value2 = getSortValue(orderBy, ti2);
+    if (value1 == null && value2 != null)
+      return 1;
+    if (value1 != null && value2 == null)
+      return -1;
+    int comparison = (value1 != null ? value1.compareTo(value2) : 0);
+    if (comparison == 0)
+    {
+      comparison = (ti1.getId() < ti2.getId() ? -1 : (ti1.getId() == ti2.getId() ? 0 : 1));
+    }
+    return (descending ? -comparison : comparison);
+  }
+
+  static Long getSortValue(String orderBy, TaskInstance taskInstance)
+  {
+    if (TaskListQuery.ORDER_BY_PRIORITY.equals(orderBy))
+    {
+      return new Long(taskInstance.getPriority());
+    }
+    Date date = (TaskListQuery.ORDER_BY_DUE_DATE.equals(orderBy) ? taskInstance.getDueDate() : taskInstance.getCreate());
+    return (date != null ? new Long(date.getTime()) : null);
+  }
+}